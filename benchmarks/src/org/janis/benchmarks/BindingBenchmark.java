@@ -0,0 +1,298 @@
+package org.janis.benchmarks;
+
+import static org.junit.Assert.assertNotNull;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.janis.BaseActivity;
+import org.janis.binding.BindingPlan;
+import org.janis.binding.ViewBinder;
+import org.janis.metrics.Histogram;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.view.View;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+
+/**
+ * Measures the ways BaseActivity binds its fields: looking up
+ * every field and id by reflection on each bind, the plan cached
+ * per class, and a binder like the one generated by the processor.
+ * Each run binds BINDS_PER_RUN times, one bind being too short
+ * to time by itself.
+ *
+ * BaseActivity.bind is measured too, through setContentView with
+ * the framework's two line list item, once with the cached plan
+ * and once with a generated binder. Those runs include inflating
+ * the layout, so the share of the binding is printed separately
+ * from BaseActivity.getBindTime.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BindingBenchmark {
+
+	private static final int BINDS_PER_RUN = 1000;
+	private static final int ACTIVITY_BINDS_PER_RUN = 100;
+	private static final String PACKAGE = "org.janis.benchmarks";
+	private static final String[] IDS = {
+		"title", "subtitle", "icon", "body", "footer", "accept", "decline"
+	};
+
+	private Resources mResources;
+	private View mRoot;
+
+	@Before
+	public void setUp() {
+		Context context = RuntimeEnvironment.application;
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		for (int i = 0; i < IDS.length; i++) {
+			ids.put(IDS[i], i + 1);
+		}
+		mResources = new IdResources(context.getResources(), ids);
+
+		// the bound views are spread over a few levels,
+		// between views that aren't bound
+		LinearLayout root = new LinearLayout(context);
+		LinearLayout parent = root;
+		for (int i = 0; i < IDS.length; i++) {
+			LinearLayout child = new LinearLayout(context);
+			parent.addView(new TextView(context));
+			parent.addView(child);
+			View view = i == 2 ? new ImageView(context)
+				: i >= 5 ? new Button(context) : new TextView(context);
+			view.setId(ids.get(IDS[i]));
+			child.addView(view);
+			parent = child;
+		}
+		mRoot = root;
+	}
+
+	@Test
+	public void reflection() throws Exception {
+		final Screen screen = new Screen();
+		Macrobenchmark.run("Binding by reflection", new Macrobenchmark.Block() {
+			@Override
+			public void run() throws Exception {
+				for (int i = 0; i < BINDS_PER_RUN; i++) {
+					bindByReflection(screen, mResources, mRoot);
+				}
+			}
+		});
+		assertNotNull(screen.decline);
+	}
+
+	@Test
+	public void cachedPlan() throws Exception {
+		final Screen screen = new Screen();
+		Macrobenchmark.run("Binding by cached plan", new Macrobenchmark.Block() {
+			@Override
+			public void run() {
+				for (int i = 0; i < BINDS_PER_RUN; i++) {
+					BindingPlan.get(Screen.class, mResources, PACKAGE)
+						.bind(screen, mRoot);
+				}
+			}
+		});
+		assertNotNull(screen.decline);
+	}
+
+	@Test
+	public void generatedBinder() throws Exception {
+		final Screen screen = new Screen();
+		final ScreenBinder binder = new ScreenBinder();
+		Macrobenchmark.run("Binding by generated binder", new Macrobenchmark.Block() {
+			@Override
+			public void run() {
+				for (int i = 0; i < BINDS_PER_RUN; i++) {
+					binder.bind(screen, mRoot);
+				}
+			}
+		});
+		assertNotNull(screen.decline);
+	}
+
+	@Test
+	public void baseActivityByCachedPlan() throws Exception {
+		bindActivity("BaseActivity by cached plan", PlanActivity.class);
+	}
+
+	@Test
+	public void baseActivityByGeneratedBinder() throws Exception {
+		bindActivity("BaseActivity by generated binder",
+				GeneratedActivity.class);
+	}
+
+	private void bindActivity(String name,
+			Class<? extends ListItemActivity> cls) throws Exception {
+		final ListItemActivity activity =
+			Robolectric.buildActivity(cls).setup().get();
+		activity.frameworkIds = true;
+		Macrobenchmark.run(name + " with inflation", new Macrobenchmark.Block() {
+			@Override
+			public void run() {
+				for (int i = 0; i < ACTIVITY_BINDS_PER_RUN; i++) {
+					activity.setContentView(android.R.layout.simple_list_item_2);
+				}
+			}
+		});
+		Histogram bindTimes = new Histogram();
+		for (int i = 0; i < Macrobenchmark.RUNS; i++) {
+			long bindTime = 0;
+			for (int j = 0; j < ACTIVITY_BINDS_PER_RUN; j++) {
+				activity.setContentView(android.R.layout.simple_list_item_2);
+				bindTime += activity.getBindTime();
+			}
+			bindTimes.record(bindTime);
+		}
+		Macrobenchmark.print(name + " binding only", bindTimes);
+		assertNotNull(activity.text1);
+		assertNotNull(activity.text2);
+	}
+
+	/**
+	 * Binds the way BaseActivity did before the plans were
+	 * cached: the fields and the ids are looked up on each bind.
+	 */
+	static void bindByReflection(Object target, Resources resources,
+			View root) throws IllegalAccessException {
+		for (Field field : target.getClass().getDeclaredFields()) {
+			if(Modifier.isStatic(field.getModifiers())
+					|| !View.class.isAssignableFrom(field.getType())){
+				continue;
+			}
+			int id = resources.getIdentifier(field.getName(), "id", PACKAGE);
+			if(id == 0){
+				continue;
+			}
+			View view = root.findViewById(id);
+			if(view != null && field.getType().isInstance(view)){
+				field.setAccessible(true);
+				field.set(target, view);
+			}
+		}
+	}
+
+	static final class Screen {
+		TextView title;
+		TextView subtitle;
+		ImageView icon;
+		TextView body;
+		TextView footer;
+		Button accept;
+		Button decline;
+	}
+
+	/**
+	 * What ViewBinderProcessor generates for Screen.
+	 */
+	static final class ScreenBinder implements ViewBinder<Screen> {
+		@Override
+		public void bind(Screen target, View source) {
+			View view;
+			view = source.findViewById(1);
+			if(view instanceof TextView){
+				target.title = (TextView) view;
+			}
+			view = source.findViewById(2);
+			if(view instanceof TextView){
+				target.subtitle = (TextView) view;
+			}
+			view = source.findViewById(3);
+			if(view instanceof ImageView){
+				target.icon = (ImageView) view;
+			}
+			view = source.findViewById(4);
+			if(view instanceof TextView){
+				target.body = (TextView) view;
+			}
+			view = source.findViewById(5);
+			if(view instanceof TextView){
+				target.footer = (TextView) view;
+			}
+			view = source.findViewById(6);
+			if(view instanceof Button){
+				target.accept = (Button) view;
+			}
+			view = source.findViewById(7);
+			if(view instanceof Button){
+				target.decline = (Button) view;
+			}
+		}
+	}
+
+	/**
+	 * Binds the two text views of simple_list_item_2. Their ids
+	 * are in the android package, which BaseActivity resolves the
+	 * names with once frameworkIds is set after the activity is
+	 * created.
+	 */
+	public static class ListItemActivity extends BaseActivity {
+		boolean frameworkIds;
+		TextView text1;
+		TextView text2;
+
+		@Override
+		public String getPackageName() {
+			return frameworkIds ? "android" : super.getPackageName();
+		}
+	}
+
+	public static class PlanActivity extends ListItemActivity {
+	}
+
+	public static class GeneratedActivity extends ListItemActivity {
+	}
+
+	/**
+	 * What ViewBinderProcessor generates for GeneratedActivity,
+	 * found by ViewBinders through its name.
+	 */
+	public static final class GeneratedActivity_ViewBinder
+			implements ViewBinder<GeneratedActivity> {
+		@Override
+		public void bind(GeneratedActivity target, View source) {
+			View view;
+			view = source.findViewById(android.R.id.text1);
+			if(view instanceof TextView){
+				target.text1 = (TextView) view;
+			}
+			view = source.findViewById(android.R.id.text2);
+			if(view instanceof TextView){
+				target.text2 = (TextView) view;
+			}
+		}
+	}
+
+	/**
+	 * Resolves the ids by name without generated resources.
+	 */
+	static final class IdResources extends Resources {
+		private final Map<String, Integer> mIds;
+
+		IdResources(Resources base, Map<String, Integer> ids) {
+			super(base.getAssets(), base.getDisplayMetrics(),
+					base.getConfiguration());
+			mIds = ids;
+		}
+
+		@Override
+		public int getIdentifier(String name, String defType,
+				String defPackage) {
+			Integer id = mIds.get(name);
+			return id == null ? 0 : id;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package org.janis.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janis.metrics.Histogram;
+import org.janis.views.ImageLoader;
+import org.janis.views.LoadingImageView;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import android.graphics.drawable.Drawable;
+
+/**
+ * Measures the image loader against an in-process server:
+ * coalescing of the requests for the same urls, and how many
+ * LoadingImageViews are loaded in a second. No memory or disk
+ * cache is set, so every run goes to the network.
+ *
+ * Callbacks are posted to the main looper, which is idled by
+ * the test thread while waiting, so Robolectric should run in
+ * the paused looper mode, its default since 4.4.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ImageLoaderBenchmark {
+
+	private static final int IMAGE_SIZE = 64;
+	private static final long LATENCY = 20;
+	private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+	private ImageServer mServer;
+	private int mRun;
+
+	@Before
+	public void setUp() throws Exception {
+		mServer = new ImageServer(IMAGE_SIZE, LATENCY);
+	}
+
+	@After
+	public void tearDown() {
+		mServer.stop();
+	}
+
+	/**
+	 * Requests each url many times at once, each url should
+	 * still be downloaded once.
+	 */
+	@Test
+	public void coalescing() throws Exception {
+		final int urlCount = 10;
+		final int requestsPerUrl = 20;
+		final ImageLoader loader = new ImageLoader(
+				ImageLoader.DEFAULT_NETWORK_THREADS,
+				ImageLoader.DEFAULT_DECODE_THREADS);
+		final AtomicInteger maxRequests = new AtomicInteger();
+		try {
+			Macrobenchmark.run("ImageLoader " + urlCount * requestsPerUrl
+					+ " requests for " + urlCount + " urls",
+					new Macrobenchmark.Block() {
+				@Override
+				public void run() throws Exception {
+					mServer.resetRequestCount();
+					String run = "?run=" + mRun++;
+					final CountDownLatch done =
+						new CountDownLatch(urlCount * requestsPerUrl);
+					ImageLoader.Callback callback = new ImageLoader.Callback() {
+						@Override
+						public void onLoaded(String url, Drawable drawable) {
+							done.countDown();
+						}
+
+						@Override
+						public void onFailed(String url, Exception e) {
+							e.printStackTrace();
+							done.countDown();
+						}
+					};
+					for (int i = 0; i < requestsPerUrl; i++) {
+						for (int j = 0; j < urlCount; j++) {
+							loader.load(mServer.getUrl(j + ".png" + run),
+									IMAGE_SIZE, IMAGE_SIZE, callback,
+									ImageLoader.PRIORITY_NORMAL);
+						}
+					}
+					await(done);
+					maxRequests.set(Math.max(maxRequests.get(),
+							mServer.getRequestCount()));
+				}
+			});
+		} finally {
+			loader.shutdown();
+		}
+		assertEquals(urlCount, maxRequests.get());
+	}
+
+	/**
+	 * Sets a new url to each of the views and waits until
+	 * all are loaded.
+	 */
+	@Test
+	public void loadingImageViewThroughput() throws Exception {
+		final int viewCount = 50;
+		final LoadingImageView[] views = new LoadingImageView[viewCount];
+		for (int i = 0; i < viewCount; i++) {
+			views[i] = new LoadingImageView(RuntimeEnvironment.application);
+			views[i].setRequestedSize(IMAGE_SIZE, IMAGE_SIZE);
+		}
+		Histogram durations = Macrobenchmark.run("LoadingImageView "
+				+ viewCount + " views", new Macrobenchmark.Block() {
+			@Override
+			public void run() throws Exception {
+				final CountDownLatch done = new CountDownLatch(viewCount);
+				LoadingImageView.OnDownloadListener listener =
+					new LoadingImageView.OnDownloadListener() {
+					@Override
+					public void onDrawableDownloaded(LoadingImageView view,
+							Drawable drawable) {
+						done.countDown();
+					}
+
+					@Override
+					public void onException(LoadingImageView view,
+							Exception e) {
+						e.printStackTrace();
+						done.countDown();
+					}
+				};
+				String run = "?run=" + mRun++;
+				for (int i = 0; i < viewCount; i++) {
+					views[i].setDownloadHandler(listener);
+					views[i].setImageUrl(mServer.getUrl(i + ".png" + run));
+				}
+				await(done);
+			}
+		});
+		System.out.println("LoadingImageView: " + viewCount * 1000000000L
+				/ Math.max(durations.getPercentile(50), 1) + " images/s at p50");
+	}
+
+	/**
+	 * Runs the main looper until the latch is counted down.
+	 */
+	private static void await(CountDownLatch latch)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TIMEOUT;
+		while(!latch.await(1, TimeUnit.MILLISECONDS)){
+			ShadowLooper.idleMainLooper();
+			if(System.nanoTime() > deadline){
+				throw new AssertionError("timed out, "
+						+ latch.getCount() + " left");
+			}
+		}
+	}
+}
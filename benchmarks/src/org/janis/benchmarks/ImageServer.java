@@ -0,0 +1,102 @@
+package org.janis.benchmarks;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand in for an image server. Every path is
+ * answered with the same PNG after the given latency, and the
+ * requests are counted to check how many downloads are shared.
+ */
+final class ImageServer {
+
+	private final HttpServer mServer;
+	private final byte[] mImage;
+	private final long mLatency;
+	private final AtomicInteger mRequestCount = new AtomicInteger();
+
+	/**
+	 * Starts a server on a free port of the loopback address.
+	 *
+	 * @param size the width and height of the image in pixels
+	 * @param latency the delay before each response in milliseconds
+	 */
+	ImageServer(int size, long latency) throws IOException {
+		mImage = createImage(size);
+		mLatency = latency;
+		mServer = HttpServer.create(new InetSocketAddress(
+				InetAddress.getByName("127.0.0.1"), 0), 0);
+		mServer.setExecutor(Executors.newCachedThreadPool());
+		mServer.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				mRequestCount.incrementAndGet();
+				try {
+					Thread.sleep(mLatency);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				exchange.getResponseHeaders().set("Content-Type", "image/png");
+				exchange.sendResponseHeaders(200, mImage.length);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(mImage);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		mServer.start();
+	}
+
+	/**
+	 * Gets the url of an image.
+	 *
+	 * @param path the path of the image, without the leading slash
+	 * @return the url
+	 */
+	String getUrl(String path) {
+		return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/" + path;
+	}
+
+	/**
+	 * @return the number of requests since the last reset
+	 */
+	int getRequestCount() {
+		return mRequestCount.get();
+	}
+
+	void resetRequestCount() {
+		mRequestCount.set(0);
+	}
+
+	void stop() {
+		mServer.stop(0);
+	}
+
+	private static byte[] createImage(int size) throws IOException {
+		BufferedImage image = new BufferedImage(size, size,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setColor(Color.ORANGE);
+		graphics.fillOval(0, 0, size, size);
+		graphics.dispose();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return out.toByteArray();
+	}
+}
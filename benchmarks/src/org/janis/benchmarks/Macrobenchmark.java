@@ -0,0 +1,61 @@
+package org.janis.benchmarks;
+
+import org.janis.metrics.Histogram;
+
+/**
+ * Runs a block a number of times after warming up and prints
+ * the distribution of the durations. The Robolectric benchmarks
+ * run as JUnit tests, so they're timed by hand rather than by JMH.
+ */
+final class Macrobenchmark {
+
+	static final int WARMUP_RUNS = 3;
+	static final int RUNS = 10;
+
+	private Macrobenchmark() {
+	}
+
+	/**
+	 * A measured block.
+	 */
+	interface Block {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Runs the block WARMUP_RUNS times, then measures RUNS runs.
+	 *
+	 * @param name the name printed with the results
+	 * @param block the block to measure
+	 * @return the durations of the measured runs in nanoseconds
+	 */
+	static Histogram run(String name, Block block) throws Exception {
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			block.run();
+		}
+		Histogram durations = new Histogram();
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			block.run();
+			durations.record(System.nanoTime() - start);
+		}
+		print(name, durations);
+		return durations;
+	}
+
+	/**
+	 * Prints the distribution of the durations.
+	 *
+	 * @param name the name printed with the results
+	 * @param durations the durations in nanoseconds
+	 */
+	static void print(String name, Histogram durations) {
+		System.out.println(name + ": p50=" + millis(durations.getPercentile(50))
+				+ "ms p90=" + millis(durations.getPercentile(90))
+				+ "ms max=" + millis(durations.getMax()) + "ms");
+	}
+
+	static String millis(long nanos) {
+		return String.format("%.2f", nanos / 1000000.0);
+	}
+}
@@ -0,0 +1,91 @@
+package org.janis.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.janis.cache.MemoryLruCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the memory cache behind the image cache when it's
+ * accessed from the decode threads and the main thread at once.
+ * The key space is twice the capacity, so about half of the
+ * gets miss and puts keep evicting, like a scrolling list.
+ *
+ * The concurrency level is a parameter, 1 being a single lock
+ * for the whole cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryLruCacheBenchmark {
+
+	private static final int CAPACITY = 1024;
+	private static final int KEY_COUNT = CAPACITY * 2;
+
+	@Param({ "1", "4", "16" })
+	public int concurrencyLevel;
+
+	private MemoryLruCache<String, byte[]> mCache;
+	private String[] mKeys;
+	private byte[] mValue;
+
+	@Setup
+	public void setUp() {
+		mCache = new MemoryLruCache<String, byte[]>(CAPACITY, concurrencyLevel);
+		mKeys = new String[KEY_COUNT];
+		for (int i = 0; i < KEY_COUNT; i++) {
+			mKeys[i] = "http://example.com/images/" + i + ".png";
+		}
+		mValue = new byte[64];
+		for (int i = 0; i < CAPACITY; i++) {
+			mCache.put(mKeys[i], mValue);
+		}
+	}
+
+	private String nextKey() {
+		return mKeys[ThreadLocalRandom.current().nextInt(KEY_COUNT)];
+	}
+
+	@Benchmark
+	@Threads(4)
+	public byte[] get() {
+		return mCache.get(nextKey());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public byte[] put() {
+		return mCache.put(nextKey(), mValue);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public byte[] mixedGet() {
+		return mCache.get(nextKey());
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public byte[] mixedPut() {
+		return mCache.put(nextKey(), mValue);
+	}
+}
@@ -0,0 +1,158 @@
+package org.janis.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.janis.views.NotScrollingGridView;
+import org.janis.views.NotScrollingListView;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+
+import android.app.Activity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * Measures setting the height of the not scrolling views. Cold
+ * runs measure every item, cached runs follow a data change of an
+ * adapter with stable ids, so the cached heights are reused. The
+ * list view observes its adapter only while it's attached, so it's
+ * the content of an activity.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class NotScrollingViewsBenchmark {
+
+	private static final int[] ITEM_COUNTS = { 100, 1000, 10000 };
+	private static final int WIDTH = 480;
+	private static final int HEIGHT = 800;
+
+	@Test
+	public void listView() throws Exception {
+		for (int count : ITEM_COUNTS) {
+			ActivityController<Activity> controller =
+				Robolectric.buildActivity(Activity.class);
+			final NotScrollingListView view =
+				new NotScrollingListView(controller.get());
+			controller.get().setContentView(view);
+			controller.setup();
+			view.layout(0, 0, WIDTH, HEIGHT);
+			final TextAdapter adapter = new TextAdapter(count);
+			view.setAdapter(adapter);
+
+			Macrobenchmark.run("NotScrollingListView cold " + count,
+					new Macrobenchmark.Block() {
+				@Override
+				public void run() {
+					view.setHeightBasedOnItems();
+				}
+			});
+			adapter.resetGetViewCount();
+			Macrobenchmark.run("NotScrollingListView cached " + count,
+					new Macrobenchmark.Block() {
+				@Override
+				public void run() {
+					adapter.notifyDataSetChanged();
+				}
+			});
+			// no row is measured again
+			assertEquals(0, adapter.getGetViewCount());
+			assertTrue(view.getLayoutParams().height > 0);
+		}
+	}
+
+	@Test
+	public void gridView() throws Exception {
+		for (int count : ITEM_COUNTS) {
+			final NotScrollingGridView view = new NotScrollingGridView(
+					RuntimeEnvironment.application,
+					Robolectric.buildAttributeSet().build());
+			view.setNumColumns(3);
+			view.layout(0, 0, WIDTH, HEIGHT);
+			final TextAdapter adapter = new TextAdapter(count);
+
+			Macrobenchmark.run("NotScrollingGridView cold " + count,
+					new Macrobenchmark.Block() {
+				@Override
+				public void run() {
+					// a new adapter forgets the cached heights
+					view.setAdapter(adapter);
+				}
+			});
+			Macrobenchmark.run("NotScrollingGridView cached " + count,
+					new Macrobenchmark.Block() {
+				@Override
+				public void run() {
+					view.setHeightBasedOnItems();
+				}
+			});
+			assertTrue(view.getLayoutParams().height > 0);
+		}
+	}
+
+	/**
+	 * Rows of text with a few different lengths, so they
+	 * wrap to different heights.
+	 */
+	static final class TextAdapter extends BaseAdapter {
+		private static final String WORDS =
+			"Lorem ipsum dolor sit amet, consectetur adipiscing elit. ";
+
+		private final int mCount;
+		private int mGetViewCount;
+
+		TextAdapter(int count) {
+			mCount = count;
+		}
+
+		@Override
+		public int getCount() {
+			return mCount;
+		}
+
+		@Override
+		public Object getItem(int position) {
+			return position;
+		}
+
+		@Override
+		public long getItemId(int position) {
+			return position;
+		}
+
+		@Override
+		public boolean hasStableIds() {
+			return true;
+		}
+
+		int getGetViewCount() {
+			return mGetViewCount;
+		}
+
+		void resetGetViewCount() {
+			mGetViewCount = 0;
+		}
+
+		@Override
+		public View getView(int position, View convertView, ViewGroup parent) {
+			mGetViewCount++;
+			TextView view = (TextView) convertView;
+			if(view == null){
+				view = new TextView(parent.getContext());
+			}
+			StringBuilder text = new StringBuilder("Item ").append(position);
+			for (int i = 0; i < position % 4; i++) {
+				text.append(' ').append(WORDS);
+			}
+			view.setText(text);
+			return view;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package org.janis.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.janis.concurrent.PriorityExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the scheduling of the loader tasks: queueing a burst
+ * of tasks with mixed priorities until they are all run, and
+ * moving a queued task, which the image loader does for each
+ * view bound to an url already being loaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PriorityExecutorBenchmark {
+
+	@Param({ "100", "1000" })
+	public int queueSize;
+
+	private PriorityExecutor mExecutor;
+	private PriorityExecutor mBurstExecutor;
+	private CountDownLatch mBlocker;
+	private CountingTask[] mQueued;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		mExecutor = new PriorityExecutor("Benchmark", 1);
+		mBurstExecutor = new PriorityExecutor("BenchmarkBurst", 2);
+	}
+
+	/**
+	 * Blocks the only thread and fills the queue, so the
+	 * reprioritize benchmark always finds its tasks queued.
+	 */
+	@Setup(Level.Iteration)
+	public void fillQueue() {
+		mBlocker = new CountDownLatch(1);
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mBlocker.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		mQueued = new CountingTask[queueSize];
+		for (int i = 0; i < queueSize; i++) {
+			mQueued[i] = new CountingTask(i % 3 - 1, null);
+			mExecutor.execute(mQueued[i]);
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void drainQueue() {
+		mExecutor.getQueue().clear();
+		mBlocker.countDown();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mExecutor.shutdownNow();
+		mBurstExecutor.shutdownNow();
+	}
+
+	@Benchmark
+	public boolean reprioritize() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		CountingTask task = mQueued[random.nextInt(queueSize)];
+		return mExecutor.reprioritize(task, random.nextInt(3) - 1);
+	}
+
+	@Benchmark
+	public void executeBurst() throws InterruptedException {
+		// the other executor is blocked by fillQueue
+		CountDownLatch done = new CountDownLatch(queueSize);
+		for (int i = 0; i < queueSize; i++) {
+			mBurstExecutor.execute(new CountingTask(i % 3 - 1, done));
+		}
+		done.await();
+	}
+
+	private static final class CountingTask extends PriorityExecutor.Task {
+		private final CountDownLatch mDone;
+
+		CountingTask(int priority, CountDownLatch done) {
+			super(priority);
+			mDone = done;
+		}
+
+		@Override
+		public void run() {
+			if(mDone != null){
+				mDone.countDown();
+			}
+		}
+	}
+}
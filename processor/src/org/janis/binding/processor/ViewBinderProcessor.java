@@ -0,0 +1,277 @@
+package org.janis.binding.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a ViewBinder for each class annotated with
+ * org.janis.binding.GenerateBinder. The binder sets each
+ * View field to the view whose id has the same name as
+ * the field, with plain findViewById calls and no reflection.
+ * As with the reflective binding, the fields inherited from
+ * superclasses outside the android and java packages are bound
+ * too. A superclass that has its own generated binder is bound
+ * by calling it. As with the reflective binding too, a field
+ * is left untouched when its view isn't found or isn't of the
+ * field's type.
+ *
+ * Put the compiled processor to the annotation processor
+ * path of the application, it's found through
+ * META-INF/services/javax.annotation.processing.Processor.
+ */
+public class ViewBinderProcessor extends AbstractProcessor {
+
+	static final String ANNOTATION = "org.janis.binding.GenerateBinder";
+	static final String VIEW = "android.view.View";
+	static final String VIEW_BINDER = "org.janis.binding.ViewBinder";
+	static final String SUFFIX = "_ViewBinder";
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(ANNOTATION);
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+
+		TypeElement annotation = processingEnv.getElementUtils()
+			.getTypeElement(ANNOTATION);
+		TypeElement view = processingEnv.getElementUtils().getTypeElement(VIEW);
+		if(annotation == null || view == null){
+			return false;
+		}
+		for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+			if(element.getKind() != ElementKind.CLASS){
+				error(element, "@GenerateBinder can only annotate classes");
+				continue;
+			}
+			TypeElement type = (TypeElement) element;
+			String idClass = getIdClass(type, annotation);
+			TypeElement boundSuperclass = getBoundSuperclass(type, annotation);
+			List<VariableElement> fields = getViewFields(type,
+					boundSuperclass, view.asType());
+			if(idClass == null || fields == null){
+				continue;
+			}
+			try {
+				writeBinder(type, idClass, fields, boundSuperclass,
+						view.asType());
+			} catch (IOException e) {
+				error(type, "Can't write the binder: " + e.getMessage());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the R.id class from the annotation of the type.
+	 */
+	private String getIdClass(TypeElement type, TypeElement annotation) {
+		for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+			if(!mirror.getAnnotationType().asElement().equals(annotation)){
+				continue;
+			}
+			for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+					: mirror.getElementValues().entrySet()) {
+				if(entry.getKey().getSimpleName().contentEquals("value")){
+					Object value = entry.getValue().getValue();
+					if(value instanceof TypeMirror){
+						return value.toString();
+					}
+				}
+			}
+		}
+		error(type, "@GenerateBinder needs the R.id class");
+		return null;
+	}
+
+	/**
+	 * Finds the nearest superclass that has its own generated
+	 * binder, below the android and java packages.
+	 *
+	 * @return the superclass, or null
+	 */
+	private TypeElement getBoundSuperclass(TypeElement type,
+			TypeElement annotation) {
+		for (TypeElement c = getSuperclass(type);
+				c != null && !isFrameworkClass(c); c = getSuperclass(c)) {
+			if(isAnnotated(c, annotation)){
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Collects the instance fields of the type and its superclasses
+	 * that are Views, up to the bound superclass, or the android and
+	 * java packages. Returns null if a View field can't be bound.
+	 */
+	private List<VariableElement> getViewFields(TypeElement type,
+			TypeElement boundSuperclass, TypeMirror view) {
+
+		List<VariableElement> fields = new ArrayList<VariableElement>();
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+		boolean valid = true;
+		for (TypeElement c = type; c != null && c != boundSuperclass
+				&& !isFrameworkClass(c); c = getSuperclass(c)) {
+			boolean samePackage = processingEnv.getElementUtils()
+				.getPackageOf(c).equals(pkg);
+			for (VariableElement field
+					: ElementFilter.fieldsIn(c.getEnclosedElements())) {
+				Set<Modifier> modifiers = field.getModifiers();
+				if(modifiers.contains(Modifier.STATIC)
+						|| !processingEnv.getTypeUtils().isAssignable(
+								field.asType(), view)){
+					continue;
+				}
+				if(modifiers.contains(Modifier.PRIVATE)
+						|| modifiers.contains(Modifier.FINAL)){
+					error(field, "Bound view fields can't be private or final");
+					valid = false;
+					continue;
+				}
+				if(!samePackage && !modifiers.contains(Modifier.PUBLIC)){
+					error(field, "Bound view fields inherited from another"
+							+ " package must be public");
+					valid = false;
+					continue;
+				}
+				fields.add(field);
+			}
+		}
+		return valid ? fields : null;
+	}
+
+	private TypeElement getSuperclass(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		if(superclass.getKind() != TypeKind.DECLARED){
+			return null;
+		}
+		return (TypeElement) ((DeclaredType) superclass).asElement();
+	}
+
+	private boolean isFrameworkClass(TypeElement type) {
+		String name = type.getQualifiedName().toString();
+		return name.startsWith("android.") || name.startsWith("java.");
+	}
+
+	private boolean isAnnotated(TypeElement type, TypeElement annotation) {
+		for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+			if(mirror.getAnnotationType().asElement().equals(annotation)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the name of the binder generated for the type.
+	 */
+	private String getBinderName(TypeElement type) {
+		String packageName = processingEnv.getElementUtils()
+			.getPackageOf(type).getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils()
+			.getBinaryName(type).toString();
+		return binaryName.substring(
+				packageName.isEmpty() ? 0 : packageName.length() + 1) + SUFFIX;
+	}
+
+	private void writeBinder(TypeElement type, String idClass,
+			List<VariableElement> fields, TypeElement boundSuperclass,
+			TypeMirror view) throws IOException {
+
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+		String packageName = pkg.getQualifiedName().toString();
+		String binderName = getBinderName(type);
+		String targetName = type.getQualifiedName().toString();
+
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(
+				packageName.isEmpty() ? binderName : packageName + "." + binderName,
+				type);
+		Writer writer = file.openWriter();
+		try {
+			if(!packageName.isEmpty()){
+				writer.write("package " + packageName + ";\n\n");
+			}
+			writer.write("/**\n * Generated by ViewBinderProcessor, don't edit.\n */\n");
+			writer.write("public final class " + binderName
+					+ " implements " + VIEW_BINDER + "<" + targetName + "> {\n\n");
+			writer.write("\t@Override\n");
+			writer.write("\tpublic void bind(" + targetName + " target, "
+					+ VIEW + " source) {\n");
+			if(boundSuperclass != null){
+				String superPackage = processingEnv.getElementUtils()
+					.getPackageOf(boundSuperclass).getQualifiedName().toString();
+				String superBinder = getBinderName(boundSuperclass);
+				writer.write("\t\tnew " + (superPackage.isEmpty() ? superBinder
+						: superPackage + "." + superBinder)
+						+ "().bind(target, source);\n");
+			}
+			if(!fields.isEmpty()){
+				writer.write("\t\t" + VIEW + " view;\n");
+			}
+			Set<String> names = new HashSet<String>();
+			for (VariableElement field : fields) {
+				String name = field.getSimpleName().toString();
+				// a field hidden by a subclass field is reached by a cast
+				String owner = names.add(name) ? "target"
+					: "((" + ((TypeElement) field.getEnclosingElement())
+						.getQualifiedName() + ") target)";
+				writer.write("\t\tview = source.findViewById("
+						+ idClass + "." + name + ");\n");
+				// findViewById already returns a View
+				if(processingEnv.getTypeUtils().isSameType(field.asType(), view)){
+					writer.write("\t\tif(view != null){\n");
+					writer.write("\t\t\t" + owner + "." + name + " = view;\n");
+				} else {
+					writer.write("\t\tif(view instanceof "
+							+ processingEnv.getTypeUtils().erasure(field.asType())
+							+ "){\n");
+					writer.write("\t\t\t" + owner + "." + name + " = ("
+							+ field.asType() + ") view;\n");
+				}
+				writer.write("\t\t}\n");
+			}
+			writer.write("\t}\n}\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(
+				Diagnostic.Kind.ERROR, message, element);
+	}
+}
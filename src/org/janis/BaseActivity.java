@@ -1,12 +1,19 @@
 package org.janis;
 
-import java.lang.reflect.Field;
+import org.janis.binding.BindingPlan;
+import org.janis.binding.ViewBinder;
+import org.janis.binding.ViewBinders;
 
 import android.app.Activity;
+import android.util.Log;
 import android.view.View;
 
 public abstract class BaseActivity extends Activity {
 	
+	private static final String TAG = "BaseActivity";
+	
+	private long mBindTime;
+	
 	/* Overriding the Activity.setContentView to auto
 	 * bind activity's fields to layout xml View objects.
 	 */
@@ -18,41 +25,39 @@ public abstract class BaseActivity extends Activity {
 	
 	/**
 	 * Binds the activity fields to instances created
-	 * in the set layout xml.
+	 * in the set layout xml. If a binder is generated
+	 * for the activity (see GenerateBinder), it's used,
+	 * otherwise fields, including the inherited ones,
+	 * are bound by reflection with a plan cached per class.
+	 * Either way a failed binding is logged, and the fields
+	 * not bound yet are left null.
 	 */
 	private void bind(){
-		// bind members to xml view instances
+		long start = System.nanoTime();
+		View root = getWindow().getDecorView();
+		ViewBinder<Object> binder = ViewBinders.getBinder(getClass());
 		try {
-			Field[] fields = getClass().getDeclaredFields();
-			for (int i = 0; i < fields.length; i++){
-				Field field = fields[i];
-            	
-				// TODO: failsafe if identifier is not presented
-				if(isFieldAView(field)){
-					int identifier = getResources()
-						.getIdentifier(field.getName(), "id", this.getPackageName());
-					field.set(this, findViewById(identifier));
-				} 
+			if(binder != null){
+				binder.bind(this, root);
+			} else {
+				// bind members to xml view instances
+				BindingPlan.get(getClass(), getResources(), getPackageName())
+					.bind(this, root);
 			}
-		} catch (Throwable e) {
-			System.err.println(e);
+		} catch (RuntimeException e) {
+			// e.g. a view of another type than its field
+			Log.e(TAG, "Unable to bind the views", e);
 		}
+		mBindTime = System.nanoTime() - start;
 	}
 	
 	/**
-	 * Checks if given field's type is a subclass of View
-	 * or View's itself.
+	 * Gets how long the last binding took, to measure
+	 * its share of the startup time.
 	 *
-	 * @param field
-	 * @return true, if is field's type a View
+	 * @return the duration in nanoseconds
 	 */
-	@SuppressWarnings("unchecked")
-	private boolean isFieldAView(Field f){
-		Class c = f.getType();
-		while(c != Object.class){
-			if(c == View.class) return true;
-			c = c.getSuperclass();
-		}
-		return false;
+	public long getBindTime() {
+		return mBindTime;
 	}
 }
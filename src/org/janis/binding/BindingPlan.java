@@ -0,0 +1,160 @@
+package org.janis.binding;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.res.Resources;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * The reflective binding of a class: its View fields, including
+ * the ones inherited from its superclasses, and the ids resolved
+ * from the field names. A plan only depends on the class, so it's
+ * built once per process and cached. Binding walks the view
+ * hierarchy once to find all the ids, rather than calling
+ * findViewById for each field.
+ *
+ * Fields without a matching id are left untouched. Superclasses
+ * from the android packages are not scanned.
+ */
+public final class BindingPlan {
+
+	private static final String TAG = "BindingPlan";
+
+	private static final Map<Class<?>, BindingPlan> sPlans =
+		new HashMap<Class<?>, BindingPlan>();
+
+	private final Field[] mFields;
+	private final int[] mIds;
+
+	private BindingPlan(Field[] fields, int[] ids) {
+		mFields = fields;
+		mIds = ids;
+	}
+
+	/**
+	 * Gets the cached plan of the class, or builds it.
+	 *
+	 * @param cls the class of the targets
+	 * @param resources the resources to resolve the ids with
+	 * @param packageName the package of the resources
+	 * @return the plan
+	 */
+	public static BindingPlan get(Class<?> cls, Resources resources,
+			String packageName) {
+		synchronized (sPlans) {
+			BindingPlan plan = sPlans.get(cls);
+			if(plan == null){
+				plan = build(cls, resources, packageName);
+				sPlans.put(cls, plan);
+			}
+			return plan;
+		}
+	}
+
+	private static BindingPlan build(Class<?> cls, Resources resources,
+			String packageName) {
+		List<Field> fields = new ArrayList<Field>();
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Class<?> c = cls; c != null && !isFrameworkClass(c);
+				c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if(Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)
+						|| !View.class.isAssignableFrom(field.getType())){
+					continue;
+				}
+				int id = resources.getIdentifier(field.getName(), "id",
+						packageName);
+				if(id == 0){
+					continue;
+				}
+				field.setAccessible(true);
+				fields.add(field);
+				ids.add(id);
+			}
+		}
+		int[] idArray = new int[ids.size()];
+		for (int i = 0; i < idArray.length; i++) {
+			idArray[i] = ids.get(i);
+		}
+		return new BindingPlan(fields.toArray(new Field[fields.size()]), idArray);
+	}
+
+	private static boolean isFrameworkClass(Class<?> c) {
+		String name = c.getName();
+		return name.startsWith("android.") || name.startsWith("java.");
+	}
+
+	/**
+	 * @return the number of fields bound by the plan
+	 */
+	public int getFieldCount() {
+		return mFields.length;
+	}
+
+	/**
+	 * Binds the fields of the target to the views under the root.
+	 *
+	 * @param target the object whose fields are set
+	 * @param root the root of the views
+	 */
+	public void bind(Object target, View root) {
+		if(mFields.length == 0){
+			return;
+		}
+		SparseArray<View> views = new SparseArray<View>(mIds.length);
+		for (int id : mIds) {
+			views.put(id, null);
+		}
+		index(root, views, new int[] { views.size() });
+		for (int i = 0; i < mFields.length; i++) {
+			View view = views.get(mIds[i]);
+			if(view == null || !mFields[i].getType().isInstance(view)){
+				continue;
+			}
+			try {
+				mFields[i].set(target, view);
+			} catch (IllegalAccessException e) {
+				// can't happen after setAccessible
+				Log.e(TAG, "Unable to bind " + mFields[i].getName(), e);
+			}
+		}
+	}
+
+	/**
+	 * Visits the hierarchy in the order of findViewById, keeping
+	 * the first view of each wanted id. Stops when all are found.
+	 *
+	 * @return false when all the ids are found
+	 */
+	private static boolean index(View view, SparseArray<View> views,
+			int[] remaining) {
+		int id = view.getId();
+		if(id != View.NO_ID){
+			int index = views.indexOfKey(id);
+			if(index >= 0 && views.valueAt(index) == null){
+				views.put(id, view);
+				if(--remaining[0] == 0){
+					return false;
+				}
+			}
+		}
+		if(view instanceof ViewGroup){
+			ViewGroup group = (ViewGroup) view;
+			for (int i = 0, count = group.getChildCount(); i < count; i++) {
+				if(!index(group.getChildAt(i), views, remaining)){
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
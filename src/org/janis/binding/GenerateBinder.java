@@ -0,0 +1,30 @@
+package org.janis.binding;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose View fields are bound by a binder
+ * generated at compile time by the janis binding processor
+ * (see the processor directory). As with the reflective
+ * binding, each View field is bound to the view whose id
+ * has the same name as the field. The generated binder is
+ * named after the class with a "_ViewBinder" suffix.
+ *
+ * Bound fields can't be private. A field without a matching
+ * id is a compile error rather than a null at runtime.
+ *
+ * E.g.: {@literal @}GenerateBinder(R.id.class)
+ *       public class MainActivity extends BaseActivity { ... }
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface GenerateBinder {
+
+	/**
+	 * The id class of the application's resources, R.id.class.
+	 */
+	Class<?> value();
+}
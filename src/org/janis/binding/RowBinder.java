@@ -0,0 +1,100 @@
+package org.janis.binding;
+
+import android.content.Context;
+import android.view.View;
+
+/**
+ * Binds the views of adapter rows into holder objects, once
+ * per inflated row. The holder is kept as the tag of the row,
+ * so a recycled convertView gets its holder back without any
+ * findViewById. Holder fields are bound like the activity
+ * fields: by the generated binder if the holder class is
+ * annotated with GenerateBinder, or by a cached BindingPlan.
+ *
+ * The holder class needs a public no-argument constructor,
+ * e.g. a public static nested class.
+ *
+ * E.g.:
+ *     public View getView(int position, View convertView, ViewGroup parent) {
+ *         View row = convertView != null ? convertView
+ *             : inflater.inflate(R.layout.row, parent, false);
+ *         Holder holder = mRowBinder.getHolder(row);
+ *         holder.title.setText(getItem(position).title);
+ *         return row;
+ *     }
+ *
+ * Rows shouldn't use their tag for something else.
+ *
+ * @param <H> the type of the holders
+ */
+public class RowBinder<H> {
+
+	private final Class<H> mHolderClass;
+	private ViewBinder<Object> mBinder;
+	private BindingPlan mPlan;
+
+	/**
+	 * Constructs a new row binder.
+	 *
+	 * @param holderClass the class of the holders
+	 */
+	public RowBinder(Class<H> holderClass) {
+		if(holderClass == null){
+			throw new IllegalArgumentException("holderClass is null");
+		}
+		mHolderClass = holderClass;
+	}
+
+	/**
+	 * Gets the holder of the row, binding a new one if
+	 * the row is freshly inflated. Should be called in
+	 * the main thread.
+	 *
+	 * @param row the view of the row
+	 * @return the holder
+	 */
+	public H getHolder(View row) {
+		Object tag = row.getTag();
+		if(mHolderClass.isInstance(tag)){
+			return mHolderClass.cast(tag);
+		}
+		H holder = newHolder();
+		bind(holder, row);
+		row.setTag(holder);
+		return holder;
+	}
+
+	/**
+	 * Binds the fields of the holder to the views of the row.
+	 *
+	 * @param holder the holder
+	 * @param row the view of the row
+	 */
+	public void bind(H holder, View row) {
+		if(mBinder == null && mPlan == null){
+			mBinder = ViewBinders.getBinder(mHolderClass);
+			if(mBinder == null){
+				Context context = row.getContext();
+				mPlan = BindingPlan.get(mHolderClass, context.getResources(),
+						context.getPackageName());
+			}
+		}
+		if(mBinder != null){
+			mBinder.bind(holder, row);
+		} else {
+			mPlan.bind(holder, row);
+		}
+	}
+
+	private H newHolder() {
+		try {
+			return mHolderClass.newInstance();
+		} catch (InstantiationException e) {
+			throw new IllegalStateException(
+					mHolderClass + " needs a public no-argument constructor", e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(
+					mHolderClass + " needs a public no-argument constructor", e);
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package org.janis.binding;
+
+import android.view.View;
+
+/**
+ * Binds the View fields of a target to the views
+ * of an inflated hierarchy.
+ *
+ * @param <T> the type of the target
+ */
+public interface ViewBinder<T> {
+
+	/**
+	 * Binds the fields of the target.
+	 *
+	 * @param target the object whose fields are set
+	 * @param source the root of the views
+	 */
+	void bind(T target, View source);
+}
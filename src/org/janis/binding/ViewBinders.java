@@ -0,0 +1,66 @@
+package org.janis.binding;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.util.Log;
+import android.view.View;
+
+/**
+ * Finds the binders generated for the classes annotated
+ * with GenerateBinder. Lookups are cached per class, so
+ * the reflective class lookup happens once per process.
+ */
+public final class ViewBinders {
+
+	private static final String TAG = "ViewBinders";
+
+	/** Suffix of the generated binder classes. */
+	public static final String SUFFIX = "_ViewBinder";
+
+	private static final ViewBinder<Object> NO_BINDER = new ViewBinder<Object>() {
+		@Override
+		public void bind(Object target, View source) {
+		}
+	};
+
+	private static final Map<Class<?>, ViewBinder<Object>> sBinders =
+		new HashMap<Class<?>, ViewBinder<Object>>();
+
+	private ViewBinders() {
+	}
+
+	/**
+	 * Gets the generated binder of the class.
+	 *
+	 * @param cls the class of the target
+	 * @return the binder, or null if no binder is generated
+	 */
+	public static ViewBinder<Object> getBinder(Class<?> cls) {
+		ViewBinder<Object> binder;
+		synchronized (sBinders) {
+			binder = sBinders.get(cls);
+		}
+		if(binder == null){
+			binder = loadBinder(cls);
+			synchronized (sBinders) {
+				sBinders.put(cls, binder);
+			}
+		}
+		return binder == NO_BINDER ? null : binder;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ViewBinder<Object> loadBinder(Class<?> cls) {
+		try {
+			Class<?> binderClass = Class.forName(cls.getName() + SUFFIX,
+					true, cls.getClassLoader());
+			return (ViewBinder<Object>) binderClass.newInstance();
+		} catch (ClassNotFoundException e) {
+			return NO_BINDER;
+		} catch (Exception e) {
+			Log.e(TAG, "Unable to create the binder of " + cls.getName(), e);
+			return NO_BINDER;
+		}
+	}
+}
@@ -0,0 +1,775 @@
+package org.janis.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A size bounded, least recently used cache on the file
+ * system. Each entry is a single file in the cache directory.
+ *
+ * The state of the cache is kept in a journal file. Every
+ * edit appends a DIRTY line before the entry is written and a
+ * CLEAN (or REMOVE) line once the edit is committed (or
+ * aborted). Entry data is first written to a temporary file
+ * and renamed into place on commit, so a crash in the middle
+ * of an edit never leaves a partially written entry readable;
+ * dangling DIRTY entries are deleted when the cache is opened.
+ *
+ * Reads are served through memory mapped buffers, so reading
+ * an entry doesn't copy the file into the java heap.
+ */
+public final class DiskLruCache implements Closeable {
+
+	static final String JOURNAL_FILE = "journal";
+	static final String JOURNAL_FILE_TMP = "journal.tmp";
+	static final String MAGIC = "org.janis.DiskLruCache";
+	static final String VERSION = "1";
+
+	private static final String CLEAN = "CLEAN";
+	private static final String DIRTY = "DIRTY";
+	private static final String REMOVE = "REMOVE";
+	private static final String READ = "READ";
+
+	/** Number of redundant journal lines tolerated before rebuilding it. */
+	private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+	private final File mDirectory;
+	private final File mJournalFile;
+	private final File mJournalFileTmp;
+	private final long mMaxSize;
+	private long mSize = 0;
+	private Writer mJournalWriter;
+	private int mRedundantOpCount;
+	private final LinkedHashMap<String, Entry> mEntries =
+		new LinkedHashMap<String, Entry>(0, 0.75f, true);
+
+	private DiskLruCache(File directory, long maxSize) {
+		mDirectory = directory;
+		mJournalFile = new File(directory, JOURNAL_FILE);
+		mJournalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+		mMaxSize = maxSize;
+	}
+
+	/**
+	 * Opens the cache in the given directory, creating it if
+	 * it doesn't exist. If the journal is unreadable, the
+	 * directory is wiped and a new cache is created.
+	 *
+	 * @param directory a writable directory only used by this cache
+	 * @param maxSize the maximum bytes the cache can use
+	 * @return the cache
+	 * @throws IOException if the directory can't be written
+	 */
+	public static DiskLruCache open(File directory, long maxSize)
+		throws IOException {
+
+		if(maxSize <= 0){
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		DiskLruCache cache = new DiskLruCache(directory, maxSize);
+		if(cache.mJournalFile.exists()){
+			try {
+				cache.readJournal();
+				cache.processJournal();
+				cache.mJournalWriter = new BufferedWriter(
+						new FileWriter(cache.mJournalFile, true));
+				return cache;
+			} catch (IOException e) {
+				// journal is corrupt, start over
+				cache.delete();
+				cache = new DiskLruCache(directory, maxSize);
+			}
+		}
+		directory.mkdirs();
+		cache.rebuildJournal();
+		return cache;
+	}
+
+	/**
+	 * Converts an arbitrary string (e.g. a url) into a
+	 * key that can be used as a file name.
+	 *
+	 * @param value the string to hash
+	 * @return hex encoded md5 of the value
+	 */
+	public static String keyFor(String value) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			byte[] hash = digest.digest(value.getBytes("UTF-8"));
+			StringBuilder key = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				key.append(Character.forDigit((b >> 4) & 0xf, 16));
+				key.append(Character.forDigit(b & 0xf, 16));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private void readJournal() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(mJournalFile), "US-ASCII"), 8192);
+		try {
+			String magic = reader.readLine();
+			String version = reader.readLine();
+			String blank = reader.readLine();
+			if(!MAGIC.equals(magic) || !VERSION.equals(version)
+					|| !"".equals(blank)){
+				throw new IOException("unexpected journal header: ["
+						+ magic + ", " + version + ", " + blank + "]");
+			}
+			String line;
+			while((line = reader.readLine()) != null){
+				readJournalLine(line);
+			}
+		} finally {
+			closeQuietly(reader);
+		}
+	}
+
+	private void readJournalLine(String line) throws IOException {
+		String[] parts = line.split(" ");
+		if(parts.length < 2){
+			throw new IOException("unexpected journal line: " + line);
+		}
+		String key = parts[1];
+		if(parts[0].equals(REMOVE) && parts.length == 2){
+			mEntries.remove(key);
+			return;
+		}
+
+		Entry entry = mEntries.get(key);
+		if(entry == null){
+			entry = new Entry(key);
+			mEntries.put(key, entry);
+		}
+
+		if(parts[0].equals(CLEAN) && parts.length == 3){
+			entry.readable = true;
+			entry.currentEditor = null;
+			try {
+				entry.length = Long.parseLong(parts[2]);
+			} catch (NumberFormatException e) {
+				throw new IOException("unexpected journal line: " + line);
+			}
+		} else if(parts[0].equals(DIRTY) && parts.length == 2){
+			entry.currentEditor = new Editor(entry);
+		} else if(!(parts[0].equals(READ) && parts.length == 2)){
+			throw new IOException("unexpected journal line: " + line);
+		}
+	}
+
+	/**
+	 * Computes the initial size and deletes the entries
+	 * left dirty by a crash.
+	 */
+	private void processJournal() throws IOException {
+		deleteIfExists(mJournalFileTmp);
+		for (Iterator<Entry> i = mEntries.values().iterator(); i.hasNext(); ) {
+			Entry entry = i.next();
+			if(entry.currentEditor == null){
+				mSize += entry.length;
+			} else {
+				entry.currentEditor = null;
+				deleteIfExists(entry.getCleanFile());
+				deleteIfExists(entry.getDirtyFile());
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Writes a new journal without redundant lines
+	 * and atomically replaces the current one.
+	 */
+	private synchronized void rebuildJournal() throws IOException {
+		if(mJournalWriter != null){
+			mJournalWriter.close();
+		}
+
+		Writer writer = new BufferedWriter(new FileWriter(mJournalFileTmp));
+		try {
+			writer.write(MAGIC);
+			writer.write("\n");
+			writer.write(VERSION);
+			writer.write("\n");
+			writer.write("\n");
+			for (Entry entry : mEntries.values()) {
+				if(entry.currentEditor != null){
+					writer.write(DIRTY + ' ' + entry.key + '\n');
+				} else {
+					writer.write(CLEAN + ' ' + entry.key + ' '
+							+ entry.length + '\n');
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		if(!mJournalFileTmp.renameTo(mJournalFile)){
+			throw new IOException("failed to rename " + mJournalFileTmp);
+		}
+		mJournalWriter = new BufferedWriter(new FileWriter(mJournalFile, true));
+		mRedundantOpCount = 0;
+	}
+
+	/**
+	 * Returns a snapshot of the entry with the given key, or
+	 * null if it doesn't exist or is being created.
+	 *
+	 * @param key the key of the entry
+	 * @return the snapshot or null
+	 * @throws IOException
+	 */
+	public synchronized Snapshot get(String key) throws IOException {
+		checkNotClosed();
+		validateKey(key);
+		Entry entry = mEntries.get(key);
+		if(entry == null || !entry.readable){
+			return null;
+		}
+
+		// Map the file while we are holding the lock,
+		// the mapping stays valid even if the entry is
+		// evicted or replaced afterwards.
+		File file = entry.getCleanFile();
+		FileInputStream in;
+		try {
+			in = new FileInputStream(file);
+		} catch (IOException e) {
+			// the file was deleted from under us
+			removeLocked(entry);
+			return null;
+		}
+		MappedByteBuffer buffer;
+		try {
+			FileChannel channel = in.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+		} finally {
+			closeQuietly(in);
+		}
+
+		mRedundantOpCount++;
+		mJournalWriter.append(READ + ' ' + key + '\n');
+		if(journalRebuildRequired()){
+			rebuildJournal();
+		}
+		return new Snapshot(key, file, buffer);
+	}
+
+	/**
+	 * Returns an editor for the entry with the given key,
+	 * or null if another edit is in progress.
+	 *
+	 * @param key the key of the entry
+	 * @return the editor or null
+	 * @throws IOException
+	 */
+	public synchronized Editor edit(String key) throws IOException {
+		checkNotClosed();
+		validateKey(key);
+		Entry entry = mEntries.get(key);
+		if(entry == null){
+			entry = new Entry(key);
+			mEntries.put(key, entry);
+		} else if(entry.currentEditor != null){
+			return null;
+		}
+
+		Editor editor = new Editor(entry);
+		entry.currentEditor = editor;
+
+		// flush the journal before creating the file
+		// to prevent file leaks
+		mJournalWriter.write(DIRTY + ' ' + key + '\n');
+		mJournalWriter.flush();
+		return editor;
+	}
+
+	private synchronized void completeEdit(Editor editor, boolean success)
+		throws IOException {
+
+		Entry entry = editor.entry;
+		if(entry.currentEditor != editor){
+			throw new IllegalStateException();
+		}
+
+		File dirty = entry.getDirtyFile();
+		if(success && !dirty.exists()){
+			// nothing is written, treat it as aborted
+			success = false;
+		}
+		if(success){
+			File clean = entry.getCleanFile();
+			long oldLength = entry.length;
+			deleteIfExists(clean);
+			if(!dirty.renameTo(clean)){
+				throw new IOException("failed to rename " + dirty);
+			}
+			entry.length = clean.length();
+			mSize = mSize - oldLength + entry.length;
+		} else {
+			deleteIfExists(dirty);
+		}
+
+		mRedundantOpCount++;
+		entry.currentEditor = null;
+		if(entry.readable | success){
+			entry.readable = true;
+			mJournalWriter.write(CLEAN + ' ' + entry.key + ' '
+					+ entry.length + '\n');
+		} else {
+			mEntries.remove(entry.key);
+			mJournalWriter.write(REMOVE + ' ' + entry.key + '\n');
+		}
+		mJournalWriter.flush();
+
+		if(mSize > mMaxSize || journalRebuildRequired()){
+			trimToSize();
+			if(journalRebuildRequired()){
+				rebuildJournal();
+			}
+		}
+	}
+
+	private boolean journalRebuildRequired() {
+		return mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+			&& mRedundantOpCount >= mEntries.size();
+	}
+
+	/**
+	 * Removes the entry if it exists and isn't being edited.
+	 *
+	 * @param key the key of the entry
+	 * @return true if an entry is removed
+	 * @throws IOException
+	 */
+	public synchronized boolean remove(String key) throws IOException {
+		checkNotClosed();
+		validateKey(key);
+		Entry entry = mEntries.get(key);
+		if(entry == null || entry.currentEditor != null){
+			return false;
+		}
+		removeLocked(entry);
+		return true;
+	}
+
+	private void removeLocked(Entry entry) throws IOException {
+		File file = entry.getCleanFile();
+		if(file.exists() && !file.delete()){
+			throw new IOException("failed to delete " + file);
+		}
+		mSize -= entry.length;
+		entry.length = 0;
+		mRedundantOpCount++;
+		mJournalWriter.append(REMOVE + ' ' + entry.key + '\n');
+		mEntries.remove(entry.key);
+	}
+
+	private void trimToSize() throws IOException {
+		Iterator<Entry> iterator = mEntries.values().iterator();
+		while(mSize > mMaxSize && iterator.hasNext()){
+			Entry entry = iterator.next();
+			if(entry.currentEditor != null){
+				continue;
+			}
+			File file = entry.getCleanFile();
+			if(file.exists() && !file.delete()){
+				throw new IOException("failed to delete " + file);
+			}
+			mSize -= entry.length;
+			mRedundantOpCount++;
+			mJournalWriter.append(REMOVE + ' ' + entry.key + '\n');
+			iterator.remove();
+		}
+		mJournalWriter.flush();
+	}
+
+	/**
+	 * @return the number of bytes used by the cache
+	 */
+	public synchronized long size() {
+		return mSize;
+	}
+
+	/**
+	 * @return the maximum number of bytes of the cache
+	 */
+	public long maxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * @return the directory of the cache
+	 */
+	public File getDirectory() {
+		return mDirectory;
+	}
+
+	/**
+	 * @return true if the cache is closed
+	 */
+	public synchronized boolean isClosed() {
+		return mJournalWriter == null;
+	}
+
+	private void checkNotClosed() {
+		if(mJournalWriter == null){
+			throw new IllegalStateException("cache is closed");
+		}
+	}
+
+	/**
+	 * Closes the cache, in-flight edits are aborted.
+	 */
+	public synchronized void close() throws IOException {
+		if(mJournalWriter == null){
+			return;
+		}
+		for (Entry entry : new ArrayList<Entry>(mEntries.values())) {
+			if(entry.currentEditor != null){
+				entry.currentEditor.abort();
+			}
+		}
+		trimToSize();
+		mJournalWriter.close();
+		mJournalWriter = null;
+	}
+
+	/**
+	 * Closes the cache and deletes all of its files.
+	 *
+	 * @throws IOException
+	 */
+	public void delete() throws IOException {
+		close();
+		File[] files = mDirectory.listFiles();
+		if(files != null){
+			for (File file : files) {
+				deleteIfExists(file);
+			}
+		}
+	}
+
+	private static void validateKey(String key) {
+		if(key == null || key.length() == 0 || key.length() > 120
+				|| key.indexOf(' ') != -1 || key.indexOf('\n') != -1
+				|| key.indexOf('/') != -1 || key.indexOf(File.separatorChar) != -1){
+			throw new IllegalArgumentException(
+					"keys can't be empty, contain spaces, newlines or separators: \""
+					+ key + "\"");
+		}
+	}
+
+	private static void deleteIfExists(File file) throws IOException {
+		if(file.exists() && !file.delete()){
+			throw new IOException("failed to delete " + file);
+		}
+	}
+
+	static void closeQuietly(Closeable closeable) {
+		if(closeable != null){
+			try {
+				closeable.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * A read only view of a cache entry. The data is memory
+	 * mapped and stays readable even if the entry is evicted.
+	 */
+	public static final class Snapshot {
+		private final String mKey;
+		private final File mFile;
+		private final ByteBuffer mBuffer;
+
+		Snapshot(String key, File file, ByteBuffer buffer) {
+			mKey = key;
+			mFile = file;
+			mBuffer = buffer;
+		}
+
+		/**
+		 * @return the key of the entry
+		 */
+		public String getKey() {
+			return mKey;
+		}
+
+		/**
+		 * @return the length of the entry in bytes
+		 */
+		public int getLength() {
+			return mBuffer.capacity();
+		}
+
+		/**
+		 * Returns a new stream reading the mapped data,
+		 * each call starts from the beginning of the entry.
+		 *
+		 * @return an input stream
+		 */
+		public InputStream getInputStream() {
+			return new ByteBufferInputStream(mBuffer.duplicate());
+		}
+
+		/**
+		 * Returns a read only buffer of the mapped data.
+		 *
+		 * @return a buffer positioned at the beginning of the entry
+		 */
+		public ByteBuffer getBuffer() {
+			return mBuffer.asReadOnlyBuffer();
+		}
+
+		/**
+		 * Returns the file of the entry. Note that it may be
+		 * deleted or replaced once the entry is evicted.
+		 *
+		 * @return the file
+		 */
+		public File getFile() {
+			return mFile;
+		}
+	}
+
+	/**
+	 * Edits the data of an entry. Data written to the output
+	 * stream only becomes visible after commit is called.
+	 */
+	public final class Editor {
+		private final Entry entry;
+		private boolean mHasErrors;
+		private boolean mDone;
+
+		private Editor(Entry entry) {
+			this.entry = entry;
+		}
+
+		/**
+		 * Returns a new unbuffered output stream writing the
+		 * entry's data. If the stream throws an exception while
+		 * writing, the edit will be aborted on commit.
+		 *
+		 * @return an output stream
+		 * @throws IOException
+		 */
+		public OutputStream newOutputStream() throws IOException {
+			synchronized (DiskLruCache.this) {
+				if(entry.currentEditor != this){
+					throw new IllegalStateException();
+				}
+				return new FaultHidingOutputStream(
+						new FileOutputStream(entry.getDirtyFile()));
+			}
+		}
+
+		/**
+		 * Commits the edit and makes it visible to readers.
+		 *
+		 * @throws IOException
+		 */
+		public void commit() throws IOException {
+			if(mDone){
+				return;
+			}
+			mDone = true;
+			if(mHasErrors){
+				completeEdit(this, false);
+				remove(entry.key);
+			} else {
+				completeEdit(this, true);
+			}
+		}
+
+		/**
+		 * Aborts the edit, the previous value (if any) stays.
+		 *
+		 * @throws IOException
+		 */
+		public void abort() throws IOException {
+			if(mDone){
+				return;
+			}
+			mDone = true;
+			completeEdit(this, false);
+		}
+
+		/**
+		 * Aborts the edit unless it's already committed,
+		 * suitable for finally blocks.
+		 */
+		public void abortUnlessCommitted() {
+			try {
+				abort();
+			} catch (IOException ignored) {
+			}
+		}
+
+		private class FaultHidingOutputStream extends FilterOutputStream {
+			private FaultHidingOutputStream(OutputStream out) {
+				super(out);
+			}
+
+			@Override
+			public void write(int oneByte) {
+				try {
+					out.write(oneByte);
+				} catch (IOException e) {
+					mHasErrors = true;
+				}
+			}
+
+			@Override
+			public void write(byte[] buffer, int offset, int length) {
+				try {
+					out.write(buffer, offset, length);
+				} catch (IOException e) {
+					mHasErrors = true;
+				}
+			}
+
+			@Override
+			public void close() {
+				try {
+					out.close();
+				} catch (IOException e) {
+					mHasErrors = true;
+				}
+			}
+
+			@Override
+			public void flush() {
+				try {
+					out.flush();
+				} catch (IOException e) {
+					mHasErrors = true;
+				}
+			}
+		}
+	}
+
+	private final class Entry {
+		private final String key;
+		private long length;
+		private boolean readable;
+		private Editor currentEditor;
+
+		private Entry(String key) {
+			this.key = key;
+		}
+
+		File getCleanFile() {
+			return new File(mDirectory, key);
+		}
+
+		File getDirtyFile() {
+			return new File(mDirectory, key + ".tmp");
+		}
+	}
+
+	/**
+	 * Input stream reading a byte buffer without
+	 * copying it into an intermediate array.
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer mBuffer;
+		private int mMark;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			mBuffer = buffer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(!mBuffer.hasRemaining()){
+				return -1;
+			}
+			return mBuffer.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0){
+				return 0;
+			}
+			if(!mBuffer.hasRemaining()){
+				return -1;
+			}
+			int count = Math.min(len, mBuffer.remaining());
+			mBuffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			int count = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+			mBuffer.position(mBuffer.position() + count);
+			return count;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return mBuffer.remaining();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit) {
+			mMark = mBuffer.position();
+		}
+
+		@Override
+		public synchronized void reset() throws IOException {
+			mBuffer.position(mMark);
+		}
+	}
+
+	/**
+	 * Copies the input stream to the output stream.
+	 *
+	 * @param in the source
+	 * @param out the destination
+	 * @return number of bytes copied
+	 * @throws IOException
+	 */
+	public static long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[8192];
+		long total = 0;
+		int count;
+		while((count = in.read(buffer)) != -1){
+			out.write(buffer, 0, count);
+			total += count;
+		}
+		return total;
+	}
+}
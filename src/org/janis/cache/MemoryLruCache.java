@@ -0,0 +1,426 @@
+package org.janis.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size bounded, least recently used memory cache that can
+ * be accessed from multiple threads without a global lock.
+ * Entries are spread over a number of segments, each segment
+ * is an access ordered map guarded by its own lock, while the
+ * total size is tracked across all segments. Each entry carries
+ * an access stamp from a shared clock, so once the total size
+ * exceeds the maximum, the least recently used entry of the whole
+ * cache is evicted: the eldest entries of the segments are compared
+ * and the oldest one goes, until the cache fits again.
+ *
+ * Override sizeOf to measure entries in a unit other than
+ * entry count (e.g. bytes) and entryRemoved to be notified
+ * when an entry leaves the cache.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class MemoryLruCache<K, V> {
+
+	/** Default number of segments. */
+	public static final int DEFAULT_CONCURRENCY_LEVEL = 4;
+
+	private final Segment<K, V>[] mSegments;
+	private final int mSegmentMask;
+	private volatile long mMaxSize;
+	private final AtomicLong mSize = new AtomicLong();
+	private final AtomicLong mClock = new AtomicLong();
+
+	private final AtomicLong mHitCount = new AtomicLong();
+	private final AtomicLong mMissCount = new AtomicLong();
+	private final AtomicLong mPutCount = new AtomicLong();
+	private final AtomicLong mEvictionCount = new AtomicLong();
+
+	/**
+	 * Constructs a new cache with the default concurrency level.
+	 *
+	 * @param maxSize the maximum total size of the entries
+	 */
+	public MemoryLruCache(long maxSize) {
+		this(maxSize, DEFAULT_CONCURRENCY_LEVEL);
+	}
+
+	/**
+	 * Constructs a new cache.
+	 *
+	 * @param maxSize the maximum total size of the entries
+	 * @param concurrencyLevel the estimated number of threads
+	 * accessing the cache at the same time, rounded up to a
+	 * power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public MemoryLruCache(long maxSize, int concurrencyLevel) {
+		if(maxSize <= 0){
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		int segmentCount = 1;
+		while(segmentCount < concurrencyLevel){
+			segmentCount <<= 1;
+		}
+		mMaxSize = maxSize;
+		mSegmentMask = segmentCount - 1;
+		mSegments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			mSegments[i] = new Segment<K, V>();
+		}
+	}
+
+	/**
+	 * Gets the value for the key and marks it as
+	 * the most recently used.
+	 *
+	 * @param key the key
+	 * @return the value, or null if not cached
+	 */
+	public V get(K key) {
+		return get(key, null);
+	}
+
+	/**
+	 * Gets the value for the key like get, and passes it to the
+	 * handler before it can be evicted or removed by another
+	 * thread, e.g. to mark the value in use atomically with the
+	 * lookup. The handler is called holding a lock of the cache,
+	 * so it should return quickly and not access the cache.
+	 *
+	 * @param key the key
+	 * @param handler the handler of the value, may be null
+	 * @return the value, or null if not cached
+	 */
+	public V get(K key, HitHandler<? super K, ? super V> handler) {
+		if(key == null){
+			throw new NullPointerException("key == null");
+		}
+		Segment<K, V> segment = segmentFor(key);
+		Entry<V> entry;
+		synchronized (segment) {
+			entry = segment.map.get(key);
+			if(entry != null){
+				entry.stamp = mClock.incrementAndGet();
+				if(handler != null){
+					handler.onHit(key, entry.value);
+				}
+			}
+		}
+		if(entry == null){
+			mMissCount.incrementAndGet();
+			return null;
+		}
+		mHitCount.incrementAndGet();
+		return entry.value;
+	}
+
+	/**
+	 * Puts a value to the cache and evicts least recently
+	 * used entries if the cache doesn't fit its maximum size.
+	 * Values larger than the maximum size are not cached.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the previous value for the key, or null
+	 */
+	public V put(K key, V value) {
+		if(key == null || value == null){
+			throw new NullPointerException("key == null || value == null");
+		}
+		int size = safeSizeOf(key, value);
+		if(size > mMaxSize){
+			// doesn't fit at all, but the stale value
+			// for the same key shouldn't be served anymore
+			return remove(key);
+		}
+
+		Segment<K, V> segment = segmentFor(key);
+		Entry<V> entry = new Entry<V>(value, size);
+		Entry<V> previous;
+		synchronized (segment) {
+			entry.stamp = mClock.incrementAndGet();
+			previous = segment.map.put(key, entry);
+		}
+		mPutCount.incrementAndGet();
+		mSize.addAndGet(previous == null ? size : size - previous.size);
+		if(previous != null && previous.value != value){
+			entryRemoved(false, key, previous.value);
+		}
+		trimToSize(mMaxSize);
+		return previous == null ? null : previous.value;
+	}
+
+	/**
+	 * Removes the entry for the key if it exists.
+	 *
+	 * @param key the key
+	 * @return the removed value, or null
+	 */
+	public V remove(K key) {
+		if(key == null){
+			throw new NullPointerException("key == null");
+		}
+		Segment<K, V> segment = segmentFor(key);
+		Entry<V> previous;
+		synchronized (segment) {
+			previous = segment.map.remove(key);
+		}
+		if(previous == null){
+			return null;
+		}
+		mSize.addAndGet(-previous.size);
+		entryRemoved(false, key, previous.value);
+		return previous.value;
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public void clear() {
+		trimToSize(-1);
+	}
+
+	/**
+	 * Evicts least recently used entries until the total
+	 * size is smaller than or equal to the given size. Useful
+	 * to shrink the cache under memory pressure without
+	 * dropping it completely.
+	 *
+	 * @param maxSize the size to trim to, -1 evicts everything
+	 */
+	public void trimToSize(long maxSize) {
+		while(mSize.get() > maxSize){
+			if(!evictEldest()){
+				// all segments are empty
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Evicts the least recently used entry of the cache. The
+	 * eldest entry of each segment is its least recently used
+	 * one, so the oldest of them is the eldest of the cache.
+	 * Heads are read one segment at a time, so if a head is used
+	 * or removed before it's evicted, the search starts again.
+	 *
+	 * @return false if the cache is empty
+	 */
+	private boolean evictEldest() {
+		while(true){
+			int eldestIndex = -1;
+			long eldestStamp = Long.MAX_VALUE;
+			for (int i = 0; i < mSegments.length; i++) {
+				Segment<K, V> segment = mSegments[i];
+				synchronized (segment) {
+					Entry<V> head = segment.head();
+					if(head != null && head.stamp < eldestStamp){
+						eldestStamp = head.stamp;
+						eldestIndex = i;
+					}
+				}
+			}
+			if(eldestIndex < 0){
+				return false;
+			}
+
+			Segment<K, V> segment = mSegments[eldestIndex];
+			K evictedKey = null;
+			Entry<V> evicted = null;
+			synchronized (segment) {
+				Iterator<Map.Entry<K, Entry<V>>> iterator =
+					segment.map.entrySet().iterator();
+				if(iterator.hasNext()){
+					Map.Entry<K, Entry<V>> eldest = iterator.next();
+					if(eldest.getValue().stamp == eldestStamp){
+						evictedKey = eldest.getKey();
+						evicted = eldest.getValue();
+						iterator.remove();
+					}
+				}
+			}
+			if(evicted == null){
+				// the head changed meanwhile
+				continue;
+			}
+			mSize.addAndGet(-evicted.size);
+			mEvictionCount.incrementAndGet();
+			entryRemoved(true, evictedKey, evicted.value);
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the size of the entry in the user defined
+	 * units. By default it returns 1, so the maximum size
+	 * is the maximum number of entries.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the size of the entry
+	 */
+	protected int sizeOf(K key, V value) {
+		return 1;
+	}
+
+	/**
+	 * Called when an entry is evicted, removed or replaced.
+	 * It's called without holding any locks of the cache.
+	 *
+	 * @param evicted true if the entry is removed to make space
+	 * @param key the key
+	 * @param oldValue the value leaving the cache
+	 */
+	protected void entryRemoved(boolean evicted, K key, V oldValue) {
+	}
+
+	private int safeSizeOf(K key, V value) {
+		int size = sizeOf(key, value);
+		if(size < 0){
+			throw new IllegalStateException("Negative size: " + key + "=" + value);
+		}
+		return size;
+	}
+
+	private Segment<K, V> segmentFor(K key) {
+		return mSegments[indexFor(key)];
+	}
+
+	private int indexFor(K key) {
+		// spread the hash bits, so keys with similar
+		// hashes (e.g. urls) don't end up in the same segment
+		int h = key.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		return h & mSegmentMask;
+	}
+
+	/**
+	 * Returns a snapshot of the cached keys, useful for debugging.
+	 *
+	 * @return the keys in the cache
+	 */
+	public List<K> keys() {
+		List<K> keys = new ArrayList<K>();
+		for (Segment<K, V> segment : mSegments) {
+			synchronized (segment) {
+				keys.addAll(segment.map.keySet());
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * Sets a new maximum size and trims the cache if needed.
+	 *
+	 * @param maxSize the new maximum size
+	 */
+	public void setMaxSize(long maxSize) {
+		if(maxSize <= 0){
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		mMaxSize = maxSize;
+		trimToSize(maxSize);
+	}
+
+	/**
+	 * @return the total size of the cached entries
+	 */
+	public long size() {
+		return mSize.get();
+	}
+
+	/**
+	 * @return the maximum total size of the entries
+	 */
+	public long maxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * @return the number of times get returned a value
+	 */
+	public long hitCount() {
+		return mHitCount.get();
+	}
+
+	/**
+	 * @return the number of times get returned null
+	 */
+	public long missCount() {
+		return mMissCount.get();
+	}
+
+	/**
+	 * @return the number of times put was called
+	 */
+	public long putCount() {
+		return mPutCount.get();
+	}
+
+	/**
+	 * @return the number of evicted entries
+	 */
+	public long evictionCount() {
+		return mEvictionCount.get();
+	}
+
+	@Override
+	public String toString() {
+		long hits = mHitCount.get();
+		long accesses = hits + mMissCount.get();
+		int hitPercent = accesses == 0 ? 0 : (int) (100 * hits / accesses);
+		return "MemoryLruCache[size=" + mSize.get() + ",maxSize=" + mMaxSize
+			+ ",hits=" + hits + ",misses=" + mMissCount.get()
+			+ ",hitRate=" + hitPercent + "%,evictions="
+			+ mEvictionCount.get() + "]";
+	}
+
+	/**
+	 * Handles a value found by get, see get(Object, HitHandler).
+	 *
+	 * @param <K> the key type
+	 * @param <V> the value type
+	 */
+	public interface HitHandler<K, V> {
+
+		/**
+		 * Called with the value found for the key.
+		 *
+		 * @param key the key
+		 * @param value the value
+		 */
+		void onHit(K key, V value);
+	}
+
+	private static final class Segment<K, V> {
+		final LinkedHashMap<K, Entry<V>> map =
+			new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+
+		/**
+		 * @return the least recently used entry, or null
+		 */
+		Entry<V> head() {
+			Iterator<Entry<V>> iterator = map.values().iterator();
+			return iterator.hasNext() ? iterator.next() : null;
+		}
+	}
+
+	private static final class Entry<V> {
+		final V value;
+		final int size;
+		// guarded by the lock of the segment
+		long stamp;
+
+		Entry(V value, int size) {
+			this.value = value;
+			this.size = size;
+		}
+	}
+}
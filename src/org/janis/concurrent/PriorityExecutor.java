@@ -0,0 +1,193 @@
+package org.janis.concurrent;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size thread pool running the queued tasks in the
+ * order of their priorities. Tasks with the same priority run
+ * in last in, first out order by default, so the most recently
+ * queued work (e.g. the images of the views that have just
+ * become visible) runs first.
+ *
+ * Runnables that are not a Task are run with the default
+ * priority.
+ */
+public class PriorityExecutor extends ThreadPoolExecutor {
+
+	/** Default priority of the tasks. */
+	public static final int PRIORITY_NORMAL = 0;
+
+	private final AtomicLong mSequence = new AtomicLong();
+	private volatile boolean mLifo = true;
+
+	/**
+	 * Constructs a new executor with low priority daemon threads.
+	 *
+	 * @param name the prefix of the thread names
+	 * @param threads number of threads
+	 */
+	public PriorityExecutor(String name, int threads) {
+		this(threads, new NamedThreadFactory(name, Thread.MIN_PRIORITY));
+	}
+
+	/**
+	 * Constructs a new executor.
+	 *
+	 * @param threads number of threads
+	 * @param threadFactory the factory creating the threads
+	 */
+	public PriorityExecutor(int threads, ThreadFactory threadFactory) {
+		super(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), threadFactory);
+		if(threads <= 0){
+			throw new IllegalArgumentException("threads <= 0");
+		}
+	}
+
+	/**
+	 * Sets whether tasks with the same priority run in last in
+	 * first out, or first in first out order. Only affects the
+	 * tasks executed afterwards.
+	 *
+	 * @param lifo true for last in, first out
+	 */
+	public void setLifo(boolean lifo) {
+		mLifo = lifo;
+	}
+
+	/**
+	 * @return true if tasks with the same priority run last in,
+	 * first out
+	 */
+	public boolean isLifo() {
+		return mLifo;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		Task task;
+		if(command instanceof Task){
+			task = (Task) command;
+		} else {
+			task = new RunnableTask(command);
+		}
+		long sequence = mSequence.incrementAndGet();
+		task.mSequence = mLifo ? -sequence : sequence;
+		super.execute(task);
+	}
+
+	/**
+	 * Changes the priority of a task. If the task is still
+	 * queued, it's moved to its new position and it's treated
+	 * as the most recently queued task of its priority.
+	 *
+	 * @param task the task
+	 * @param priority the new priority
+	 * @return true if the task was queued and reordered
+	 */
+	public boolean reprioritize(Task task, int priority) {
+		if(!getQueue().remove(task)){
+			task.mPriority = priority;
+			return false;
+		}
+		task.mPriority = priority;
+		execute(task);
+		return true;
+	}
+
+	/**
+	 * @return the number of tasks waiting to be run
+	 */
+	public int getQueueSize() {
+		return getQueue().size();
+	}
+
+	/**
+	 * A task with a priority. Higher priorities run first.
+	 */
+	public static abstract class Task implements Runnable, Comparable<Task> {
+
+		private volatile int mPriority;
+		private volatile long mSequence;
+
+		/**
+		 * Constructs a task with the normal priority.
+		 */
+		public Task() {
+			this(PRIORITY_NORMAL);
+		}
+
+		/**
+		 * Constructs a task with the given priority.
+		 *
+		 * @param priority the priority, higher runs first
+		 */
+		public Task(int priority) {
+			mPriority = priority;
+		}
+
+		/**
+		 * @return the priority of the task
+		 */
+		public int getPriority() {
+			return mPriority;
+		}
+
+		@Override
+		public int compareTo(Task another) {
+			if(mPriority != another.mPriority){
+				return mPriority > another.mPriority ? -1 : 1;
+			}
+			if(mSequence != another.mSequence){
+				return mSequence < another.mSequence ? -1 : 1;
+			}
+			return 0;
+		}
+	}
+
+	private static final class RunnableTask extends Task {
+		private final Runnable mRunnable;
+
+		RunnableTask(Runnable runnable) {
+			mRunnable = runnable;
+		}
+
+		@Override
+		public void run() {
+			mRunnable.run();
+		}
+	}
+
+	/**
+	 * Thread factory creating named daemon threads
+	 * with the given priority.
+	 */
+	public static class NamedThreadFactory implements ThreadFactory {
+		private final String mName;
+		private final int mPriority;
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		/**
+		 * @param name the prefix of the thread names
+		 * @param priority the java thread priority
+		 */
+		public NamedThreadFactory(String name, int priority) {
+			mName = name;
+			mPriority = priority;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable,
+					mName + "-" + mCount.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(mPriority);
+			return thread;
+		}
+	}
+}
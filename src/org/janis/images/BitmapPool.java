@@ -0,0 +1,330 @@
+package org.janis.images;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.os.Build;
+
+/**
+ * A pool of bitmaps whose pixel memory can be reused while
+ * decoding new images (see BitmapFactory.Options.inBitmap).
+ * Bitmaps evicted from the image caches are returned here
+ * instead of being garbage collected, and decoders draw
+ * from the pool, so steady state scrolling allocates little
+ * new bitmap memory.
+ *
+ * From KitKat on, a pooled bitmap is reused for any image
+ * that fits into its allocation. On Honeycomb to Jelly Bean,
+ * only bitmaps with exactly the same size and config are
+ * reused. Older platforms can't reuse bitmaps, so the pool
+ * doesn't keep anything on them.
+ *
+ * Bitmaps that are still displayed shouldn't be reused, so
+ * views mark their bitmaps with acquire and release. A bitmap
+ * that is put to the pool while it's acquired is only pooled
+ * once it's released.
+ */
+public class BitmapPool {
+
+	/**
+	 * A pooled bitmap is not used for an image needing less
+	 * than 1 / MAX_SIZE_MULTIPLE of its allocation, so small
+	 * images don't pin large buffers.
+	 */
+	private static final int MAX_SIZE_MULTIPLE = 4;
+
+	private final long mMaxSize;
+	private long mSize;
+
+	private final TreeMap<Integer, LinkedList<Bitmap>> mBitmapsBySize =
+		new TreeMap<Integer, LinkedList<Bitmap>>();
+	private final LinkedHashSet<Bitmap> mLruBitmaps = new LinkedHashSet<Bitmap>();
+	private final WeakHashMap<Bitmap, Usage> mUsages =
+		new WeakHashMap<Bitmap, Usage>();
+
+	private long mHitCount;
+	private long mMissCount;
+	private long mPutCount;
+	private long mEvictionCount;
+
+	/**
+	 * Constructs a new pool.
+	 *
+	 * @param maxBytes the maximum bytes the pooled bitmaps can occupy
+	 */
+	public BitmapPool(long maxBytes) {
+		if(maxBytes <= 0){
+			throw new IllegalArgumentException("maxBytes <= 0");
+		}
+		mMaxSize = maxBytes;
+	}
+
+	/**
+	 * Returns true if bitmaps can be reused on this platform.
+	 *
+	 * @return true if reuse is supported
+	 */
+	public static boolean isReuseSupported() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+	}
+
+	/**
+	 * Gets a bitmap whose memory can be reused for an image
+	 * with the given size and config, and removes it from the
+	 * pool. Pixels of the returned bitmap are not erased.
+	 *
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param config the config of the image
+	 * @return a reusable bitmap, or null
+	 */
+	public synchronized Bitmap get(int width, int height, Config config) {
+		Bitmap bitmap = null;
+		if(isReuseSupported() && width > 0 && height > 0){
+			int required = width * height * getBytesPerPixel(config);
+			if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT){
+				bitmap = findLargeEnough(required);
+			} else {
+				bitmap = findExactMatch(required, width, height, config);
+			}
+		}
+		if(bitmap == null){
+			mMissCount++;
+		} else {
+			mHitCount++;
+		}
+		return bitmap;
+	}
+
+	private Bitmap findLargeEnough(int required) {
+		Map.Entry<Integer, LinkedList<Bitmap>> entry =
+			mBitmapsBySize.ceilingEntry(required);
+		if(entry == null
+				|| entry.getKey() > (long) required * MAX_SIZE_MULTIPLE){
+			return null;
+		}
+		Bitmap bitmap = entry.getValue().removeFirst();
+		removed(entry.getKey(), entry.getValue(), bitmap);
+		return bitmap;
+	}
+
+	private Bitmap findExactMatch(int required, int width, int height,
+			Config config) {
+
+		LinkedList<Bitmap> bitmaps = mBitmapsBySize.get(required);
+		if(bitmaps == null){
+			return null;
+		}
+		for (Iterator<Bitmap> i = bitmaps.iterator(); i.hasNext(); ) {
+			Bitmap bitmap = i.next();
+			if(bitmap.getWidth() == width && bitmap.getHeight() == height
+					&& bitmap.getConfig() == config){
+				i.remove();
+				removed(required, bitmaps, bitmap);
+				return bitmap;
+			}
+		}
+		return null;
+	}
+
+	private void removed(int size, LinkedList<Bitmap> bitmaps, Bitmap bitmap) {
+		if(bitmaps.isEmpty()){
+			mBitmapsBySize.remove(size);
+		}
+		mLruBitmaps.remove(bitmap);
+		mSize -= size;
+	}
+
+	/**
+	 * Puts a bitmap to the pool so its memory can be reused.
+	 * Only mutable bitmaps are pooled. If the bitmap is still
+	 * acquired, it's pooled once it's released.
+	 *
+	 * @param bitmap the bitmap that isn't needed anymore
+	 */
+	public synchronized void put(Bitmap bitmap) {
+		if(bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+				|| !isReuseSupported()){
+			return;
+		}
+		Usage usage = mUsages.get(bitmap);
+		if(usage != null && usage.count > 0){
+			usage.pooled = true;
+			return;
+		}
+		int size = BitmapUtils.getBitmapSize(bitmap);
+		if(size > mMaxSize || mLruBitmaps.contains(bitmap)){
+			return;
+		}
+		LinkedList<Bitmap> bitmaps = mBitmapsBySize.get(size);
+		if(bitmaps == null){
+			bitmaps = new LinkedList<Bitmap>();
+			mBitmapsBySize.put(size, bitmaps);
+		}
+		bitmaps.add(bitmap);
+		mLruBitmaps.add(bitmap);
+		mSize += size;
+		mPutCount++;
+		trimToSize(mMaxSize);
+	}
+
+	/**
+	 * Marks the bitmap as in use, e.g. it's displayed by a
+	 * view, so it's not reused until it's released.
+	 *
+	 * @param bitmap the bitmap
+	 */
+	public synchronized void acquire(Bitmap bitmap) {
+		if(bitmap == null){
+			return;
+		}
+		Usage usage = mUsages.get(bitmap);
+		if(usage == null){
+			usage = new Usage();
+			mUsages.put(bitmap, usage);
+		}
+		usage.count++;
+	}
+
+	/**
+	 * Releases a bitmap acquired before. If it was put to
+	 * the pool while in use and it isn't used anymore,
+	 * it's pooled now.
+	 *
+	 * @param bitmap the bitmap
+	 */
+	public synchronized void release(Bitmap bitmap) {
+		if(bitmap == null){
+			return;
+		}
+		Usage usage = mUsages.get(bitmap);
+		if(usage == null){
+			return;
+		}
+		if(--usage.count <= 0){
+			mUsages.remove(bitmap);
+			if(usage.pooled){
+				put(bitmap);
+			}
+		}
+	}
+
+	/**
+	 * Evicts the least recently pooled bitmaps until the
+	 * pool is smaller than or equal to the given size.
+	 * Evicted bitmaps are dropped rather than recycled: the pool
+	 * only keeps bitmaps from Honeycomb on, where the pixels are
+	 * freed by the garbage collector, and a bitmap that is still
+	 * drawn by a view nobody acquired it for stays drawable.
+	 *
+	 * @param maxSize the size in bytes to trim to
+	 */
+	public synchronized void trimToSize(long maxSize) {
+		Iterator<Bitmap> iterator = mLruBitmaps.iterator();
+		while(mSize > maxSize && iterator.hasNext()){
+			Bitmap bitmap = iterator.next();
+			iterator.remove();
+			int size = BitmapUtils.getBitmapSize(bitmap);
+			LinkedList<Bitmap> bitmaps = mBitmapsBySize.get(size);
+			if(bitmaps != null){
+				bitmaps.remove(bitmap);
+				if(bitmaps.isEmpty()){
+					mBitmapsBySize.remove(size);
+				}
+			}
+			mSize -= size;
+			mEvictionCount++;
+		}
+	}
+
+	/**
+	 * Removes all the bitmaps from the pool.
+	 */
+	public void clear() {
+		trimToSize(0);
+	}
+
+	/**
+	 * @return the total bytes of the pooled bitmaps
+	 */
+	public synchronized long getSize() {
+		return mSize;
+	}
+
+	/**
+	 * @return the maximum bytes of the pool
+	 */
+	public long getMaxSize() {
+		return mMaxSize;
+	}
+
+	/**
+	 * @return the number of pooled bitmaps
+	 */
+	public synchronized int getCount() {
+		return mLruBitmaps.size();
+	}
+
+	/**
+	 * @return number of times a reusable bitmap is found
+	 */
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * @return number of times no reusable bitmap is found
+	 */
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * @return number of bitmaps put to the pool
+	 */
+	public synchronized long getPutCount() {
+		return mPutCount;
+	}
+
+	/**
+	 * @return number of bitmaps evicted to free space
+	 */
+	public synchronized long getEvictionCount() {
+		return mEvictionCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "BitmapPool[size=" + mSize + ",maxSize=" + mMaxSize
+			+ ",count=" + mLruBitmaps.size() + ",hits=" + mHitCount
+			+ ",misses=" + mMissCount + ",puts=" + mPutCount
+			+ ",evictions=" + mEvictionCount + "]";
+	}
+
+	/**
+	 * Returns the number of bytes a pixel occupies.
+	 *
+	 * @param config the bitmap config
+	 * @return bytes per pixel
+	 */
+	static int getBytesPerPixel(Config config) {
+		if(config == Config.ALPHA_8){
+			return 1;
+		}
+		if(config == Config.RGB_565 || config == Config.ARGB_4444){
+			return 2;
+		}
+		return 4;
+	}
+
+	private static final class Usage {
+		int count;
+		boolean pooled;
+	}
+}
@@ -4,20 +4,30 @@
 
 package org.janis.images;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.PorterDuff.Mode;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.os.Build;
 
 public class BitmapUtils {
 
 	/**
 	 * Returns the cornered bitmap
 	 * out of a bitmap input.
+	 * It allocates a new bitmap as large as the input, use
+	 * RoundedDrawable to draw the input with rounded corners
+	 * unless a new bitmap is really needed.
 	 *
 	 * @param bitmap input bitmap
 	 * @param cornerSize the corner size you wish to see in output
@@ -46,4 +56,177 @@ public class BitmapUtils {
 
 		return corneredBitmap;
 	}
+
+	/**
+	 * Decodes a bitmap that is subsampled to fit the requested
+	 * size without reusing bitmap memory.
+	 *
+	 * @see #decodeSampledBitmap(InputStream, int, int, BitmapPool)
+	 */
+	public static Bitmap decodeSampledBitmap(InputStream in, 
+			int reqWidth, int reqHeight) throws IOException {
+		return decodeSampledBitmap(in, reqWidth, reqHeight, null);
+	}
+	
+	/**
+	 * Decodes a bitmap that is subsampled to fit the requested
+	 * size. The bounds of the image are decoded first, so the
+	 * full resolution image is never allocated. The decoded
+	 * bitmap is at least as large as the requested size, unless
+	 * the image itself is smaller. If a pool is given, the
+	 * image is decoded into a reusable bitmap from the pool
+	 * when possible, and the decoded bitmap is mutable so it
+	 * can be pooled later.
+	 * 
+	 * The stream is read more than once, if it doesn't support
+	 * mark and reset, it's buffered into memory first.
+	 *
+	 * @param in the stream of the encoded image
+	 * @param reqWidth the requested width, 0 if not constrained
+	 * @param reqHeight the requested height, 0 if not constrained
+	 * @param pool the pool to reuse bitmaps from, may be null
+	 * @return the decoded bitmap, or null if the image can't be decoded
+	 * @throws IOException if the stream can't be read
+	 */
+	public static Bitmap decodeSampledBitmap(InputStream in, 
+			int reqWidth, int reqHeight, BitmapPool pool) throws IOException {
+		
+		if(!in.markSupported()){
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int count;
+			while((count = in.read(buffer)) != -1){
+				out.write(buffer, 0, count);
+			}
+			in = new ByteArrayInputStream(out.toByteArray());
+		}
+		
+		boolean reuse = pool != null && BitmapPool.isReuseSupported();
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		in.mark(Integer.MAX_VALUE);
+		if(reqWidth > 0 || reqHeight > 0 || reuse){
+			// read only the bounds
+			options.inJustDecodeBounds = true;
+			BitmapFactory.decodeStream(in, null, options);
+			in.reset();
+			
+			options.inSampleSize = calculateInSampleSize(
+					options.outWidth, options.outHeight, reqWidth, reqHeight);
+			options.inJustDecodeBounds = false;
+		}
+		if(!reuse){
+			return BitmapFactory.decodeStream(in, null, options);
+		}
+		
+		options.inMutable = true;
+		options.inBitmap = getReusableBitmap(pool, options);
+		try {
+			return BitmapFactory.decodeStream(in, null, options);
+		} catch (IllegalArgumentException e) {
+			// the pooled bitmap doesn't fit the image
+			// after all, decode into a new bitmap
+			if(options.inBitmap == null){
+				throw e;
+			}
+			pool.put(options.inBitmap);
+			options.inBitmap = null;
+			in.reset();
+			return BitmapFactory.decodeStream(in, null, options);
+		}
+	}
+	
+	/**
+	 * Finds a bitmap in the pool the image with the decoded
+	 * bounds in the options can be decoded into.
+	 */
+	private static Bitmap getReusableBitmap(BitmapPool pool, 
+			BitmapFactory.Options options){
+		
+		if(Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT
+				&& options.inSampleSize > 1){
+			// subsampled images can't reuse bitmaps before KitKat
+			return null;
+		}
+		int sampleSize = options.inSampleSize < 1 ? 1 : options.inSampleSize;
+		int width = (options.outWidth + sampleSize - 1) / sampleSize;
+		int height = (options.outHeight + sampleSize - 1) / sampleSize;
+		Config config = options.inPreferredConfig != null 
+			? options.inPreferredConfig : Config.ARGB_8888;
+		return pool.get(width, height, config);
+	}
+	
+	/**
+	 * Creates a transparent mutable bitmap, reusing the memory
+	 * of a pooled bitmap if possible.
+	 *
+	 * @param width the width of the bitmap
+	 * @param height the height of the bitmap
+	 * @param config the config of the bitmap
+	 * @param pool the pool to reuse bitmaps from, may be null
+	 * @return the bitmap
+	 */
+	public static Bitmap createBitmap(int width, int height, Config config,
+			BitmapPool pool){
+		
+		Bitmap bitmap = pool == null ? null : pool.get(width, height, config);
+		if(bitmap != null && (bitmap.getWidth() != width 
+				|| bitmap.getHeight() != height || bitmap.getConfig() != config)){
+			if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT){
+				bitmap.reconfigure(width, height, config);
+			} else {
+				pool.put(bitmap);
+				bitmap = null;
+			}
+		}
+		if(bitmap == null){
+			return Bitmap.createBitmap(width, height, config);
+		}
+		bitmap.eraseColor(0);
+		return bitmap;
+	}
+	
+	/**
+	 * Returns the number of bytes the pixels of the bitmap
+	 * occupy. From KitKat on, it's the size of the allocation,
+	 * which may be larger if the bitmap is reused for a 
+	 * smaller image.
+	 *
+	 * @param bitmap the bitmap
+	 * @return size in bytes
+	 */
+	public static int getBitmapSize(Bitmap bitmap){
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT){
+			return bitmap.getAllocationByteCount();
+		}
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+	
+	/**
+	 * Calculates the largest power of two sample size that
+	 * keeps the subsampled image at least as large as the 
+	 * requested size.
+	 *
+	 * @param width width of the image
+	 * @param height height of the image
+	 * @param reqWidth the requested width, 0 if not constrained
+	 * @param reqHeight the requested height, 0 if not constrained
+	 * @return the sample size, 1 means no subsampling
+	 */
+	public static int calculateInSampleSize(int width, int height,
+			int reqWidth, int reqHeight){
+		
+		int sampleSize = 1;
+		if(width <= 0 || height <= 0 || (reqWidth <= 0 && reqHeight <= 0)){
+			return sampleSize;
+		}
+		while(fits(width / (sampleSize * 2), reqWidth)
+				&& fits(height / (sampleSize * 2), reqHeight)){
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+	
+	private static boolean fits(int size, int reqSize){
+		return size > 0 && size >= reqSize;
+	}
 }
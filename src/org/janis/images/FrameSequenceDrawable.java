@@ -0,0 +1,381 @@
+package org.janis.images;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+import org.janis.concurrent.PriorityExecutor;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Plays the frames of a FrameSource, decoding them in a
+ * background thread into a small ring of reusable buffers.
+ * Only the buffers are kept in memory, so the memory used
+ * doesn't depend on the length of the animation. The animation
+ * loops until it's stopped, and it's paused while the drawable
+ * is not visible.
+ *
+ * Call recycle when the drawable isn't needed anymore, to
+ * release the buffers and close the source.
+ *
+ * E.g.: imageView.setImageDrawable(new FrameSequenceDrawable(
+ *     MovieFrameSource.decode(in)));
+ */
+public class FrameSequenceDrawable extends Drawable implements Animatable, Runnable {
+
+	private static final String TAG = "FrameSequenceDrawable";
+
+	/** Default number of frame buffers. */
+	public static final int DEFAULT_BUFFER_COUNT = 3;
+
+	// delay before checking again when the decoder is behind
+	private static final long LATE_FRAME_DELAY = 10;
+
+	private static PriorityExecutor sDecodeExecutor;
+	private static Handler sHandler;
+
+	private final FrameSource mSource;
+	private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final Object mLock = new Object();
+
+	// guarded by mLock
+	private final LinkedList<Frame> mFree = new LinkedList<Frame>();
+	private final LinkedList<Frame> mDecoded = new LinkedList<Frame>();
+	private int mNextIndex;
+	private boolean mDecoding;
+	private boolean mRecycled;
+	// consecutive frames that failed, decoding stops after a full pass
+	private int mFailures;
+
+	// main thread only
+	private Frame mCurrent;
+	private boolean mRunning;
+
+	private final Runnable mDecodeRunnable = new Runnable() {
+		@Override
+		public void run() {
+			decodeFrames();
+		}
+	};
+
+	private final Runnable mFrameReadyRunnable = new Runnable() {
+		@Override
+		public void run() {
+			// the first frame is shown as soon as it's decoded,
+			// the rest on their schedule
+			if(mCurrent == null){
+				showNextFrame();
+			}
+		}
+	};
+
+	/**
+	 * Constructs a drawable with the default number of buffers.
+	 *
+	 * @param source the source of the frames
+	 */
+	public FrameSequenceDrawable(FrameSource source) {
+		this(source, DEFAULT_BUFFER_COUNT);
+	}
+
+	/**
+	 * Constructs a drawable. One buffer holds the frame shown,
+	 * the others hold the frames decoded ahead.
+	 *
+	 * @param source the source of the frames
+	 * @param bufferCount number of buffers, at least 2
+	 */
+	public FrameSequenceDrawable(FrameSource source, int bufferCount) {
+		if(source == null){
+			throw new IllegalArgumentException("source is null");
+		}
+		if(bufferCount < 2){
+			throw new IllegalArgumentException("bufferCount < 2");
+		}
+		mSource = source;
+		for (int i = 0; i < bufferCount; i++) {
+			mFree.add(new Frame(Bitmap.createBitmap(source.getWidth(),
+					source.getHeight(), Bitmap.Config.ARGB_8888)));
+		}
+		scheduleDecode();
+	}
+
+	private static synchronized PriorityExecutor getDecodeExecutor() {
+		if(sDecodeExecutor == null){
+			sDecodeExecutor = new PriorityExecutor(TAG, 1);
+			sHandler = new Handler(Looper.getMainLooper());
+		}
+		return sDecodeExecutor;
+	}
+
+	/**
+	 * @return the source of the frames
+	 */
+	public FrameSource getSource() {
+		return mSource;
+	}
+
+	/**
+	 * Queues the decoder if there is a free buffer and
+	 * it isn't queued yet.
+	 */
+	private void scheduleDecode() {
+		synchronized (mLock) {
+			if(mDecoding || mRecycled || mFree.isEmpty()
+					|| mFailures >= mSource.getFrameCount()){
+				return;
+			}
+			mDecoding = true;
+		}
+		getDecodeExecutor().execute(mDecodeRunnable);
+	}
+
+	/**
+	 * Fills the free buffers with the next frames. Runs in
+	 * the decoder thread.
+	 */
+	private void decodeFrames() {
+		while(true){
+			Frame frame;
+			int index;
+			synchronized (mLock) {
+				if(mRecycled){
+					mDecoding = false;
+					mSource.close();
+					return;
+				}
+				if(mFree.isEmpty()){
+					mDecoding = false;
+					return;
+				}
+				frame = mFree.removeFirst();
+				index = mNextIndex;
+				mNextIndex = (index + 1) % mSource.getFrameCount();
+			}
+
+			int duration;
+			try {
+				duration = mSource.readFrame(index, frame.mBitmap);
+			} catch (IOException e) {
+				Log.e(TAG, "Unable to read frame " + index, e);
+				// the frame is skipped, its buffer is reused
+				duration = -1;
+			}
+
+			synchronized (mLock) {
+				if(mRecycled){
+					// recycle didn't see the buffer being decoded
+					frame.mBitmap.recycle();
+					mDecoding = false;
+					mSource.close();
+					return;
+				}
+				if(duration < 0){
+					mFree.addFirst(frame);
+					if(++mFailures >= mSource.getFrameCount()){
+						// every frame failed, e.g. the files are gone,
+						// spinning would starve the other drawables
+						Log.e(TAG, "Unable to read any frame, stopping");
+						mDecoding = false;
+						return;
+					}
+					continue;
+				}
+				mFailures = 0;
+				frame.mIndex = index;
+				frame.mDuration = duration;
+				mDecoded.addLast(frame);
+			}
+			sHandler.post(mFrameReadyRunnable);
+		}
+	}
+
+	/**
+	 * Shows the next decoded frame and gives the buffer of
+	 * the previous one back to the decoder.
+	 *
+	 * @return the duration of the new frame, or -1 if no
+	 * frame is decoded yet
+	 */
+	private int showNextFrame() {
+		Frame next;
+		synchronized (mLock) {
+			if(mRecycled){
+				return -1;
+			}
+			next = mDecoded.poll();
+			if(next == null){
+				return -1;
+			}
+			if(mCurrent != null){
+				mFree.addLast(mCurrent);
+			}
+		}
+		mCurrent = next;
+		scheduleDecode();
+		invalidateSelf();
+		return next.mDuration;
+	}
+
+	/**
+	 * Advances the animation, scheduled with scheduleSelf.
+	 */
+	@Override
+	public void run() {
+		if(!mRunning){
+			return;
+		}
+		int duration = showNextFrame();
+		long now = SystemClock.uptimeMillis();
+		if(duration < 0){
+			// the decoder is behind, the current frame stays
+			scheduleSelf(this, now + LATE_FRAME_DELAY);
+		} else if(mSource.getFrameCount() > 1){
+			scheduleSelf(this, now + Math.max(duration, LATE_FRAME_DELAY));
+		}
+	}
+
+	@Override
+	public void start() {
+		if(mRunning){
+			return;
+		}
+		mRunning = true;
+		if(isVisible()){
+			scheduleSelf(this, SystemClock.uptimeMillis());
+		}
+	}
+
+	@Override
+	public void stop() {
+		mRunning = false;
+		unscheduleSelf(this);
+	}
+
+	@Override
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * Pauses the animation while the drawable is not visible,
+	 * and resumes it when it's visible again.
+	 */
+	@Override
+	public boolean setVisible(boolean visible, boolean restart) {
+		boolean changed = super.setVisible(visible, restart);
+		if(!visible){
+			unscheduleSelf(this);
+		} else if(mRunning && changed){
+			unscheduleSelf(this);
+			scheduleSelf(this, SystemClock.uptimeMillis());
+		}
+		return changed;
+	}
+
+	/**
+	 * Stops the animation, releases the buffers and closes
+	 * the source. The drawable draws nothing afterwards.
+	 */
+	public void recycle() {
+		stop();
+		synchronized (mLock) {
+			if(mRecycled){
+				return;
+			}
+			mRecycled = true;
+			for (Frame frame : mFree) {
+				frame.mBitmap.recycle();
+			}
+			for (Frame frame : mDecoded) {
+				frame.mBitmap.recycle();
+			}
+			mFree.clear();
+			mDecoded.clear();
+			if(mCurrent != null){
+				mCurrent.mBitmap.recycle();
+				mCurrent = null;
+			}
+			// otherwise the decoder closes it when it stops
+			if(!mDecoding){
+				mSource.close();
+			}
+		}
+		invalidateSelf();
+	}
+
+	/**
+	 * @return true if the drawable is recycled
+	 */
+	public boolean isRecycled() {
+		synchronized (mLock) {
+			return mRecycled;
+		}
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		Frame frame = mCurrent;
+		if(frame != null && !frame.mBitmap.isRecycled()){
+			canvas.drawBitmap(frame.mBitmap, null, getBounds(), mPaint);
+		}
+	}
+
+	/**
+	 * @return the index of the frame shown, or -1 if none
+	 */
+	public int getCurrentFrame() {
+		Frame frame = mCurrent;
+		return frame == null ? -1 : frame.mIndex;
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+		mPaint.setAlpha(alpha);
+		invalidateSelf();
+	}
+
+	@Override
+	public void setColorFilter(ColorFilter cf) {
+		mPaint.setColorFilter(cf);
+		invalidateSelf();
+	}
+
+	@Override
+	public int getOpacity() {
+		return PixelFormat.TRANSLUCENT;
+	}
+
+	@Override
+	public int getIntrinsicWidth() {
+		return mSource.getWidth();
+	}
+
+	@Override
+	public int getIntrinsicHeight() {
+		return mSource.getHeight();
+	}
+
+	/**
+	 * A buffer and the frame decoded into it.
+	 */
+	private static final class Frame {
+		final Bitmap mBitmap;
+		int mIndex;
+		int mDuration;
+
+		Frame(Bitmap bitmap) {
+			mBitmap = bitmap;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package org.janis.images;
+
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+
+/**
+ * A source of animation frames that are decoded on demand,
+ * so only the frames being displayed are in memory. Frames
+ * are read in a background thread into reusable buffers of
+ * the source's size, see FrameSequenceDrawable.
+ */
+public interface FrameSource {
+
+	/**
+	 * @return the width of the frames in pixels
+	 */
+	int getWidth();
+
+	/**
+	 * @return the height of the frames in pixels
+	 */
+	int getHeight();
+
+	/**
+	 * @return the number of frames
+	 */
+	int getFrameCount();
+
+	/**
+	 * Draws the frame into the buffer, replacing its pixels.
+	 * Frames are read in order, and wrap around to 0 when the
+	 * animation loops. Called in a background thread.
+	 *
+	 * @param index the index of the frame
+	 * @param buffer a mutable ARGB_8888 bitmap of the source's size
+	 * @return the duration of the frame in milliseconds
+	 * @throws IOException if the frame can't be read
+	 */
+	int readFrame(int index, Bitmap buffer) throws IOException;
+
+	/**
+	 * Releases the resources of the source.
+	 */
+	void close();
+}
@@ -0,0 +1,521 @@
+package org.janis.images;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Properties;
+
+import android.os.Build;
+
+/**
+ * HttpFetcher downloads images over HttpURLConnection with
+ * connect and read timeouts. The response body is streamed
+ * in small buffers and the download is aborted as soon as
+ * the caller is not interested in it anymore, so bytes of
+ * images whose views are recycled are not downloaded.
+ *
+ * Responses carry a CacheInfo built from the caching headers
+ * (ETag, Last-Modified, Cache-Control and Expires). When a
+ * stale cached copy is passed to open, a conditional request
+ * is made and the server can answer with 304 Not Modified
+ * instead of sending the image again.
+ *
+ * Connections are kept alive and reused as long as the
+ * response bodies are fully read.
+ */
+public class HttpFetcher {
+
+	/** Default connect timeout in milliseconds. */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 15 * 1000;
+
+	/** Default read timeout in milliseconds. */
+	public static final int DEFAULT_READ_TIMEOUT = 20 * 1000;
+
+	/**
+	 * Default freshness of the responses without explicit
+	 * expiration, 24 hours.
+	 */
+	public static final long DEFAULT_MAX_AGE = 24 * 60 * 60 * 1000L;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Error bodies up to this size are read to their end, so
+	 * the connection is kept alive. Larger ones disconnect.
+	 */
+	private static final int MAX_DRAINED_ERROR_BYTES = 16 * 1024;
+
+	static {
+		// connection pooling is broken before Froyo
+		if(Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO){
+			System.setProperty("http.keepAlive", "false");
+		}
+	}
+
+	private volatile int mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private volatile int mReadTimeout = DEFAULT_READ_TIMEOUT;
+	private volatile long mDefaultMaxAge = DEFAULT_MAX_AGE;
+
+	/**
+	 * Sets the connect timeout.
+	 *
+	 * @param timeout timeout in milliseconds, 0 for no timeout
+	 */
+	public void setConnectTimeout(int timeout) {
+		mConnectTimeout = timeout;
+	}
+
+	/**
+	 * Sets the read timeout, the maximum time to wait
+	 * between two reads from the socket.
+	 *
+	 * @param timeout timeout in milliseconds, 0 for no timeout
+	 */
+	public void setReadTimeout(int timeout) {
+		mReadTimeout = timeout;
+	}
+
+	/**
+	 * Sets how long a response is considered fresh if the
+	 * server doesn't tell it with Cache-Control or Expires.
+	 *
+	 * @param maxAge the max age in milliseconds
+	 */
+	public void setDefaultMaxAge(long maxAge) {
+		mDefaultMaxAge = maxAge;
+	}
+
+	/**
+	 * Opens a connection to the url and reads the response
+	 * headers. If a cached copy is given and it has validators,
+	 * the request is conditional and the response may be
+	 * not modified. The response should always be closed.
+	 *
+	 * @param url the url to fetch
+	 * @param cached the cache info of the cached copy, may be null
+	 * @param cancellable checked while the response is read, may be null
+	 * @return the response
+	 * @throws IOException if the request fails or the response
+	 * code is not successful
+	 */
+	public Response open(String url, CacheInfo cached, Cancellable cancellable)
+		throws IOException {
+
+		long start = System.nanoTime();
+		URLConnection urlConnection = new URL(url).openConnection();
+		if(!(urlConnection instanceof HttpURLConnection)){
+			// e.g. file urls, no caching headers
+			InputStream in = urlConnection.getInputStream();
+			return new Response(null, in, false,
+					new CacheInfo(null, 0, now() + mDefaultMaxAge),
+					cancellable, System.nanoTime() - start);
+		}
+
+		HttpURLConnection connection = (HttpURLConnection) urlConnection;
+		connection.setConnectTimeout(mConnectTimeout);
+		connection.setReadTimeout(mReadTimeout);
+		connection.setUseCaches(false);
+		if(cached != null){
+			if(cached.getETag() != null){
+				connection.setRequestProperty("If-None-Match", cached.getETag());
+			}
+			if(cached.getLastModified() > 0){
+				connection.setIfModifiedSince(cached.getLastModified());
+			}
+		}
+
+		boolean keepConnection = false;
+		try {
+			checkCancelled(cancellable);
+			int code = connection.getResponseCode();
+			long timeToFirstByte = System.nanoTime() - start;
+			CacheInfo info = parseCacheInfo(connection, code, cached);
+			Response response;
+			if(code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null){
+				response = new Response(connection, null, true, info,
+						cancellable, timeToFirstByte);
+			} else if(code / 100 == 2){
+				response = new Response(connection, connection.getInputStream(),
+						false, info, cancellable, timeToFirstByte);
+			} else {
+				// the connection stays alive if the body is short
+				keepConnection = drainErrorBody(connection);
+				throw new HttpException(url, code);
+			}
+			keepConnection = true;
+			return response;
+		} finally {
+			if(!keepConnection){
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Reads the body of an error response to its end and closes
+	 * it, so the connection goes back to the keep-alive pool.
+	 *
+	 * @return false if the body is too large or can't be read,
+	 * the connection should be disconnected then
+	 */
+	private static boolean drainErrorBody(HttpURLConnection connection) {
+		InputStream in = connection.getErrorStream();
+		if(in == null){
+			return true;
+		}
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int total = 0;
+			int read;
+			while((read = in.read(buffer)) != -1){
+				total += read;
+				if(total > MAX_DRAINED_ERROR_BYTES){
+					return false;
+				}
+			}
+			in.close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private CacheInfo parseCacheInfo(HttpURLConnection connection,
+			int code, CacheInfo cached) {
+
+		String etag = connection.getHeaderField("ETag");
+		long lastModified = connection.getLastModified();
+		if(code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null){
+			// 304 may omit the validators
+			if(etag == null){
+				etag = cached.getETag();
+			}
+			if(lastModified == 0){
+				lastModified = cached.getLastModified();
+			}
+		}
+
+		long now = now();
+		long expires = now + mDefaultMaxAge;
+		String cacheControl = connection.getHeaderField("Cache-Control");
+		long maxAge = parseMaxAge(cacheControl);
+		if(cacheControl != null && (cacheControl.contains("no-cache")
+				|| cacheControl.contains("no-store"))){
+			expires = now;
+		} else if(maxAge >= 0){
+			expires = now + maxAge * 1000;
+		} else if(connection.getHeaderField("Expires") != null){
+			long date = connection.getDate();
+			long expiration = connection.getExpiration();
+			// honor the server's clock, expiration is relative to it
+			expires = date > 0 ? now + (expiration - date) : expiration;
+		}
+		return new CacheInfo(etag, lastModified, expires);
+	}
+
+	private static long parseMaxAge(String cacheControl) {
+		if(cacheControl == null){
+			return -1;
+		}
+		for (String directive : cacheControl.split(",")) {
+			directive = directive.trim();
+			if(directive.startsWith("max-age=")){
+				try {
+					return Long.parseLong(directive.substring(8).trim());
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static void checkCancelled(Cancellable cancellable)
+		throws CancelledException {
+
+		if(cancellable != null && cancellable.isCancelled()){
+			throw new CancelledException();
+		}
+	}
+
+	private static long now() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * A response whose headers are read. The body is
+	 * read with writeTo.
+	 */
+	public static final class Response {
+		private final HttpURLConnection mConnection;
+		private final InputStream mInputStream;
+		private final boolean mNotModified;
+		private final CacheInfo mCacheInfo;
+		private final Cancellable mCancellable;
+		private final long mTimeToFirstByte;
+		private boolean mFullyRead;
+		private long mBytesRead;
+
+		Response(HttpURLConnection connection, InputStream in,
+				boolean notModified, CacheInfo cacheInfo, Cancellable cancellable,
+				long timeToFirstByte) {
+			mConnection = connection;
+			mTimeToFirstByte = timeToFirstByte;
+			mInputStream = in;
+			mNotModified = notModified;
+			mCacheInfo = cacheInfo;
+			mCancellable = cancellable;
+			mFullyRead = in == null;
+		}
+
+		/**
+		 * @return true if the cached copy is still valid and
+		 * the response has no body
+		 */
+		public boolean isNotModified() {
+			return mNotModified;
+		}
+
+		/**
+		 * @return the caching information of the response
+		 */
+		public CacheInfo getCacheInfo() {
+			return mCacheInfo;
+		}
+
+		/**
+		 * @return the content length, or -1 if it's not known
+		 */
+		public int getContentLength() {
+			return mConnection == null ? -1 : mConnection.getContentLength();
+		}
+
+		/**
+		 * @return the time from opening the connection until the
+		 * response headers are received, in nanoseconds
+		 */
+		public long getTimeToFirstByte() {
+			return mTimeToFirstByte;
+		}
+
+		/**
+		 * @return number of body bytes read so far
+		 */
+		public long getBytesRead() {
+			return mBytesRead;
+		}
+
+		/**
+		 * Streams the response body into the output stream.
+		 * Cancellation is checked between the buffers, if the
+		 * download is cancelled, the connection is aborted and
+		 * a CancelledException is thrown.
+		 *
+		 * @param out the destination of the body
+		 * @throws IOException
+		 */
+		public void writeTo(OutputStream out) throws IOException {
+			if(mInputStream == null){
+				return;
+			}
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int count;
+			while(true){
+				checkCancelled(mCancellable);
+				count = mInputStream.read(buffer);
+				if(count == -1){
+					break;
+				}
+				out.write(buffer, 0, count);
+				mBytesRead += count;
+			}
+			mFullyRead = true;
+		}
+
+		/**
+		 * Releases the connection. If the body is fully read, the
+		 * connection is returned to the keep-alive pool, otherwise
+		 * it's disconnected so no more bytes are downloaded.
+		 */
+		public void close() {
+			if(mFullyRead){
+				if(mInputStream != null){
+					try {
+						mInputStream.close();
+					} catch (IOException ignored) {
+					}
+				}
+			} else if(mConnection != null){
+				mConnection.disconnect();
+			} else {
+				try {
+					mInputStream.close();
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Caching information of a response: its validators
+	 * and when it expires.
+	 */
+	public static final class CacheInfo {
+		private final String mETag;
+		private final long mLastModified;
+		private final long mExpires;
+
+		/**
+		 * @param etag the entity tag, may be null
+		 * @param lastModified last modification time, 0 if unknown
+		 * @param expires the time the response becomes stale
+		 */
+		public CacheInfo(String etag, long lastModified, long expires) {
+			mETag = etag;
+			mLastModified = lastModified;
+			mExpires = expires;
+		}
+
+		/**
+		 * @return the entity tag, or null
+		 */
+		public String getETag() {
+			return mETag;
+		}
+
+		/**
+		 * @return last modification time, or 0
+		 */
+		public long getLastModified() {
+			return mLastModified;
+		}
+
+		/**
+		 * @return the time the response becomes stale
+		 */
+		public long getExpires() {
+			return mExpires;
+		}
+
+		/**
+		 * @return true if the response is not expired yet
+		 */
+		public boolean isFresh() {
+			return now() < mExpires;
+		}
+
+		/**
+		 * @return true if the response can be revalidated
+		 * with a conditional request
+		 */
+		public boolean hasValidators() {
+			return mETag != null || mLastModified > 0;
+		}
+
+		/**
+		 * Serializes the info to be stored next to a cached copy.
+		 *
+		 * @return the serialized info
+		 */
+		public byte[] toByteArray() {
+			Properties properties = new Properties();
+			if(mETag != null){
+				properties.setProperty("etag", mETag);
+			}
+			properties.setProperty("lastModified", Long.toString(mLastModified));
+			properties.setProperty("expires", Long.toString(mExpires));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try {
+				properties.store(out, null);
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+			return out.toByteArray();
+		}
+
+		/**
+		 * Reads an info serialized by toByteArray.
+		 *
+		 * @param in the stream of the serialized info
+		 * @return the info, or null if the stream is malformed
+		 * @throws IOException if the stream can't be read
+		 */
+		public static CacheInfo read(InputStream in) throws IOException {
+			Properties properties = new Properties();
+			properties.load(in);
+			try {
+				return new CacheInfo(properties.getProperty("etag"),
+						Long.parseLong(properties.getProperty("lastModified", "0")),
+						Long.parseLong(properties.getProperty("expires", "0")));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Reads an info serialized by toByteArray.
+		 *
+		 * @param data the serialized info
+		 * @return the info, or null if it's malformed
+		 */
+		public static CacheInfo fromByteArray(byte[] data) {
+			try {
+				return read(new ByteArrayInputStream(data));
+			} catch (IOException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Lets the fetcher know whether the caller is still
+	 * interested in the download.
+	 */
+	public interface Cancellable {
+
+		/**
+		 * Called from the downloading thread between reads.
+		 *
+		 * @return true if the download should be aborted
+		 */
+		boolean isCancelled();
+	}
+
+	/**
+	 * Thrown when the server responds with an unsuccessful
+	 * status code.
+	 */
+	public static class HttpException extends IOException {
+		private static final long serialVersionUID = 1L;
+		private final int mResponseCode;
+
+		public HttpException(String url, int responseCode) {
+			super("HTTP " + responseCode + ": " + url);
+			mResponseCode = responseCode;
+		}
+
+		/**
+		 * @return the status code of the response
+		 */
+		public int getResponseCode() {
+			return mResponseCode;
+		}
+	}
+
+	/**
+	 * Thrown when a download is aborted since it's cancelled.
+	 */
+	public static class CancelledException extends InterruptedIOException {
+		private static final long serialVersionUID = 1L;
+
+		public CancelledException() {
+			super("download is cancelled");
+		}
+	}
+}
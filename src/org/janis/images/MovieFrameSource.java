@@ -0,0 +1,102 @@
+package org.janis.images;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Movie;
+
+/**
+ * Frames of an animated GIF, rendered by android.graphics.Movie.
+ * Only the encoded GIF and the movie's own decoding state are
+ * kept in memory, not the decoded frames. Movie doesn't expose
+ * the frames of the GIF, so it's sampled at a fixed interval.
+ */
+public class MovieFrameSource implements FrameSource {
+
+	/** Default interval frames are sampled at, in milliseconds. */
+	public static final int DEFAULT_FRAME_INTERVAL = 40;
+
+	private final Movie mMovie;
+	private final int mFrameInterval;
+	private final int mFrameCount;
+	private final Canvas mCanvas = new Canvas();
+
+	/**
+	 * Constructs a source sampling the movie at the given interval.
+	 *
+	 * @param movie the movie
+	 * @param frameInterval the interval in milliseconds
+	 */
+	public MovieFrameSource(Movie movie, int frameInterval) {
+		if(movie == null){
+			throw new IllegalArgumentException("movie is null");
+		}
+		if(frameInterval <= 0){
+			throw new IllegalArgumentException("frameInterval <= 0");
+		}
+		mMovie = movie;
+		mFrameInterval = frameInterval;
+		mFrameCount = Math.max(1,
+				(movie.duration() + frameInterval - 1) / frameInterval);
+	}
+
+	/**
+	 * Reads a GIF from the stream, the stream is closed.
+	 *
+	 * @param in the stream of the GIF
+	 * @return the source
+	 * @throws IOException if the GIF can't be read or decoded
+	 */
+	public static MovieFrameSource decode(InputStream in) throws IOException {
+		byte[] data;
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int count;
+			while((count = in.read(buffer)) != -1){
+				out.write(buffer, 0, count);
+			}
+			data = out.toByteArray();
+		} finally {
+			in.close();
+		}
+		Movie movie = Movie.decodeByteArray(data, 0, data.length);
+		if(movie == null || movie.width() <= 0 || movie.height() <= 0){
+			throw new IOException("Unable to decode movie");
+		}
+		return new MovieFrameSource(movie, DEFAULT_FRAME_INTERVAL);
+	}
+
+	@Override
+	public int getWidth() {
+		return mMovie.width();
+	}
+
+	@Override
+	public int getHeight() {
+		return mMovie.height();
+	}
+
+	@Override
+	public int getFrameCount() {
+		return mFrameCount;
+	}
+
+	@Override
+	public int readFrame(int index, Bitmap buffer) {
+		buffer.eraseColor(0);
+		mMovie.setTime(index * mFrameInterval);
+		mCanvas.setBitmap(buffer);
+		mMovie.draw(mCanvas, 0, 0);
+		int remaining = mMovie.duration() - index * mFrameInterval;
+		return remaining > 0 ? Math.min(mFrameInterval, remaining)
+				: mFrameInterval;
+	}
+
+	@Override
+	public void close() {
+	}
+}
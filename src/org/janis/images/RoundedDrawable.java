@@ -0,0 +1,280 @@
+package org.janis.images;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draws a bitmap with rounded corners, or as a circle, through
+ * a BitmapShader. Unlike BitmapUtils.cornerBitmap, no new bitmap
+ * is allocated: the original bitmap is drawn directly, and the
+ * paint, shader and path are created once per drawable.
+ *
+ * The bitmap is stretched to the bounds like BitmapDrawable,
+ * or center cropped if setCenterCrop is set. Circles are
+ * always center cropped into the largest centered square.
+ *
+ * E.g.: imageView.setImageDrawable(new RoundedDrawable(bitmap, 8));
+ */
+public class RoundedDrawable extends Drawable {
+
+	private final Bitmap mBitmap;
+	private final BitmapShader mShader;
+	private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG
+			| Paint.FILTER_BITMAP_FLAG);
+	private final Matrix mShaderMatrix = new Matrix();
+	private final RectF mDrawRect = new RectF();
+	private final Path mPath = new Path();
+	// top left, top right, bottom right, bottom left; x and y
+	private final float[] mRadii = new float[8];
+	private boolean mUniformRadii = true;
+	private boolean mCircle;
+	private boolean mCenterCrop;
+
+	/**
+	 * Constructs a drawable with the same radius on each corner.
+	 *
+	 * @param bitmap the bitmap to draw
+	 * @param cornerRadius the radius of the corners in pixels
+	 */
+	public RoundedDrawable(Bitmap bitmap, float cornerRadius) {
+		if(bitmap == null){
+			throw new IllegalArgumentException("bitmap is null");
+		}
+		mBitmap = bitmap;
+		mShader = new BitmapShader(bitmap,
+				Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+		mPaint.setShader(mShader);
+		setCornerRadius(cornerRadius);
+	}
+
+	/**
+	 * Constructs a drawable with the given corner radii.
+	 *
+	 * @param bitmap the bitmap to draw
+	 * @param topLeft the radius of the top left corner
+	 * @param topRight the radius of the top right corner
+	 * @param bottomRight the radius of the bottom right corner
+	 * @param bottomLeft the radius of the bottom left corner
+	 */
+	public RoundedDrawable(Bitmap bitmap, float topLeft, float topRight,
+			float bottomRight, float bottomLeft) {
+		this(bitmap, 0);
+		setCornerRadii(topLeft, topRight, bottomRight, bottomLeft);
+	}
+
+	/**
+	 * Constructs a drawable drawing the bitmap as a circle.
+	 *
+	 * @param bitmap the bitmap to draw
+	 * @return a new drawable
+	 */
+	public static RoundedDrawable circle(Bitmap bitmap) {
+		RoundedDrawable drawable = new RoundedDrawable(bitmap, 0);
+		drawable.setCircle(true);
+		return drawable;
+	}
+
+	/**
+	 * Sets the same radius to each corner.
+	 *
+	 * @param radius the radius in pixels
+	 */
+	public void setCornerRadius(float radius) {
+		setCornerRadii(radius, radius, radius, radius);
+	}
+
+	/**
+	 * Sets the radius of each corner.
+	 *
+	 * @param topLeft the radius of the top left corner
+	 * @param topRight the radius of the top right corner
+	 * @param bottomRight the radius of the bottom right corner
+	 * @param bottomLeft the radius of the bottom left corner
+	 */
+	public void setCornerRadii(float topLeft, float topRight,
+			float bottomRight, float bottomLeft) {
+		mRadii[0] = mRadii[1] = Math.max(topLeft, 0);
+		mRadii[2] = mRadii[3] = Math.max(topRight, 0);
+		mRadii[4] = mRadii[5] = Math.max(bottomRight, 0);
+		mRadii[6] = mRadii[7] = Math.max(bottomLeft, 0);
+		mUniformRadii = mRadii[0] == mRadii[2] && mRadii[0] == mRadii[4]
+			&& mRadii[0] == mRadii[6];
+		updatePath();
+		invalidateSelf();
+	}
+
+	/**
+	 * Sets whether the bitmap is drawn as a circle. The
+	 * corner radii are ignored for circles.
+	 *
+	 * @param circle true to draw a circle
+	 */
+	public void setCircle(boolean circle) {
+		mCircle = circle;
+		updateBounds(getBounds());
+		invalidateSelf();
+	}
+
+	/**
+	 * Sets whether the bitmap is scaled to fill the bounds
+	 * keeping its aspect ratio, and cropped at the center.
+	 *
+	 * @param centerCrop true to center crop
+	 */
+	public void setCenterCrop(boolean centerCrop) {
+		mCenterCrop = centerCrop;
+		updateBounds(getBounds());
+		invalidateSelf();
+	}
+
+	/**
+	 * @return the bitmap drawn
+	 */
+	public Bitmap getBitmap() {
+		return mBitmap;
+	}
+
+	/**
+	 * @return true if the bitmap is drawn as a circle
+	 */
+	public boolean isCircle() {
+		return mCircle;
+	}
+
+	@Override
+	protected void onBoundsChange(Rect bounds) {
+		super.onBoundsChange(bounds);
+		updateBounds(bounds);
+	}
+
+	private void updateBounds(Rect bounds) {
+		if(bounds == null){
+			return;
+		}
+		mDrawRect.set(bounds);
+		if(mCircle){
+			float size = Math.min(mDrawRect.width(), mDrawRect.height());
+			float left = mDrawRect.centerX() - size / 2;
+			float top = mDrawRect.centerY() - size / 2;
+			mDrawRect.set(left, top, left + size, top + size);
+		}
+
+		int width = mBitmap.getWidth();
+		int height = mBitmap.getHeight();
+		mShaderMatrix.reset();
+		if(width > 0 && height > 0){
+			float scaleX = mDrawRect.width() / width;
+			float scaleY = mDrawRect.height() / height;
+			if(mCircle || mCenterCrop){
+				float scale = Math.max(scaleX, scaleY);
+				mShaderMatrix.setScale(scale, scale);
+				mShaderMatrix.postTranslate(
+						mDrawRect.left + (mDrawRect.width() - width * scale) / 2,
+						mDrawRect.top + (mDrawRect.height() - height * scale) / 2);
+			} else {
+				mShaderMatrix.setScale(scaleX, scaleY);
+				mShaderMatrix.postTranslate(mDrawRect.left, mDrawRect.top);
+			}
+		}
+		mShader.setLocalMatrix(mShaderMatrix);
+		updatePath();
+	}
+
+	private void updatePath() {
+		mPath.reset();
+		if(!mUniformRadii){
+			mPath.addRoundRect(mDrawRect, mRadii, Path.Direction.CW);
+		}
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		if(mBitmap.isRecycled()){
+			return;
+		}
+		if(mCircle){
+			canvas.drawOval(mDrawRect, mPaint);
+		} else if(!mUniformRadii){
+			canvas.drawPath(mPath, mPaint);
+		} else if(mRadii[0] > 0){
+			canvas.drawRoundRect(mDrawRect, mRadii[0], mRadii[0], mPaint);
+		} else {
+			canvas.drawRect(mDrawRect, mPaint);
+		}
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+		mPaint.setAlpha(alpha);
+		invalidateSelf();
+	}
+
+	@Override
+	public void setColorFilter(ColorFilter cf) {
+		mPaint.setColorFilter(cf);
+		invalidateSelf();
+	}
+
+	@Override
+	public int getOpacity() {
+		return PixelFormat.TRANSLUCENT;
+	}
+
+	@Override
+	public int getIntrinsicWidth() {
+		return mBitmap.getWidth();
+	}
+
+	@Override
+	public int getIntrinsicHeight() {
+		return mBitmap.getHeight();
+	}
+
+	@Override
+	public ConstantState getConstantState() {
+		return new RoundedState(this);
+	}
+
+	/**
+	 * Creates drawables sharing the bitmap with the same shape,
+	 * e.g. for the image loader to deliver the same image to
+	 * more than one view.
+	 */
+	private static final class RoundedState extends ConstantState {
+		private final Bitmap mBitmap;
+		private final float[] mRadii;
+		private final boolean mCircle;
+		private final boolean mCenterCrop;
+
+		RoundedState(RoundedDrawable drawable) {
+			mBitmap = drawable.mBitmap;
+			mRadii = drawable.mRadii.clone();
+			mCircle = drawable.mCircle;
+			mCenterCrop = drawable.mCenterCrop;
+		}
+
+		@Override
+		public Drawable newDrawable() {
+			RoundedDrawable drawable = new RoundedDrawable(mBitmap,
+					mRadii[0], mRadii[2], mRadii[4], mRadii[6]);
+			drawable.mCircle = mCircle;
+			drawable.mCenterCrop = mCenterCrop;
+			return drawable;
+		}
+
+		@Override
+		public int getChangingConfigurations() {
+			return 0;
+		}
+	}
+}
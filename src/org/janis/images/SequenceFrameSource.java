@@ -0,0 +1,157 @@
+package org.janis.images;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * Frames stored as separate images, e.g. the files of a frame
+ * sequence. Each frame is decoded into the buffer when it's
+ * read, reusing the buffer's memory if the platform can decode
+ * into it, so no decoded frame is kept besides the buffers.
+ */
+public abstract class SequenceFrameSource implements FrameSource {
+
+	private final int mWidth;
+	private final int mHeight;
+	private final int mFrameCount;
+	private final int mFrameDuration;
+	private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+	private final Canvas mCanvas = new Canvas();
+	private final Rect mRect = new Rect();
+
+	/**
+	 * Constructs a source of frames with the same size and duration.
+	 *
+	 * @param width the width of the frames
+	 * @param height the height of the frames
+	 * @param frameCount the number of frames
+	 * @param frameDuration the duration of a frame in milliseconds
+	 */
+	protected SequenceFrameSource(int width, int height, int frameCount,
+			int frameDuration) {
+		if(width <= 0 || height <= 0){
+			throw new IllegalArgumentException("width and height should be > 0");
+		}
+		if(frameCount <= 0){
+			throw new IllegalArgumentException("frameCount <= 0");
+		}
+		if(frameDuration <= 0){
+			throw new IllegalArgumentException("frameDuration <= 0");
+		}
+		mWidth = width;
+		mHeight = height;
+		mFrameCount = frameCount;
+		mFrameDuration = frameDuration;
+		if(BitmapPool.isReuseSupported()){
+			// inMutable and inBitmap don't exist before honeycomb
+			mOptions.inMutable = true;
+		}
+		mOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		mRect.set(0, 0, width, height);
+	}
+
+	/**
+	 * Creates a source of the image files, sized after the first one.
+	 *
+	 * @param files the files of the frames, in order
+	 * @param frameDuration the duration of a frame in milliseconds
+	 * @return the source
+	 * @throws IOException if the first file can't be read
+	 */
+	public static SequenceFrameSource fromFiles(final File[] files,
+			int frameDuration) throws IOException {
+		if(files == null || files.length == 0){
+			throw new IllegalArgumentException("no files");
+		}
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(files[0].getPath(), options);
+		if(options.outWidth <= 0 || options.outHeight <= 0){
+			throw new IOException("Unable to decode " + files[0]);
+		}
+		return new SequenceFrameSource(options.outWidth, options.outHeight,
+				files.length, frameDuration) {
+			@Override
+			protected InputStream openFrame(int index) throws IOException {
+				return new BufferedInputStream(new FileInputStream(files[index]));
+			}
+		};
+	}
+
+	/**
+	 * Opens the encoded image of the frame. Called in a
+	 * background thread.
+	 *
+	 * @param index the index of the frame
+	 * @return the stream of the image, closed after it's read
+	 * @throws IOException if the frame can't be opened
+	 */
+	protected abstract InputStream openFrame(int index) throws IOException;
+
+	@Override
+	public int getWidth() {
+		return mWidth;
+	}
+
+	@Override
+	public int getHeight() {
+		return mHeight;
+	}
+
+	@Override
+	public int getFrameCount() {
+		return mFrameCount;
+	}
+
+	@Override
+	public int readFrame(int index, Bitmap buffer) throws IOException {
+		InputStream in = openFrame(index);
+		Bitmap bitmap;
+		if(!BitmapPool.isReuseSupported()){
+			try {
+				bitmap = BitmapFactory.decodeStream(in, null, mOptions);
+			} finally {
+				in.close();
+			}
+		} else {
+			try {
+				mOptions.inBitmap = buffer;
+				try {
+					bitmap = BitmapFactory.decodeStream(in, null, mOptions);
+				} catch (IllegalArgumentException e) {
+					// the buffer can't be reused for this image, the
+					// stream can't be rewound, so it's opened again
+					in.close();
+					in = openFrame(index);
+					mOptions.inBitmap = null;
+					bitmap = BitmapFactory.decodeStream(in, null, mOptions);
+				}
+			} finally {
+				mOptions.inBitmap = null;
+				in.close();
+			}
+		}
+		if(bitmap == null){
+			throw new IOException("Unable to decode frame " + index);
+		}
+		if(bitmap != buffer){
+			buffer.eraseColor(0);
+			mCanvas.setBitmap(buffer);
+			mCanvas.drawBitmap(bitmap, null, mRect, null);
+			bitmap.recycle();
+		}
+		return mFrameDuration;
+	}
+
+	@Override
+	public void close() {
+	}
+}
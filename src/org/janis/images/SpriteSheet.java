@@ -0,0 +1,122 @@
+package org.janis.images;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * The frames of an animation packed into one atlas bitmap.
+ * A sprite sheet is immutable, so one sheet can be shared by
+ * any number of SpriteSheetDrawables, e.g. by every spinner of
+ * a list, and they all draw from the same bitmap.
+ */
+public final class SpriteSheet {
+
+	private final Bitmap mAtlas;
+	private final Rect[] mFrames;
+	private final int[] mDurations;
+	private final int mTotalDuration;
+
+	/**
+	 * Constructs a sprite sheet.
+	 *
+	 * @param atlas the bitmap holding the frames
+	 * @param frames the rectangle of each frame in the atlas
+	 * @param durations the duration of each frame in milliseconds
+	 */
+	public SpriteSheet(Bitmap atlas, Rect[] frames, int[] durations) {
+		if(atlas == null){
+			throw new IllegalArgumentException("atlas is null");
+		}
+		if(frames == null || frames.length == 0){
+			throw new IllegalArgumentException("no frames");
+		}
+		if(durations == null || durations.length != frames.length){
+			throw new IllegalArgumentException(
+					"durations should have a value for each frame");
+		}
+		mAtlas = atlas;
+		mFrames = new Rect[frames.length];
+		mDurations = durations.clone();
+		int total = 0;
+		for (int i = 0; i < frames.length; i++) {
+			if(mDurations[i] <= 0){
+				throw new IllegalArgumentException("duration <= 0");
+			}
+			mFrames[i] = new Rect(frames[i]);
+			total += mDurations[i];
+		}
+		mTotalDuration = total;
+	}
+
+	/**
+	 * Creates a sprite sheet of frames laid out in a grid of
+	 * equal cells, left to right and top to bottom.
+	 *
+	 * @param atlas the bitmap holding the frames
+	 * @param columns the number of columns of the grid
+	 * @param rows the number of rows of the grid
+	 * @param frameCount the number of frames, the last cells may be empty
+	 * @param frameDuration the duration of a frame in milliseconds
+	 * @return the sprite sheet
+	 */
+	public static SpriteSheet fromGrid(Bitmap atlas, int columns, int rows,
+			int frameCount, int frameDuration) {
+		if(columns <= 0 || rows <= 0){
+			throw new IllegalArgumentException("columns and rows should be > 0");
+		}
+		if(frameCount <= 0 || frameCount > columns * rows){
+			throw new IllegalArgumentException("frameCount out of the grid");
+		}
+		int width = atlas.getWidth() / columns;
+		int height = atlas.getHeight() / rows;
+		Rect[] frames = new Rect[frameCount];
+		int[] durations = new int[frameCount];
+		for (int i = 0; i < frameCount; i++) {
+			int left = (i % columns) * width;
+			int top = (i / columns) * height;
+			frames[i] = new Rect(left, top, left + width, top + height);
+			durations[i] = frameDuration;
+		}
+		return new SpriteSheet(atlas, frames, durations);
+	}
+
+	/**
+	 * @return the bitmap holding the frames
+	 */
+	public Bitmap getAtlas() {
+		return mAtlas;
+	}
+
+	/**
+	 * @return the number of frames
+	 */
+	public int getFrameCount() {
+		return mFrames.length;
+	}
+
+	/**
+	 * Gets the rectangle of a frame in the atlas, it must not
+	 * be modified.
+	 *
+	 * @param index the index of the frame
+	 * @return the rectangle
+	 */
+	public Rect getFrame(int index) {
+		return mFrames[index];
+	}
+
+	/**
+	 * @param index the index of the frame
+	 * @return the duration of the frame in milliseconds
+	 */
+	public int getDuration(int index) {
+		return mDurations[index];
+	}
+
+	/**
+	 * @return the duration of all the frames in milliseconds
+	 */
+	public int getTotalDuration() {
+		return mTotalDuration;
+	}
+}
@@ -0,0 +1,195 @@
+package org.janis.images;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Animatable;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+
+/**
+ * Plays a SpriteSheet by drawing the rectangle of the current
+ * frame from the shared atlas. The drawable only keeps the index
+ * of its frame, so many drawables playing the same sheet cost a
+ * single bitmap. The animation loops until it's stopped, and it's
+ * paused while the drawable is not visible.
+ *
+ * E.g.: imageView.setImageDrawable(new SpriteSheetDrawable(sheet));
+ */
+public class SpriteSheetDrawable extends Drawable implements Animatable, Runnable {
+
+	private final SpriteSheet mSheet;
+	private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private int mFrame;
+	private boolean mRunning;
+
+	/**
+	 * Constructs a drawable showing the first frame.
+	 *
+	 * @param sheet the sprite sheet, may be shared
+	 */
+	public SpriteSheetDrawable(SpriteSheet sheet) {
+		if(sheet == null){
+			throw new IllegalArgumentException("sheet is null");
+		}
+		mSheet = sheet;
+	}
+
+	/**
+	 * @return the sprite sheet played
+	 */
+	public SpriteSheet getSpriteSheet() {
+		return mSheet;
+	}
+
+	/**
+	 * @return the index of the frame shown
+	 */
+	public int getCurrentFrame() {
+		return mFrame;
+	}
+
+	/**
+	 * Shows the given frame.
+	 *
+	 * @param index the index of the frame
+	 */
+	public void setCurrentFrame(int index) {
+		if(index < 0 || index >= mSheet.getFrameCount()){
+			throw new IndexOutOfBoundsException("index " + index);
+		}
+		mFrame = index;
+		invalidateSelf();
+		if(mRunning && isVisible()){
+			scheduleNextFrame();
+		}
+	}
+
+	/**
+	 * Advances the animation, scheduled with scheduleSelf.
+	 */
+	@Override
+	public void run() {
+		if(!mRunning){
+			return;
+		}
+		mFrame = (mFrame + 1) % mSheet.getFrameCount();
+		invalidateSelf();
+		scheduleNextFrame();
+	}
+
+	private void scheduleNextFrame() {
+		unscheduleSelf(this);
+		if(mSheet.getFrameCount() > 1){
+			scheduleSelf(this, SystemClock.uptimeMillis()
+					+ mSheet.getDuration(mFrame));
+		}
+	}
+
+	@Override
+	public void start() {
+		if(mRunning){
+			return;
+		}
+		mRunning = true;
+		if(isVisible()){
+			scheduleNextFrame();
+		}
+	}
+
+	@Override
+	public void stop() {
+		mRunning = false;
+		unscheduleSelf(this);
+	}
+
+	@Override
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	/**
+	 * Pauses the animation while the drawable is not visible,
+	 * and resumes it when it's visible again.
+	 */
+	@Override
+	public boolean setVisible(boolean visible, boolean restart) {
+		boolean changed = super.setVisible(visible, restart);
+		if(!visible){
+			unscheduleSelf(this);
+		} else if(mRunning && changed){
+			if(restart){
+				mFrame = 0;
+				invalidateSelf();
+			}
+			scheduleNextFrame();
+		}
+		return changed;
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		if(mSheet.getAtlas().isRecycled()){
+			return;
+		}
+		Rect bounds = getBounds();
+		canvas.drawBitmap(mSheet.getAtlas(), mSheet.getFrame(mFrame),
+				bounds, mPaint);
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+		mPaint.setAlpha(alpha);
+		invalidateSelf();
+	}
+
+	@Override
+	public void setColorFilter(ColorFilter cf) {
+		mPaint.setColorFilter(cf);
+		invalidateSelf();
+	}
+
+	@Override
+	public int getOpacity() {
+		return PixelFormat.TRANSLUCENT;
+	}
+
+	@Override
+	public int getIntrinsicWidth() {
+		return mSheet.getFrame(mFrame).width();
+	}
+
+	@Override
+	public int getIntrinsicHeight() {
+		return mSheet.getFrame(mFrame).height();
+	}
+
+	@Override
+	public ConstantState getConstantState() {
+		return new SpriteSheetState(mSheet);
+	}
+
+	/**
+	 * Creates drawables playing the same sheet, each with
+	 * its own frame.
+	 */
+	private static final class SpriteSheetState extends ConstantState {
+		private final SpriteSheet mSheet;
+
+		SpriteSheetState(SpriteSheet sheet) {
+			mSheet = sheet;
+		}
+
+		@Override
+		public Drawable newDrawable() {
+			return new SpriteSheetDrawable(mSheet);
+		}
+
+		@Override
+		public int getChangingConfigurations() {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package org.janis.images;
+
+import android.graphics.Bitmap;
+
+/**
+ * Transforms a decoded image before it's cached and delivered,
+ * e.g. resizes or rounds it. Transformations run in the worker
+ * threads of the image loader, and the transformed images are
+ * cached with the keys of the transformations, so cache hits
+ * don't transform again. See Transformations for the common ones.
+ */
+public interface Transformation {
+
+	/**
+	 * Transforms the bitmap. Called in a worker thread.
+	 *
+	 * @param source the bitmap to transform, it can be returned
+	 * as is if there is nothing to do
+	 * @param pool the pool new bitmaps can be taken from, may be null
+	 * @return the transformed bitmap, the source is put to the
+	 * pool if a new bitmap is returned
+	 */
+	Bitmap transform(Bitmap source, BitmapPool pool);
+
+	/**
+	 * Returns a key unique to the transformation and its
+	 * parameters, e.g. "resize(100,100)". It's a part of the
+	 * cache keys of the transformed images.
+	 *
+	 * @return the key
+	 */
+	String getKey();
+}
@@ -0,0 +1,167 @@
+package org.janis.images;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+
+/**
+ * Common transformations for the image loader. They draw the
+ * source through a RoundedDrawable into a bitmap taken from
+ * the pool, so no intermediate copies are made.
+ *
+ * E.g.: loadingImageView.setTransformations(
+ *     Transformations.centerCrop(96, 96), Transformations.circle());
+ */
+public final class Transformations {
+
+	private Transformations() {
+	}
+
+	/**
+	 * Scales the image to exactly the given size.
+	 *
+	 * @param width the width in pixels
+	 * @param height the height in pixels
+	 * @return the transformation
+	 */
+	public static Transformation resize(int width, int height) {
+		checkSize(width, height);
+		return new DrawableTransformation("resize(" + width + "," + height + ")",
+				width, height, 0, 0, 0, 0, false, false);
+	}
+
+	/**
+	 * Scales the image to fill the given size keeping its
+	 * aspect ratio, and crops it at the center.
+	 *
+	 * @param width the width in pixels
+	 * @param height the height in pixels
+	 * @return the transformation
+	 */
+	public static Transformation centerCrop(int width, int height) {
+		checkSize(width, height);
+		return new DrawableTransformation("centerCrop(" + width + "," + height + ")",
+				width, height, 0, 0, 0, 0, true, false);
+	}
+
+	/**
+	 * Rounds the corners of the image.
+	 *
+	 * @param radius the radius of the corners in pixels
+	 * @return the transformation
+	 */
+	public static Transformation roundedCorners(float radius) {
+		return roundedCorners(radius, radius, radius, radius);
+	}
+
+	/**
+	 * Rounds each corner of the image with its own radius.
+	 *
+	 * @param topLeft the radius of the top left corner
+	 * @param topRight the radius of the top right corner
+	 * @param bottomRight the radius of the bottom right corner
+	 * @param bottomLeft the radius of the bottom left corner
+	 * @return the transformation
+	 */
+	public static Transformation roundedCorners(float topLeft, float topRight,
+			float bottomRight, float bottomLeft) {
+		return new DrawableTransformation("rounded(" + topLeft + ","
+				+ topRight + "," + bottomRight + "," + bottomLeft + ")",
+				0, 0, topLeft, topRight, bottomRight, bottomLeft, false, false);
+	}
+
+	/**
+	 * Crops the largest centered circle of the image.
+	 *
+	 * @return the transformation
+	 */
+	public static Transformation circle() {
+		return new DrawableTransformation("circle",
+				0, 0, 0, 0, 0, 0, false, true);
+	}
+
+	/**
+	 * Joins the keys of the transformations.
+	 *
+	 * @param transformations the transformations
+	 * @return the joined keys, or an empty string if there are none
+	 */
+	public static String getKey(Transformation... transformations) {
+		if(transformations == null || transformations.length == 0){
+			return "";
+		}
+		StringBuilder key = new StringBuilder();
+		for (Transformation transformation : transformations) {
+			key.append('|').append(transformation.getKey());
+		}
+		return key.toString();
+	}
+
+	private static void checkSize(int width, int height) {
+		if(width <= 0 || height <= 0){
+			throw new IllegalArgumentException("width and height should be > 0");
+		}
+	}
+
+	/**
+	 * Draws the source with a RoundedDrawable. A size of
+	 * 0 keeps the size of the source, a circle is as large
+	 * as the smaller side of the source.
+	 */
+	private static final class DrawableTransformation implements Transformation {
+		private final String mKey;
+		private final int mWidth;
+		private final int mHeight;
+		private final float mTopLeft;
+		private final float mTopRight;
+		private final float mBottomRight;
+		private final float mBottomLeft;
+		private final boolean mCenterCrop;
+		private final boolean mCircle;
+
+		DrawableTransformation(String key, int width, int height,
+				float topLeft, float topRight, float bottomRight,
+				float bottomLeft, boolean centerCrop, boolean circle) {
+			mKey = key;
+			mWidth = width;
+			mHeight = height;
+			mTopLeft = topLeft;
+			mTopRight = topRight;
+			mBottomRight = bottomRight;
+			mBottomLeft = bottomLeft;
+			mCenterCrop = centerCrop;
+			mCircle = circle;
+		}
+
+		@Override
+		public Bitmap transform(Bitmap source, BitmapPool pool) {
+			int width = mWidth > 0 ? mWidth : source.getWidth();
+			int height = mHeight > 0 ? mHeight : source.getHeight();
+			if(mCircle){
+				width = height = Math.min(width, height);
+			}
+			boolean rounded = mCircle || mTopLeft > 0 || mTopRight > 0
+				|| mBottomRight > 0 || mBottomLeft > 0;
+			if(!rounded && width == source.getWidth()
+					&& height == source.getHeight()){
+				return source;
+			}
+
+			RoundedDrawable drawable = new RoundedDrawable(source,
+					mTopLeft, mTopRight, mBottomRight, mBottomLeft);
+			drawable.setCircle(mCircle);
+			drawable.setCenterCrop(mCenterCrop);
+			drawable.setBounds(0, 0, width, height);
+
+			Bitmap result = BitmapUtils.createBitmap(width, height,
+					Config.ARGB_8888, pool);
+			drawable.draw(new Canvas(result));
+			return result;
+		}
+
+		@Override
+		public String getKey() {
+			return mKey;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package org.janis.maps;
+
+/**
+ * A group of markers close to each other at a zoom level,
+ * drawn as one. Its position is the center of its markers.
+ */
+public final class Cluster {
+
+	private final double mX;
+	private final double mY;
+	private final int mCount;
+	private final Marker mMarker;
+
+	Cluster(double x, double y, int count, Marker marker) {
+		mX = x;
+		mY = y;
+		mCount = count;
+		mMarker = marker;
+	}
+
+	/**
+	 * @return the x coordinate of the center
+	 */
+	public double getX() {
+		return mX;
+	}
+
+	/**
+	 * @return the y coordinate of the center
+	 */
+	public double getY() {
+		return mY;
+	}
+
+	/**
+	 * @return the number of markers
+	 */
+	public int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * @return the marker if the cluster has only one, or null
+	 */
+	public Marker getMarker() {
+		return mMarker;
+	}
+}
@@ -0,0 +1,94 @@
+package org.janis.maps;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tiles stored as image files in a directory, in the usual
+ * zoom/x/y layout, e.g. tiles/3/4/2.png. Useful for offline
+ * maps and for tests.
+ */
+public class FileTileSource implements TileSource {
+
+	private final File mDirectory;
+	private final String mExtension;
+	private final int mTileSize;
+	private final int mMinZoom;
+	private final int mMaxZoom;
+
+	/**
+	 * Constructs a source of 256 pixel png tiles.
+	 *
+	 * @param directory the directory of the zoom levels
+	 * @param minZoom the lowest zoom level
+	 * @param maxZoom the highest zoom level
+	 */
+	public FileTileSource(File directory, int minZoom, int maxZoom) {
+		this(directory, ".png", 256, minZoom, maxZoom);
+	}
+
+	/**
+	 * Constructs a source.
+	 *
+	 * @param directory the directory of the zoom levels
+	 * @param extension the extension of the files, e.g. ".png"
+	 * @param tileSize the size of the tiles in pixels
+	 * @param minZoom the lowest zoom level
+	 * @param maxZoom the highest zoom level
+	 */
+	public FileTileSource(File directory, String extension, int tileSize,
+			int minZoom, int maxZoom) {
+		if(tileSize <= 0){
+			throw new IllegalArgumentException("tileSize <= 0");
+		}
+		if(minZoom < 0 || maxZoom < minZoom){
+			throw new IllegalArgumentException("invalid zoom levels");
+		}
+		mDirectory = directory;
+		mExtension = extension;
+		mTileSize = tileSize;
+		mMinZoom = minZoom;
+		mMaxZoom = maxZoom;
+	}
+
+	/**
+	 * @param tile the tile
+	 * @return the file of the tile
+	 */
+	public File getFile(Tile tile) {
+		return new File(mDirectory, tile.getZoom() + File.separator
+				+ tile.getX() + File.separator + tile.getY() + mExtension);
+	}
+
+	@Override
+	public String getName() {
+		return mDirectory.getAbsolutePath();
+	}
+
+	@Override
+	public int getTileSize() {
+		return mTileSize;
+	}
+
+	@Override
+	public int getMinZoom() {
+		return mMinZoom;
+	}
+
+	@Override
+	public int getMaxZoom() {
+		return mMaxZoom;
+	}
+
+	@Override
+	public InputStream openTile(Tile tile) throws IOException {
+		File file = getFile(tile);
+		if(!file.isFile()){
+			return null;
+		}
+		return new BufferedInputStream(new FileInputStream(file));
+	}
+}
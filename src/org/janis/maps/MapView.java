@@ -1,6 +1,495 @@
 package org.janis.maps;
 
-// TODO
-public class MapView {
+import java.util.ArrayList;
+import java.util.List;
 
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * A map drawn from square tiles of a TileSource. The map is
+ * panned by dragging and zoomed in by double tapping.
+ *
+ * Decoded tiles are kept in the memory tier of the TileCache,
+ * and the encoded ones in its optional disk tier. The visible
+ * tiles and a margin of one tile around them are loaded in the
+ * background, nearest to the center first; tiles leaving the
+ * viewport are cancelled. The tiles of the next lower zoom
+ * covering the viewport are loaded too, so they can stand in
+ * for the visible tiles early on a cold start. Until a tile is
+ * loaded, the part of a lower zoom tile covering it is drawn
+ * scaled up instead, and the higher zoom tiles still in memory,
+ * e.g. after zooming out, are drawn scaled down over it.
+ *
+ * Overlays, e.g. a MarkerOverlay, are drawn on top of the tiles.
+ *
+ * E.g.: mapView.setTileSource(new FileTileSource(dir, 0, 10));
+ */
+public class MapView extends View {
+
+	/** Lower zoom levels searched for a placeholder of a tile. */
+	private static final int MAX_PLACEHOLDER_LEVELS = 4;
+	/** Higher zoom levels searched for the children of a tile. */
+	private static final int MAX_CHILD_LEVELS = 2;
+
+	private TileSource mSource;
+	private TileCache mTileCache;
+	private TileScheduler mScheduler;
+	private int mZoom;
+	// the center in normalized map coordinates
+	private double mCenterX = 0.5;
+	private double mCenterY = 0.5;
+
+	private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final Rect mSrcRect = new Rect();
+	private final Rect mDstRect = new Rect();
+	private final Rect mChildRect = new Rect();
+	private final List<Tile> mWanted = new ArrayList<Tile>();
+	private final List<Overlay> mOverlays = new ArrayList<Overlay>();
+	private GestureDetector mGestureDetector;
+
+	private final TileScheduler.Callback mTileCallback =
+		new TileScheduler.Callback() {
+		@Override
+		public void onTileLoaded(Tile tile) {
+			// the lower zoom tiles are drawn as placeholders
+			if(tile.getZoom() == mZoom || tile.getZoom() == mZoom - 1){
+				invalidate();
+			}
+		}
+	};
+
+	public MapView(Context context) {
+		super(context);
+		init(context);
+	}
+
+	public MapView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		init(context);
+	}
+
+	public MapView(Context context, AttributeSet attrs, int defStyle) {
+		super(context, attrs, defStyle);
+		init(context);
+	}
+
+	private void init(Context context) {
+		mGestureDetector = new GestureDetector(context,
+				new GestureDetector.SimpleOnGestureListener() {
+			@Override
+			public boolean onDown(MotionEvent e) {
+				return true;
+			}
+
+			@Override
+			public boolean onScroll(MotionEvent e1, MotionEvent e2,
+					float distanceX, float distanceY) {
+				scrollByPixels(distanceX, distanceY);
+				return true;
+			}
+
+			@Override
+			public boolean onDoubleTap(MotionEvent e) {
+				zoomIn();
+				return true;
+			}
+		});
+		// an eighth of the heap, without a disk tier
+		setTileCache(new TileCache(Runtime.getRuntime().maxMemory() / 8, null));
+	}
+
+	/**
+	 * Sets the source of the tiles. The decoded tiles of the
+	 * previous source are removed.
+	 *
+	 * @param source the source
+	 */
+	public void setTileSource(TileSource source) {
+		mSource = source;
+		mTileCache.clear();
+		mScheduler.setSource(source);
+		if(source != null){
+			mZoom = clampZoom(mZoom);
+		}
+		updateTiles();
+	}
+
+	/**
+	 * @return the source of the tiles, or null
+	 */
+	public TileSource getTileSource() {
+		return mSource;
+	}
+
+	/**
+	 * Sets the cache of the tiles, e.g. one with a disk tier.
+	 * A cache can be shared by maps of the same source.
+	 *
+	 * @param cache the cache
+	 */
+	public void setTileCache(TileCache cache) {
+		if(cache == null){
+			throw new IllegalArgumentException("cache is null");
+		}
+		if(mScheduler != null){
+			mScheduler.cancelAll();
+		}
+		mTileCache = cache;
+		mScheduler = new TileScheduler(cache, mTileCallback);
+		mScheduler.setSource(mSource);
+		updateTiles();
+	}
+
+	/**
+	 * @return the cache of the tiles
+	 */
+	public TileCache getTileCache() {
+		return mTileCache;
+	}
+
+	/**
+	 * Sets the zoom level, limited to the levels of the source.
+	 *
+	 * @param zoom the zoom level
+	 */
+	public void setZoom(int zoom) {
+		int newZoom = mSource == null ? Math.max(0, zoom) : clampZoom(zoom);
+		if(newZoom != mZoom){
+			mZoom = newZoom;
+			updateTiles();
+		}
+	}
+
+	/**
+	 * @return the zoom level
+	 */
+	public int getZoom() {
+		return mZoom;
+	}
+
+	public void zoomIn() {
+		setZoom(mZoom + 1);
+	}
+
+	public void zoomOut() {
+		setZoom(mZoom - 1);
+	}
+
+	private int clampZoom(int zoom) {
+		return Math.max(mSource.getMinZoom(), Math.min(zoom, mSource.getMaxZoom()));
+	}
+
+	/**
+	 * Centers the map on the given normalized map coordinates,
+	 * see Projection.
+	 *
+	 * @param x the x coordinate, between 0 and 1
+	 * @param y the y coordinate, between 0 and 1
+	 */
+	public void setCenter(double x, double y) {
+		mCenterX = Math.max(0, Math.min(x, 1));
+		mCenterY = Math.max(0, Math.min(y, 1));
+		updateTiles();
+	}
+
+	/**
+	 * Centers the map on the given location.
+	 *
+	 * @param latitude the latitude in degrees
+	 * @param longitude the longitude in degrees
+	 */
+	public void setCenterLocation(double latitude, double longitude) {
+		setCenter(Projection.toX(longitude), Projection.toY(latitude));
+	}
+
+	/**
+	 * @return the x coordinate of the center, between 0 and 1
+	 */
+	public double getCenterX() {
+		return mCenterX;
+	}
+
+	/**
+	 * @return the y coordinate of the center, between 0 and 1
+	 */
+	public double getCenterY() {
+		return mCenterY;
+	}
+
+	/**
+	 * @return the size of the world at the current zoom in pixels
+	 */
+	public long getWorldSize() {
+		int tileSize = mSource == null ? 256 : mSource.getTileSize();
+		return (long) tileSize << mZoom;
+	}
+
+	/**
+	 * Moves the map by the given distance in pixels.
+	 *
+	 * @param dx the horizontal distance
+	 * @param dy the vertical distance
+	 */
+	public void scrollByPixels(float dx, float dy) {
+		double worldSize = getWorldSize();
+		setCenter(mCenterX + dx / worldSize, mCenterY + dy / worldSize);
+	}
+
+	/**
+	 * Converts a normalized map coordinate to a position on the view.
+	 *
+	 * @param x the x coordinate
+	 * @return the x position in pixels
+	 */
+	public float toScreenX(double x) {
+		return (float) ((x - mCenterX) * getWorldSize() + getWidth() / 2.0);
+	}
+
+	/**
+	 * Converts a normalized map coordinate to a position on the view.
+	 *
+	 * @param y the y coordinate
+	 * @return the y position in pixels
+	 */
+	public float toScreenY(double y) {
+		return (float) ((y - mCenterY) * getWorldSize() + getHeight() / 2.0);
+	}
+
+	/**
+	 * Converts a position on the view to a normalized map coordinate.
+	 *
+	 * @param x the x position in pixels
+	 * @return the x coordinate
+	 */
+	public double toMapX(float x) {
+		return mCenterX + (x - getWidth() / 2.0) / getWorldSize();
+	}
+
+	/**
+	 * Converts a position on the view to a normalized map coordinate.
+	 *
+	 * @param y the y position in pixels
+	 * @return the y coordinate
+	 */
+	public double toMapY(float y) {
+		return mCenterY + (y - getHeight() / 2.0) / getWorldSize();
+	}
+
+	/**
+	 * Adds an overlay drawn on top of the tiles and the
+	 * overlays added before.
+	 *
+	 * @param overlay the overlay
+	 */
+	public void addOverlay(Overlay overlay) {
+		if(overlay.getMapView() != null){
+			throw new IllegalStateException("overlay is added to a map view");
+		}
+		overlay.setMapView(this);
+		mOverlays.add(overlay);
+		invalidate();
+	}
+
+	/**
+	 * Removes an overlay.
+	 *
+	 * @param overlay the overlay
+	 */
+	public void removeOverlay(Overlay overlay) {
+		if(mOverlays.remove(overlay)){
+			overlay.setMapView(null);
+			invalidate();
+		}
+	}
+
+	/**
+	 * Forgets the tiles that couldn't be loaded, and
+	 * loads them again.
+	 */
+	public void retryFailedTiles() {
+		mScheduler.retryMissing();
+		updateTiles();
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		return mGestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
+	}
+
+	/**
+	 * Requests the tiles of the viewport and a margin of one
+	 * tile around it, plus their parents as placeholders, and
+	 * redraws the map.
+	 */
+	private void updateTiles() {
+		mWanted.clear();
+		if(mSource != null && getWidth() > 0 && getHeight() > 0
+				&& getWindowToken() != null){
+			int tileSize = mSource.getTileSize();
+			double worldSize = getWorldSize();
+			double centerX = mCenterX * worldSize;
+			double centerY = mCenterY * worldSize;
+			int tiles = 1 << mZoom;
+			int firstX = Math.max(0, (int) Math.floor(
+					(centerX - getWidth() / 2.0) / tileSize) - 1);
+			int lastX = Math.min(tiles - 1, (int) Math.floor(
+					(centerX + getWidth() / 2.0) / tileSize) + 1);
+			int firstY = Math.max(0, (int) Math.floor(
+					(centerY - getHeight() / 2.0) / tileSize) - 1);
+			int lastY = Math.min(tiles - 1, (int) Math.floor(
+					(centerY + getHeight() / 2.0) / tileSize) + 1);
+			for (int y = firstY; y <= lastY; y++) {
+				for (int x = firstX; x <= lastX; x++) {
+					mWanted.add(new Tile(mZoom, x, y));
+				}
+			}
+			if(mZoom > mSource.getMinZoom()){
+				for (int y = firstY >> 1; y <= lastY >> 1; y++) {
+					for (int x = firstX >> 1; x <= lastX >> 1; x++) {
+						mWanted.add(new Tile(mZoom - 1, x, y));
+					}
+				}
+			}
+			mScheduler.update(mWanted, mZoom,
+					centerX / tileSize, centerY / tileSize);
+		} else {
+			mScheduler.update(mWanted, mZoom, 0, 0);
+		}
+		invalidate();
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		if(mSource != null){
+			drawTiles(canvas);
+		}
+		for (int i = 0; i < mOverlays.size(); i++) {
+			mOverlays.get(i).draw(canvas, this);
+		}
+	}
+
+	private void drawTiles(Canvas canvas) {
+		int tileSize = mSource.getTileSize();
+		double worldSize = getWorldSize();
+		double left = mCenterX * worldSize - getWidth() / 2.0;
+		double top = mCenterY * worldSize - getHeight() / 2.0;
+		int tiles = 1 << mZoom;
+		int firstX = Math.max(0, (int) Math.floor(left / tileSize));
+		int lastX = Math.min(tiles - 1,
+				(int) Math.floor((left + getWidth()) / tileSize));
+		int firstY = Math.max(0, (int) Math.floor(top / tileSize));
+		int lastY = Math.min(tiles - 1,
+				(int) Math.floor((top + getHeight()) / tileSize));
+
+		for (int y = firstY; y <= lastY; y++) {
+			for (int x = firstX; x <= lastX; x++) {
+				int tileLeft = (int) Math.round(x * (double) tileSize - left);
+				int tileTop = (int) Math.round(y * (double) tileSize - top);
+				mDstRect.set(tileLeft, tileTop, tileLeft + tileSize,
+						tileTop + tileSize);
+				drawTile(canvas, mZoom, x, y);
+			}
+		}
+	}
+
+	/**
+	 * Draws the tile into mDstRect. If it's not in memory, the
+	 * part of the nearest lower zoom tile covering it is drawn,
+	 * then the higher zoom tiles in memory covering parts of it.
+	 * Tiles are looked up by their address, so drawing doesn't
+	 * allocate.
+	 */
+	private void drawTile(Canvas canvas, int zoom, int x, int y) {
+		Bitmap bitmap = mTileCache.get(zoom, x, y);
+		if(bitmap != null){
+			canvas.drawBitmap(bitmap, null, mDstRect, mPaint);
+			return;
+		}
+		drawParent(canvas, zoom, x, y);
+		drawChildren(canvas, zoom, x, y, mDstRect.left, mDstRect.top,
+				mDstRect.width(), 1);
+	}
+
+	private void drawParent(Canvas canvas, int zoom, int x, int y) {
+		for (int level = 1; level <= MAX_PLACEHOLDER_LEVELS; level++) {
+			int parentZoom = zoom - level;
+			if(parentZoom < 0 || parentZoom < mSource.getMinZoom()){
+				return;
+			}
+			int parentX = x >> level;
+			int parentY = y >> level;
+			Bitmap bitmap = mTileCache.get(parentZoom, parentX, parentY);
+			if(bitmap == null){
+				continue;
+			}
+			// the tile is a 2^level th of the parent on each side
+			int size = bitmap.getWidth() >> level;
+			if(size == 0){
+				return;
+			}
+			int srcLeft = (x - (parentX << level)) * size;
+			int srcTop = (y - (parentY << level)) * size;
+			mSrcRect.set(srcLeft, srcTop, srcLeft + size, srcTop + size);
+			canvas.drawBitmap(bitmap, mSrcRect, mDstRect, mPaint);
+			return;
+		}
+	}
+
+	/**
+	 * Draws the four children of the tile that are in memory
+	 * scaled down into the square, searching the next levels
+	 * for the missing ones.
+	 */
+	private void drawChildren(Canvas canvas, int zoom, int x, int y,
+			int left, int top, int size, int level) {
+		int childZoom = zoom + 1;
+		int childSize = size / 2;
+		if(childZoom > mSource.getMaxZoom() || childSize == 0){
+			return;
+		}
+		for (int dy = 0; dy < 2; dy++) {
+			for (int dx = 0; dx < 2; dx++) {
+				int childX = x * 2 + dx;
+				int childY = y * 2 + dy;
+				int childLeft = left + dx * childSize;
+				int childTop = top + dy * childSize;
+				Bitmap bitmap = mTileCache.get(childZoom, childX, childY);
+				if(bitmap != null){
+					mChildRect.set(childLeft, childTop, childLeft + childSize,
+							childTop + childSize);
+					canvas.drawBitmap(bitmap, null, mChildRect, mPaint);
+				} else if(level < MAX_CHILD_LEVELS){
+					drawChildren(canvas, childZoom, childX, childY,
+							childLeft, childTop, childSize, level + 1);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		updateTiles();
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		updateTiles();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		mScheduler.cancelAll();
+		super.onDetachedFromWindow();
+	}
 }
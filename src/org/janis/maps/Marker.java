@@ -0,0 +1,60 @@
+package org.janis.maps;
+
+/**
+ * A point on the map, in normalized map coordinates, with
+ * optional data of the application.
+ */
+public class Marker {
+
+	private final double mX;
+	private final double mY;
+	private final Object mData;
+
+	/**
+	 * Constructs a marker.
+	 *
+	 * @param x the x coordinate, between 0 and 1
+	 * @param y the y coordinate, between 0 and 1
+	 * @param data the data of the marker, may be null
+	 */
+	public Marker(double x, double y, Object data) {
+		mX = x;
+		mY = y;
+		mData = data;
+	}
+
+	/**
+	 * Constructs a marker at the location.
+	 *
+	 * @param latitude the latitude in degrees
+	 * @param longitude the longitude in degrees
+	 * @param data the data of the marker, may be null
+	 * @return the marker
+	 */
+	public static Marker atLocation(double latitude, double longitude,
+			Object data) {
+		return new Marker(Projection.toX(longitude),
+				Projection.toY(latitude), data);
+	}
+
+	/**
+	 * @return the x coordinate
+	 */
+	public double getX() {
+		return mX;
+	}
+
+	/**
+	 * @return the y coordinate
+	 */
+	public double getY() {
+		return mY;
+	}
+
+	/**
+	 * @return the data of the marker, or null
+	 */
+	public Object getData() {
+		return mData;
+	}
+}
@@ -0,0 +1,337 @@
+package org.janis.maps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.janis.concurrent.PriorityExecutor;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+/**
+ * Draws a large number of markers, clustering the markers that
+ * are too close to each other at the current zoom level.
+ *
+ * The clusters of a zoom level are computed in the background,
+ * from the clusters of the next level when they're known, and
+ * cached per level together with a quadtree of them. A frame
+ * only queries the quadtree for the clusters in the viewport,
+ * so its cost doesn't depend on the number of markers. Until
+ * the clusters of a level are ready, the nearest known level
+ * is drawn.
+ *
+ * Override drawMarker and drawCluster to customize the markers.
+ */
+public class MarkerOverlay extends Overlay {
+
+	/** Default radius of a cluster in pixels. */
+	public static final int DEFAULT_CLUSTER_RADIUS = 40;
+
+	/** Default highest zoom level markers are clustered at. */
+	public static final int DEFAULT_MAX_CLUSTER_ZOOM = 16;
+
+	private static PriorityExecutor sExecutor;
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final SparseArray<Level> mLevels = new SparseArray<Level>();
+	private final SparseBooleanArray mPending = new SparseBooleanArray();
+	private List<Marker> mMarkers = new ArrayList<Marker>();
+	private int mGeneration;
+	private int mClusterRadius = DEFAULT_CLUSTER_RADIUS;
+	private int mMaxClusterZoom = DEFAULT_MAX_CLUSTER_ZOOM;
+	private int mTileSize = 256;
+
+	private final List<Cluster> mVisible = new ArrayList<Cluster>();
+	private final Paint mMarkerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint mClusterPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+	public MarkerOverlay() {
+		mMarkerPaint.setColor(0xffe53935);
+		mClusterPaint.setColor(0xcc1e88e5);
+		mTextPaint.setColor(0xffffffff);
+		mTextPaint.setTextAlign(Paint.Align.CENTER);
+		mTextPaint.setTextSize(28);
+	}
+
+	private static synchronized PriorityExecutor getExecutor() {
+		if(sExecutor == null){
+			sExecutor = new PriorityExecutor("MarkerOverlay", 1);
+		}
+		return sExecutor;
+	}
+
+	/**
+	 * Sets the markers, replacing the previous ones. The
+	 * clusters are computed again.
+	 *
+	 * @param markers the markers
+	 */
+	public void setMarkers(Collection<? extends Marker> markers) {
+		mMarkers = new ArrayList<Marker>(markers);
+		reset();
+	}
+
+	/**
+	 * @return the number of markers
+	 */
+	public int getMarkerCount() {
+		return mMarkers.size();
+	}
+
+	/**
+	 * Sets the distance markers are clustered within.
+	 *
+	 * @param radius the radius in pixels
+	 */
+	public void setClusterRadius(int radius) {
+		if(radius <= 0){
+			throw new IllegalArgumentException("radius <= 0");
+		}
+		mClusterRadius = radius;
+		reset();
+	}
+
+	/**
+	 * Sets the highest zoom level markers are clustered at,
+	 * each marker is drawn on its own above it.
+	 *
+	 * @param zoom the zoom level
+	 */
+	public void setMaxClusterZoom(int zoom) {
+		mMaxClusterZoom = zoom;
+		reset();
+	}
+
+	private void reset() {
+		// results of the previous markers are dropped
+		mGeneration++;
+		mLevels.clear();
+		mPending.clear();
+		invalidate();
+	}
+
+	@Override
+	public void draw(Canvas canvas, MapView mapView) {
+		TileSource source = mapView.getTileSource();
+		int tileSize = source == null ? 256 : source.getTileSize();
+		if(tileSize != mTileSize){
+			mTileSize = tileSize;
+			reset();
+		}
+		int zoom = Math.min(mapView.getZoom(), mMaxClusterZoom + 1);
+		Level level = getLevel(zoom);
+		if(level == null){
+			return;
+		}
+
+		double worldSize = mapView.getWorldSize();
+		double padding = mClusterRadius / worldSize;
+		double left = mapView.toMapX(0) - padding;
+		double top = mapView.toMapY(0) - padding;
+		double right = mapView.toMapX(mapView.getWidth()) + padding;
+		double bottom = mapView.toMapY(mapView.getHeight()) + padding;
+		mVisible.clear();
+		level.mIndex.query(left, top, right, bottom, mVisible);
+		for (int i = 0; i < mVisible.size(); i++) {
+			Cluster cluster = mVisible.get(i);
+			float x = mapView.toScreenX(cluster.getX());
+			float y = mapView.toScreenY(cluster.getY());
+			if(cluster.getMarker() != null){
+				drawMarker(canvas, cluster.getMarker(), x, y);
+			} else {
+				drawCluster(canvas, cluster, x, y);
+			}
+		}
+		mVisible.clear();
+	}
+
+	/**
+	 * Gets the clusters of the zoom level, or of the nearest
+	 * known level until they're computed.
+	 */
+	private Level getLevel(int zoom) {
+		Level level = mLevels.get(zoom);
+		if(level != null){
+			return level;
+		}
+		requestLevel(zoom, true);
+		Level nearest = null;
+		int distance = Integer.MAX_VALUE;
+		for (int i = 0; i < mLevels.size(); i++) {
+			int d = Math.abs(mLevels.keyAt(i) - zoom);
+			if(d < distance){
+				distance = d;
+				nearest = mLevels.valueAt(i);
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Computes the clusters of the level in the background, from
+	 * the nearest known finer level if there is one.
+	 */
+	private void requestLevel(int zoom, boolean urgent) {
+		if(zoom < 0 || zoom > mMaxClusterZoom + 1 || mLevels.get(zoom) != null
+				|| mPending.get(zoom)){
+			return;
+		}
+		Level finer = null;
+		for (int z = zoom + 1; z <= mMaxClusterZoom + 1 && finer == null; z++) {
+			finer = mLevels.get(z);
+		}
+		mPending.put(zoom, true);
+		getExecutor().execute(new LevelTask(zoom, finer, mGeneration,
+				urgent ? 1 : 0));
+	}
+
+	private void onLevelComputed(final int zoom, final Level level,
+			final int generation) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(generation != mGeneration){
+					return;
+				}
+				mPending.delete(zoom);
+				mLevels.put(zoom, level);
+				// the neighbours are likely to be shown next
+				requestLevel(zoom - 1, false);
+				requestLevel(zoom + 1, false);
+				invalidate();
+			}
+		});
+	}
+
+	/**
+	 * Draws a single marker. By default a small circle.
+	 *
+	 * @param canvas the canvas
+	 * @param marker the marker
+	 * @param x the x position on the screen
+	 * @param y the y position on the screen
+	 */
+	protected void drawMarker(Canvas canvas, Marker marker, float x, float y) {
+		canvas.drawCircle(x, y, 8, mMarkerPaint);
+	}
+
+	/**
+	 * Draws a cluster of markers. By default a circle
+	 * with the number of markers.
+	 *
+	 * @param canvas the canvas
+	 * @param cluster the cluster
+	 * @param x the x position on the screen
+	 * @param y the y position on the screen
+	 */
+	protected void drawCluster(Canvas canvas, Cluster cluster, float x, float y) {
+		canvas.drawCircle(x, y, mClusterRadius / 2f, mClusterPaint);
+		canvas.drawText(String.valueOf(cluster.getCount()), x,
+				y - (mTextPaint.ascent() + mTextPaint.descent()) / 2, mTextPaint);
+	}
+
+	/**
+	 * The clusters of a zoom level and their quadtree.
+	 */
+	private static final class Level {
+		final List<Cluster> mClusters;
+		final QuadTree<Cluster> mIndex = new QuadTree<Cluster>();
+
+		Level(List<Cluster> clusters) {
+			mClusters = clusters;
+			for (Cluster cluster : clusters) {
+				mIndex.insert(cluster.getX(), cluster.getY(), cluster);
+			}
+		}
+	}
+
+	/**
+	 * Sums of the clusters falling into a cell of the grid.
+	 */
+	private static final class Cell {
+		double mSumX;
+		double mSumY;
+		int mCount;
+		Marker mMarker;
+
+		void add(Cluster cluster) {
+			mSumX += cluster.getX() * cluster.getCount();
+			mSumY += cluster.getY() * cluster.getCount();
+			mCount += cluster.getCount();
+			mMarker = mCount == 1 ? cluster.getMarker() : null;
+		}
+
+		Cluster toCluster() {
+			return new Cluster(mSumX / mCount, mSumY / mCount, mCount, mMarker);
+		}
+	}
+
+	private final class LevelTask extends PriorityExecutor.Task {
+		private final int mZoom;
+		private final Level mFiner;
+		private final int mTaskGeneration;
+		private final List<Marker> mTaskMarkers;
+		private final int mCellPixels;
+		private final int mTaskTileSize;
+		private final int mTaskMaxZoom;
+
+		LevelTask(int zoom, Level finer, int generation, int priority) {
+			super(priority);
+			mZoom = zoom;
+			mFiner = finer;
+			mTaskGeneration = generation;
+			// read on the main thread, the fields may change
+			mTaskMarkers = mMarkers;
+			mCellPixels = mClusterRadius;
+			mTaskTileSize = mTileSize;
+			mTaskMaxZoom = mMaxClusterZoom;
+		}
+
+		@Override
+		public void run() {
+			List<Cluster> source;
+			if(mFiner != null){
+				source = mFiner.mClusters;
+			} else {
+				source = new ArrayList<Cluster>(mTaskMarkers.size());
+				for (Marker marker : mTaskMarkers) {
+					source.add(new Cluster(marker.getX(), marker.getY(), 1, marker));
+				}
+			}
+			if(mZoom > mTaskMaxZoom){
+				// not clustered
+				onLevelComputed(mZoom, new Level(source), mTaskGeneration);
+				return;
+			}
+
+			// clusters falling into the same cell of a grid of
+			// the cluster radius are merged
+			double cellSize = (double) mCellPixels / ((long) mTaskTileSize << mZoom);
+			Map<Long, Cell> cells = new HashMap<Long, Cell>();
+			for (Cluster cluster : source) {
+				long cellX = (long) (cluster.getX() / cellSize);
+				long cellY = (long) (cluster.getY() / cellSize);
+				Long key = (cellX << 32) | (cellY & 0xffffffffL);
+				Cell cell = cells.get(key);
+				if(cell == null){
+					cell = new Cell();
+					cells.put(key, cell);
+				}
+				cell.add(cluster);
+			}
+			List<Cluster> clusters = new ArrayList<Cluster>(cells.size());
+			for (Cell cell : cells.values()) {
+				clusters.add(cell.toCluster());
+			}
+			onLevelComputed(mZoom, new Level(clusters), mTaskGeneration);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package org.janis.maps;
+
+import android.graphics.Canvas;
+
+/**
+ * Draws on top of the tiles of a MapView, see MapView.addOverlay.
+ */
+public abstract class Overlay {
+
+	private MapView mMapView;
+
+	void setMapView(MapView mapView) {
+		mMapView = mapView;
+	}
+
+	/**
+	 * @return the map view the overlay is added to, or null
+	 */
+	public MapView getMapView() {
+		return mMapView;
+	}
+
+	/**
+	 * Redraws the map view the overlay is added to.
+	 */
+	public void invalidate() {
+		if(mMapView != null){
+			mMapView.invalidate();
+		}
+	}
+
+	/**
+	 * Draws the overlay, on the main thread. Use the
+	 * conversion methods of the map view for the positions.
+	 *
+	 * @param canvas the canvas of the map view
+	 * @param mapView the map view
+	 */
+	public abstract void draw(Canvas canvas, MapView mapView);
+}
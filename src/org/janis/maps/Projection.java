@@ -0,0 +1,50 @@
+package org.janis.maps;
+
+/**
+ * Converts between latitude, longitude and the spherical
+ * mercator coordinates used by the tiles. Map coordinates are
+ * normalized: the world is 1 wide and 1 tall, with 0, 0 at the
+ * north west corner.
+ */
+public final class Projection {
+
+	/** The highest latitude shown by the map. */
+	public static final double MAX_LATITUDE = 85.05112878;
+
+	private Projection() {
+	}
+
+	/**
+	 * @param longitude the longitude in degrees
+	 * @return the x coordinate, between 0 and 1
+	 */
+	public static double toX(double longitude) {
+		return (longitude + 180) / 360;
+	}
+
+	/**
+	 * @param latitude the latitude in degrees
+	 * @return the y coordinate, between 0 and 1
+	 */
+	public static double toY(double latitude) {
+		double lat = Math.max(-MAX_LATITUDE, Math.min(latitude, MAX_LATITUDE));
+		double sin = Math.sin(Math.toRadians(lat));
+		return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+	}
+
+	/**
+	 * @param x the x coordinate
+	 * @return the longitude in degrees
+	 */
+	public static double toLongitude(double x) {
+		return x * 360 - 180;
+	}
+
+	/**
+	 * @param y the y coordinate
+	 * @return the latitude in degrees
+	 */
+	public static double toLatitude(double y) {
+		return Math.toDegrees(Math.atan(Math.sinh((0.5 - y) * 2 * Math.PI)));
+	}
+}
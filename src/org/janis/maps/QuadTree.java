@@ -0,0 +1,172 @@
+package org.janis.maps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A point quadtree answering rectangle queries in time
+ * proportional to the depth of the tree and the number of
+ * results, rather than the number of points. A node holds up
+ * to NODE_CAPACITY points, and is split into four quadrants
+ * once it's full. Not thread safe, but a tree that is not
+ * modified anymore can be queried from any thread.
+ *
+ * @param <T> the type of the items at the points
+ */
+public class QuadTree<T> {
+
+	private static final int NODE_CAPACITY = 16;
+	// points at the same place never split further than this
+	private static final int MAX_DEPTH = 24;
+
+	private final Node<T> mRoot;
+	private int mSize;
+
+	/**
+	 * Constructs a tree covering the normalized map coordinates.
+	 */
+	public QuadTree() {
+		this(0, 0, 1, 1);
+	}
+
+	/**
+	 * Constructs a tree covering the given bounds.
+	 *
+	 * @param left the left bound
+	 * @param top the top bound
+	 * @param right the right bound
+	 * @param bottom the bottom bound
+	 */
+	public QuadTree(double left, double top, double right, double bottom) {
+		if(right <= left || bottom <= top){
+			throw new IllegalArgumentException("empty bounds");
+		}
+		mRoot = new Node<T>(left, top, right, bottom, 0);
+	}
+
+	/**
+	 * Inserts an item at the point. Points out of the bounds
+	 * are moved to the nearest edge.
+	 *
+	 * @param x the x coordinate of the point
+	 * @param y the y coordinate of the point
+	 * @param item the item
+	 */
+	public void insert(double x, double y, T item) {
+		x = Math.max(mRoot.mLeft, Math.min(x, mRoot.mRight));
+		y = Math.max(mRoot.mTop, Math.min(y, mRoot.mBottom));
+		mRoot.insert(new Entry<T>(x, y, item));
+		mSize++;
+	}
+
+	/**
+	 * Adds the items whose points are within the rectangle
+	 * to the list.
+	 *
+	 * @param left the left bound
+	 * @param top the top bound
+	 * @param right the right bound
+	 * @param bottom the bottom bound
+	 * @param out the list the items are added to
+	 */
+	public void query(double left, double top, double right, double bottom,
+			List<? super T> out) {
+		mRoot.query(left, top, right, bottom, out);
+	}
+
+	/**
+	 * @return the number of items
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	private static final class Entry<T> {
+		final double mX;
+		final double mY;
+		final T mItem;
+
+		Entry(double x, double y, T item) {
+			mX = x;
+			mY = y;
+			mItem = item;
+		}
+	}
+
+	private static final class Node<T> {
+		final double mLeft;
+		final double mTop;
+		final double mRight;
+		final double mBottom;
+		final int mDepth;
+		List<Entry<T>> mEntries = new ArrayList<Entry<T>>();
+		// top left, top right, bottom left, bottom right
+		Node<T>[] mChildren;
+
+		Node(double left, double top, double right, double bottom, int depth) {
+			mLeft = left;
+			mTop = top;
+			mRight = right;
+			mBottom = bottom;
+			mDepth = depth;
+		}
+
+		void insert(Entry<T> entry) {
+			Node<T> node = this;
+			while(node.mChildren != null){
+				node = node.childFor(entry.mX, entry.mY);
+			}
+			node.mEntries.add(entry);
+			if(node.mEntries.size() > NODE_CAPACITY && node.mDepth < MAX_DEPTH){
+				node.split();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void split() {
+			double midX = (mLeft + mRight) / 2;
+			double midY = (mTop + mBottom) / 2;
+			mChildren = new Node[] {
+				new Node<T>(mLeft, mTop, midX, midY, mDepth + 1),
+				new Node<T>(midX, mTop, mRight, midY, mDepth + 1),
+				new Node<T>(mLeft, midY, midX, mBottom, mDepth + 1),
+				new Node<T>(midX, midY, mRight, mBottom, mDepth + 1)
+			};
+			List<Entry<T>> entries = mEntries;
+			mEntries = null;
+			for (Entry<T> entry : entries) {
+				insert(entry);
+			}
+		}
+
+		private Node<T> childFor(double x, double y) {
+			int index = 0;
+			if(x >= (mLeft + mRight) / 2){
+				index |= 1;
+			}
+			if(y >= (mTop + mBottom) / 2){
+				index |= 2;
+			}
+			return mChildren[index];
+		}
+
+		void query(double left, double top, double right, double bottom,
+				List<? super T> out) {
+			if(right < mLeft || left > mRight || bottom < mTop || top > mBottom){
+				return;
+			}
+			if(mChildren != null){
+				for (Node<T> child : mChildren) {
+					child.query(left, top, right, bottom, out);
+				}
+				return;
+			}
+			for (Entry<T> entry : mEntries) {
+				if(entry.mX >= left && entry.mX <= right
+						&& entry.mY >= top && entry.mY <= bottom){
+					out.add(entry.mItem);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.janis.maps;
+
+/**
+ * The address of a map tile: its zoom level and its column and
+ * row in the grid of that level. A level has 2^zoom columns and
+ * rows, and each tile covers four tiles of the next level.
+ */
+public final class Tile {
+
+	// only changed by set, on lookup keys
+	private int mZoom;
+	private int mX;
+	private int mY;
+
+	/**
+	 * Constructs a tile address.
+	 *
+	 * @param zoom the zoom level
+	 * @param x the column
+	 * @param y the row
+	 */
+	public Tile(int zoom, int x, int y) {
+		mZoom = zoom;
+		mX = x;
+		mY = y;
+	}
+
+	/**
+	 * Changes the address, so one tile can be reused as the
+	 * key of lookups. A tile stored anywhere must not be set.
+	 *
+	 * @return this tile
+	 */
+	Tile set(int zoom, int x, int y) {
+		mZoom = zoom;
+		mX = x;
+		mY = y;
+		return this;
+	}
+
+	/**
+	 * @return the zoom level
+	 */
+	public int getZoom() {
+		return mZoom;
+	}
+
+	/**
+	 * @return the column
+	 */
+	public int getX() {
+		return mX;
+	}
+
+	/**
+	 * @return the row
+	 */
+	public int getY() {
+		return mY;
+	}
+
+	/**
+	 * @return the tile of the previous level covering this
+	 * tile, or null at level 0
+	 */
+	public Tile getParent() {
+		if(mZoom == 0){
+			return null;
+		}
+		return new Tile(mZoom - 1, mX >> 1, mY >> 1);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(this == o){
+			return true;
+		}
+		if(!(o instanceof Tile)){
+			return false;
+		}
+		Tile other = (Tile) o;
+		return mZoom == other.mZoom && mX == other.mX && mY == other.mY;
+	}
+
+	@Override
+	public int hashCode() {
+		return (mZoom * 31 + mX) * 31 + mY;
+	}
+
+	@Override
+	public String toString() {
+		return mZoom + "/" + mX + "/" + mY;
+	}
+}
@@ -0,0 +1,220 @@
+package org.janis.maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.janis.cache.DiskLruCache;
+import org.janis.cache.MemoryLruCache;
+import org.janis.images.BitmapPool;
+import org.janis.images.BitmapUtils;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * The two tiers of the tile cache: decoded tiles in memory,
+ * bounded by their bytes, and encoded tiles on disk. The memory
+ * tier is only used on the main thread, so tiles evicted from it
+ * are not drawn anymore and their bitmaps are reused for the
+ * next tiles through the pool. The disk tier is optional and is
+ * read and written by the tile loading threads.
+ */
+public class TileCache {
+
+	private static final String TAG = "TileCache";
+
+	private final MemoryLruCache<Tile, Bitmap> mMemoryCache;
+	private final DiskLruCache mDiskCache;
+	private final BitmapPool mPool;
+	// main thread only, so drawing doesn't allocate keys
+	private final Tile mLookupKey = new Tile(0, 0, 0);
+
+	/**
+	 * Constructs a cache pooling up to a quarter of the memory
+	 * tier for reuse.
+	 *
+	 * @param maxMemoryBytes the maximum bytes of the decoded tiles
+	 * @param diskCache the disk tier, may be null
+	 */
+	public TileCache(long maxMemoryBytes, DiskLruCache diskCache) {
+		this(maxMemoryBytes, diskCache, new BitmapPool(Math.max(1, maxMemoryBytes / 4)));
+	}
+
+	/**
+	 * Constructs a cache.
+	 *
+	 * @param maxMemoryBytes the maximum bytes of the decoded tiles
+	 * @param diskCache the disk tier, may be null
+	 * @param pool the pool evicted tiles are put into, may be null
+	 */
+	public TileCache(long maxMemoryBytes, DiskLruCache diskCache,
+			BitmapPool pool) {
+		mDiskCache = diskCache;
+		mPool = pool;
+		mMemoryCache = new MemoryLruCache<Tile, Bitmap>(maxMemoryBytes, 1) {
+			@Override
+			protected int sizeOf(Tile key, Bitmap value) {
+				return BitmapUtils.getBitmapSize(value);
+			}
+
+			@Override
+			protected void entryRemoved(boolean evicted, Tile key,
+					Bitmap oldValue) {
+				if(mPool != null){
+					mPool.put(oldValue);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Gets a decoded tile. Main thread only.
+	 *
+	 * @param tile the tile
+	 * @return the bitmap of the tile, or null
+	 */
+	public Bitmap get(Tile tile) {
+		return mMemoryCache.get(tile);
+	}
+
+	/**
+	 * Gets a decoded tile by its address, without allocating
+	 * a Tile. Main thread only.
+	 *
+	 * @param zoom the zoom level
+	 * @param x the column
+	 * @param y the row
+	 * @return the bitmap of the tile, or null
+	 */
+	public Bitmap get(int zoom, int x, int y) {
+		return mMemoryCache.get(mLookupKey.set(zoom, x, y));
+	}
+
+	/**
+	 * Puts a decoded tile. Main thread only.
+	 *
+	 * @param tile the tile
+	 * @param bitmap the bitmap of the tile
+	 */
+	public void put(Tile tile, Bitmap bitmap) {
+		mMemoryCache.put(tile, bitmap);
+	}
+
+	/**
+	 * Gives back a decoded tile that won't be put, so its
+	 * bitmap is reused. Main thread only.
+	 *
+	 * @param bitmap the bitmap of the tile
+	 */
+	void recycle(Bitmap bitmap) {
+		if(mPool != null){
+			mPool.put(bitmap);
+		}
+	}
+
+	/**
+	 * Removes all the decoded tiles, e.g. when the source is
+	 * changed. Main thread only.
+	 */
+	public void clear() {
+		mMemoryCache.clear();
+	}
+
+	/**
+	 * Trims the decoded tiles to the given size, e.g. when the
+	 * memory is low. Main thread only.
+	 *
+	 * @param maxBytes the maximum bytes to keep
+	 */
+	public void trimMemory(long maxBytes) {
+		mMemoryCache.trimToSize(maxBytes);
+	}
+
+	/**
+	 * @return the memory tier, for its statistics
+	 */
+	public MemoryLruCache<Tile, Bitmap> getMemoryCache() {
+		return mMemoryCache;
+	}
+
+	/**
+	 * @return the disk tier, or null
+	 */
+	public DiskLruCache getDiskCache() {
+		return mDiskCache;
+	}
+
+	private static String diskKey(TileSource source, Tile tile) {
+		return DiskLruCache.keyFor(source.getName() + "/" + tile);
+	}
+
+	/**
+	 * Reads an encoded tile from the disk tier.
+	 *
+	 * @param source the source of the tile
+	 * @param tile the tile
+	 * @return the encoded tile, or null if it's not on disk
+	 * @throws IOException if the disk cache can't be read
+	 */
+	byte[] readFromDisk(TileSource source, Tile tile) throws IOException {
+		if(mDiskCache == null){
+			return null;
+		}
+		DiskLruCache.Snapshot snapshot = mDiskCache.get(diskKey(source, tile));
+		if(snapshot == null){
+			return null;
+		}
+		return readFully(snapshot.getInputStream());
+	}
+
+	/**
+	 * Writes an encoded tile to the disk tier.
+	 */
+	void writeToDisk(TileSource source, Tile tile, byte[] data) {
+		if(mDiskCache == null){
+			return;
+		}
+		try {
+			DiskLruCache.Editor editor = mDiskCache.edit(diskKey(source, tile));
+			if(editor == null){
+				// being written by another thread
+				return;
+			}
+			try {
+				OutputStream out = editor.newOutputStream();
+				try {
+					out.write(data);
+				} finally {
+					out.close();
+				}
+				editor.commit();
+			} finally {
+				editor.abortUnlessCommitted();
+			}
+		} catch (IOException e) {
+			// the tile is still shown, only not cached
+			Log.w(TAG, "Unable to cache the tile " + tile, e);
+		}
+	}
+
+	/**
+	 * Decodes an encoded tile into a pooled bitmap if possible.
+	 */
+	Bitmap decode(byte[] data) throws IOException {
+		return BitmapUtils.decodeSampledBitmap(
+				new ByteArrayInputStream(data), 0, 0, mPool);
+	}
+
+	static byte[] readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			DiskLruCache.copy(in, out);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
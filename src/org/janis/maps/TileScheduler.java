@@ -0,0 +1,211 @@
+package org.janis.maps;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.janis.concurrent.PriorityExecutor;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Loads the tiles wanted by a map view, from the disk tier or
+ * from the source, on a shared thread pool. Tiles nearer the
+ * center of the viewport are loaded first, and tiles that are
+ * not wanted anymore are cancelled while they're still queued.
+ * Loaded tiles are put into the memory tier on the main thread.
+ *
+ * All methods are called on the main thread.
+ */
+final class TileScheduler {
+
+	private static final String TAG = "TileScheduler";
+
+	private static final int TILE_THREADS = 2;
+	private static PriorityExecutor sExecutor;
+
+	/**
+	 * Notified on the main thread when a tile is loaded.
+	 */
+	interface Callback {
+		void onTileLoaded(Tile tile);
+	}
+
+	private final TileCache mCache;
+	private final Callback mCallback;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final Map<Tile, TileTask> mTasks = new HashMap<Tile, TileTask>();
+	// tiles the source doesn't have or failed to load
+	private final Set<Tile> mMissing = new HashSet<Tile>();
+	// reused by update, which runs on every scroll
+	private final Set<Tile> mWantedSet = new HashSet<Tile>();
+	private TileSource mSource;
+
+	TileScheduler(TileCache cache, Callback callback) {
+		mCache = cache;
+		mCallback = callback;
+	}
+
+	private static synchronized PriorityExecutor getExecutor() {
+		if(sExecutor == null){
+			sExecutor = new PriorityExecutor("MapView", TILE_THREADS);
+		}
+		return sExecutor;
+	}
+
+	void setSource(TileSource source) {
+		cancelAll();
+		mMissing.clear();
+		mSource = source;
+	}
+
+	/**
+	 * Forgets the tiles that failed, so they're loaded again
+	 * when they're wanted.
+	 */
+	void retryMissing() {
+		mMissing.clear();
+	}
+
+	/**
+	 * Loads the wanted tiles that are not in memory, and
+	 * cancels the queued tiles that are not wanted anymore.
+	 *
+	 * @param wanted the wanted tiles
+	 * @param zoom the zoom of the viewport
+	 * @param centerX the column of the viewport center, fractional
+	 * @param centerY the row of the viewport center, fractional
+	 */
+	void update(List<Tile> wanted, int zoom, double centerX, double centerY) {
+		Set<Tile> wantedSet = mWantedSet;
+		wantedSet.clear();
+		wantedSet.addAll(wanted);
+		PriorityExecutor executor = getExecutor();
+		for (Iterator<TileTask> it = mTasks.values().iterator(); it.hasNext();) {
+			TileTask task = it.next();
+			if(!wantedSet.contains(task.mTile)){
+				task.mCancelled = true;
+				executor.getQueue().remove(task);
+				it.remove();
+			}
+		}
+		if(mSource == null){
+			return;
+		}
+
+		for (Tile tile : wanted) {
+			if(mMissing.contains(tile) || mCache.get(tile) != null){
+				continue;
+			}
+			int priority = getPriority(tile, zoom, centerX, centerY);
+			TileTask task = mTasks.get(tile);
+			if(task == null){
+				task = new TileTask(mSource, tile, priority);
+				mTasks.put(tile, task);
+				executor.execute(task);
+			} else if(task.getPriority() != priority){
+				executor.reprioritize(task, priority);
+			}
+		}
+	}
+
+	/**
+	 * Tiles nearer the center have higher priorities. Distances
+	 * are counted in tiles of their own zoom, so a lower zoom
+	 * tile comes before the tiles it covers at the same place.
+	 */
+	private static int getPriority(Tile tile, int zoom,
+			double centerX, double centerY) {
+		double scale = Math.pow(2, tile.getZoom() - zoom);
+		double dx = tile.getX() + 0.5 - centerX * scale;
+		double dy = tile.getY() + 0.5 - centerY * scale;
+		return -(int) Math.round(Math.sqrt(dx * dx + dy * dy) * 10);
+	}
+
+	/**
+	 * Cancels all the tiles being loaded.
+	 */
+	void cancelAll() {
+		PriorityExecutor executor = getExecutor();
+		for (TileTask task : mTasks.values()) {
+			task.mCancelled = true;
+			executor.getQueue().remove(task);
+		}
+		mTasks.clear();
+	}
+
+	/**
+	 * @return the number of tiles being loaded
+	 */
+	int getPendingCount() {
+		return mTasks.size();
+	}
+
+	private void onTileFinished(final TileTask task, final Bitmap bitmap) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(mTasks.get(task.mTile) == task){
+					mTasks.remove(task.mTile);
+				}
+				if(task.mCancelled){
+					if(bitmap != null){
+						// decoded before it was cancelled
+						mCache.recycle(bitmap);
+					}
+					return;
+				}
+				if(bitmap == null){
+					mMissing.add(task.mTile);
+					return;
+				}
+				mCache.put(task.mTile, bitmap);
+				mCallback.onTileLoaded(task.mTile);
+			}
+		});
+	}
+
+	private final class TileTask extends PriorityExecutor.Task {
+		final TileSource mSource;
+		final Tile mTile;
+		volatile boolean mCancelled;
+
+		TileTask(TileSource source, Tile tile, int priority) {
+			super(priority);
+			mSource = source;
+			mTile = tile;
+		}
+
+		@Override
+		public void run() {
+			if(mCancelled){
+				return;
+			}
+			Bitmap bitmap = null;
+			try {
+				byte[] data = mCache.readFromDisk(mSource, mTile);
+				if(data == null){
+					InputStream in = mSource.openTile(mTile);
+					if(in != null){
+						data = TileCache.readFully(in);
+						mCache.writeToDisk(mSource, mTile, data);
+					}
+				}
+				if(data != null && !mCancelled){
+					bitmap = mCache.decode(data);
+				}
+			} catch (Exception e) {
+				// the tile is missing until retryMissing
+				Log.w(TAG, "Unable to load the tile " + mTile, e);
+			}
+			onTileFinished(this, bitmap);
+		}
+	}
+}
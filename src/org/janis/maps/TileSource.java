@@ -0,0 +1,43 @@
+package org.janis.maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A source of square map tiles, e.g. a tile server or a
+ * directory of tile images. Tiles are opened in background
+ * threads.
+ */
+public interface TileSource {
+
+	/**
+	 * @return a name identifying the tiles of the source,
+	 * tiles are cached on disk by it
+	 */
+	String getName();
+
+	/**
+	 * @return the width and height of the tiles in pixels
+	 */
+	int getTileSize();
+
+	/**
+	 * @return the lowest zoom level
+	 */
+	int getMinZoom();
+
+	/**
+	 * @return the highest zoom level
+	 */
+	int getMaxZoom();
+
+	/**
+	 * Opens the encoded image of the tile.
+	 *
+	 * @param tile the tile
+	 * @return the stream of the image, or null if the
+	 * source has no such tile
+	 * @throws IOException if the tile can't be opened
+	 */
+	InputStream openTile(Tile tile) throws IOException;
+}
@@ -0,0 +1,144 @@
+package org.janis.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non negative values, e.g. latencies
+ * in nanoseconds. Values are counted in buckets growing by
+ * powers of two, each split into SUB_BUCKETS linear buckets, so
+ * a percentile is within 1 / SUB_BUCKETS of the real value while
+ * the histogram takes a fixed few kilobytes. Recording is a few
+ * atomic increments, so it can be done on hot paths by many
+ * threads at once.
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	/**
+	 * Records a value, negative values are recorded as 0.
+	 *
+	 * @param value the value
+	 */
+	public void record(long value) {
+		if(value < 0){
+			value = 0;
+		}
+		mBuckets.incrementAndGet(indexOf(value));
+		mCount.incrementAndGet();
+		mSum.addAndGet(value);
+		long max;
+		while(value > (max = mMax.get())){
+			if(mMax.compareAndSet(max, value)){
+				break;
+			}
+		}
+	}
+
+	private static int indexOf(long value) {
+		if(value < SUB_BUCKETS){
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the lowest value counted in the bucket
+	 */
+	private static long lowestOf(int index) {
+		if(index < SUB_BUCKETS){
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long subBucket = index % SUB_BUCKETS;
+		return (SUB_BUCKETS + subBucket) << shift;
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return mCount.get();
+	}
+
+	/**
+	 * @return the sum of the recorded values
+	 */
+	public long getSum() {
+		return mSum.get();
+	}
+
+	/**
+	 * @return the largest recorded value, or 0
+	 */
+	public long getMax() {
+		return mMax.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values, or 0
+	 */
+	public double getMean() {
+		long count = mCount.get();
+		return count == 0 ? 0 : (double) mSum.get() / count;
+	}
+
+	/**
+	 * Gets the value below which the given percent of the
+	 * recorded values fall, e.g. 50 for the median. Values
+	 * recorded while it's computed may or may not be included.
+	 *
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the lowest value of the bucket of the percentile,
+	 * or 0 if there are no values
+	 */
+	public long getPercentile(double percentile) {
+		if(percentile < 0 || percentile > 100){
+			throw new IllegalArgumentException("percentile out of 0..100");
+		}
+		long count = mCount.get();
+		if(count == 0){
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += mBuckets.get(i);
+			if(seen >= rank){
+				return Math.min(lowestOf(i), mMax.get());
+			}
+		}
+		return mMax.get();
+	}
+
+	/**
+	 * Removes all the recorded values. Values recorded at
+	 * the same time may be partly kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mBuckets.set(i, 0);
+		}
+		mCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + " mean=" + (long) getMean()
+			+ " p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+			+ " p99=" + getPercentile(99) + " max=" + getMax();
+	}
+}
@@ -0,0 +1,53 @@
+package org.janis.views;
+
+import android.database.DataSetObserver;
+import android.widget.Adapter;
+
+/**
+ * Keeps the DataSetObserver of a view registered to its adapter
+ * only while the view is attached to a window, so an adapter that
+ * outlives the view doesn't leak it. The view forwards setAdapter,
+ * onAttachedToWindow and onDetachedFromWindow. On attach, the
+ * observer is notified, since the data may have changed while it
+ * wasn't registered.
+ */
+final class AdapterObservation {
+
+	private final DataSetObserver mObserver;
+	private Adapter mAdapter;
+	private boolean mAttached;
+
+	AdapterObservation(DataSetObserver observer) {
+		mObserver = observer;
+	}
+
+	/**
+	 * Observes the adapter instead of the previous one.
+	 *
+	 * @param adapter the adapter, may be null
+	 */
+	void setAdapter(Adapter adapter) {
+		if(mAttached && mAdapter != null){
+			mAdapter.unregisterDataSetObserver(mObserver);
+		}
+		mAdapter = adapter;
+		if(mAttached && adapter != null){
+			adapter.registerDataSetObserver(mObserver);
+		}
+	}
+
+	void onAttachedToWindow() {
+		mAttached = true;
+		if(mAdapter != null){
+			mAdapter.registerDataSetObserver(mObserver);
+			mObserver.onChanged();
+		}
+	}
+
+	void onDetachedFromWindow() {
+		mAttached = false;
+		if(mAdapter != null){
+			mAdapter.unregisterDataSetObserver(mObserver);
+		}
+	}
+}
@@ -4,16 +4,33 @@
 
 package org.janis.views;
 
+import org.janis.images.FrameSequenceDrawable;
+import org.janis.images.FrameSource;
+import org.janis.images.SpriteSheet;
+import org.janis.images.SpriteSheetDrawable;
+
 import android.content.Context;
-import android.graphics.drawable.AnimationDrawable;
+import android.graphics.drawable.Animatable;
 import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
+import android.view.View;
 import android.widget.ImageView;
 
+/**
+ * An image view running its animatable drawable, e.g. an
+ * animation list or a FrameSequenceDrawable. The animation
+ * only runs while the view is attached and shown.
+ */
 public abstract class AnimatedImageView extends ImageView {
 	
 	final private Object animationLock = new Object();
 
+	// set by the ImageView constructor through setImageDrawable,
+	// so they must not have initializers
+	private boolean mAnimationRequested;
+	private FrameSequenceDrawable mOwnedDrawable;
+	private boolean mAttached;
+
 	/**
 	 * Instantiates a new AnimatedImageView.
 	 *
@@ -46,14 +63,54 @@ public abstract class AnimatedImageView extends ImageView {
 	
 	/**
 	 * Sets a new image drawable, input drawable should 
-	 * be a animation list.
+	 * be an animation list or another animatable drawable.
 	 *
 	 * @param animationDrawable
 	 */
 	@Override
 	public void setImageDrawable(Drawable animationDrawable) {
+		FrameSequenceDrawable owned = mOwnedDrawable;
 		super.setImageDrawable(animationDrawable);
-		startAnimation();
+		recycleOwnedDrawable(owned, animationDrawable);
+		mAnimationRequested = true;
+		updateAnimation();
+	}
+
+	/**
+	 * Recycles the drawable created by setFrameSource once
+	 * it's replaced by another one.
+	 */
+	private void recycleOwnedDrawable(FrameSequenceDrawable owned,
+			Drawable replacement) {
+		if(owned != null && owned != replacement){
+			mOwnedDrawable = null;
+			owned.recycle();
+		}
+	}
+
+	/**
+	 * Plays the frames of the source, decoding them on demand
+	 * into a few reusable buffers instead of keeping every frame
+	 * in memory. The drawable is recycled when it's replaced.
+	 *
+	 * @param source the source of the frames, e.g. a
+	 * MovieFrameSource for animated GIFs
+	 */
+	public void setFrameSource(FrameSource source) {
+		FrameSequenceDrawable drawable = new FrameSequenceDrawable(source);
+		setImageDrawable(drawable);
+		mOwnedDrawable = drawable;
+	}
+
+	/**
+	 * Plays the frames of a sprite sheet. The sheet can be
+	 * shared by many views, they all draw from its one atlas
+	 * bitmap, which is not recycled by the view.
+	 *
+	 * @param sheet the sprite sheet
+	 */
+	public void setSpriteSheet(SpriteSheet sheet) {
+		setImageDrawable(new SpriteSheetDrawable(sheet));
 	}
 	
 	/**
@@ -65,7 +122,10 @@ public abstract class AnimatedImageView extends ImageView {
 	 */
 	@Override
 	public void setImageResource(int resId) {
+		// ImageView doesn't go through setImageDrawable here
+		FrameSequenceDrawable owned = mOwnedDrawable;
 		super.setImageResource(resId);
+		recycleOwnedDrawable(owned, getDrawable());
 		startAnimation();
 	}
 	
@@ -75,10 +135,8 @@ public abstract class AnimatedImageView extends ImageView {
 	 */
 	public void startAnimation(){
 		synchronized (animationLock) {
-			AnimationDrawable animationImage = 
-				(AnimationDrawable) getDrawable();
-			// Starts the animation
-			animationImage.start();
+			mAnimationRequested = true;
+			updateAnimation();
 		}
 		
 	}
@@ -88,11 +146,54 @@ public abstract class AnimatedImageView extends ImageView {
 	 */
 	public void stopAnimation(){
 		synchronized (animationLock) {
-			AnimationDrawable animationImage = 
-				(AnimationDrawable) getDrawable();
-			// Starts the animation
-			animationImage.stop();
+			mAnimationRequested = false;
+			updateAnimation();
+		}
+	}
+
+	/**
+	 * Runs the animation if it's requested and the view is
+	 * attached and shown, stops it otherwise.
+	 */
+	private void updateAnimation(){
+		Drawable drawable = getDrawable();
+		if(!(drawable instanceof Animatable)){
+			return;
+		}
+		Animatable animatable = (Animatable) drawable;
+		// the window token is still set in onDetachedFromWindow
+		boolean run = mAnimationRequested && mAttached && isShown();
+		if(run && !animatable.isRunning()){
+			animatable.start();
+		} else if(!run && animatable.isRunning()){
+			animatable.stop();
 		}
 	}
 
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		mAttached = true;
+		updateAnimation();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		mAttached = false;
+		updateAnimation();
+	}
+
+	@Override
+	protected void onVisibilityChanged(View changedView, int visibility) {
+		super.onVisibilityChanged(changedView, visibility);
+		updateAnimation();
+	}
+
+	@Override
+	protected void onWindowVisibilityChanged(int visibility) {
+		super.onWindowVisibilityChanged(visibility);
+		updateAnimation();
+	}
+
 }
@@ -0,0 +1,232 @@
+package org.janis.views;
+
+import org.janis.cache.MemoryLruCache;
+import org.janis.images.BitmapPool;
+import org.janis.images.BitmapUtils;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Default DrawableCache implementation for LoadingImageView.
+ * It keeps the decoded bitmaps rather than the drawables, so
+ * cached entries don't hold references to views or contexts,
+ * and bounds itself by the pixel bytes of the bitmaps. When
+ * the cache is full, least recently used bitmaps are evicted.
+ * It's safe to be used from the download threads concurrently.
+ * If a bitmap pool is given, bitmaps leaving the cache are
+ * returned to the pool to be reused by the decoder, unless
+ * they are acquired, see getAndAcquire.
+ *
+ * E.g.: loadingImageView.setCache(
+ *     DefaultDrawableCacheImpl.withMemoryFraction(0.125f));
+ */
+public class DefaultDrawableCacheImpl
+		implements LoadingImageView.AcquiringDrawableCache {
+
+	private final MemoryLruCache<String, Bitmap> mCache;
+
+	/**
+	 * Acquires the bitmaps found by getAndAcquire from the pool.
+	 */
+	private static final class Acquirer
+		implements MemoryLruCache.HitHandler<String, Bitmap> {
+		private final BitmapPool mPool;
+
+		Acquirer(BitmapPool pool) {
+			mPool = pool;
+		}
+
+		@Override
+		public void onHit(String url, Bitmap bitmap) {
+			mPool.acquire(bitmap);
+		}
+	}
+
+	/**
+	 * Constructs a new cache bounded by the given
+	 * number of bytes.
+	 *
+	 * @param maxBytes the maximum bytes the bitmaps can occupy
+	 */
+	public DefaultDrawableCacheImpl(long maxBytes) {
+		this(maxBytes, null);
+	}
+
+	/**
+	 * Constructs a new cache bounded by the given number
+	 * of bytes, which returns the bitmaps leaving the cache
+	 * to the given pool.
+	 *
+	 * @param maxBytes the maximum bytes the bitmaps can occupy
+	 * @param pool the pool to return bitmaps, may be null
+	 */
+	public DefaultDrawableCacheImpl(long maxBytes, final BitmapPool pool) {
+		mCache = new MemoryLruCache<String, Bitmap>(maxBytes) {
+			@Override
+			protected int sizeOf(String url, Bitmap bitmap) {
+				return BitmapUtils.getBitmapSize(bitmap);
+			}
+
+			@Override
+			protected void entryRemoved(boolean evicted, String url,
+					Bitmap oldValue) {
+				if(pool != null){
+					pool.put(oldValue);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Constructs a new cache sized as a fraction of the
+	 * maximum heap the VM allows, so the same code scales
+	 * with the memory class of the device.
+	 *
+	 * @param fraction the fraction of the max heap, e.g. 0.125f
+	 * @return a new cache
+	 */
+	public static DefaultDrawableCacheImpl withMemoryFraction(float fraction) {
+		if(fraction <= 0 || fraction >= 1){
+			throw new IllegalArgumentException(
+					"fraction should be between 0 and 1");
+		}
+		long maxBytes = (long) (Runtime.getRuntime().maxMemory() * fraction);
+		return new DefaultDrawableCacheImpl(maxBytes);
+	}
+
+	/**
+	 * Gets a drawable wrapping the cached bitmap. With a pool,
+	 * the bitmap isn't acquired and may be reused once it's
+	 * evicted, so use getAndAcquire to draw it.
+	 */
+	@Override
+	public Drawable get(String url) {
+		Bitmap bitmap = getBitmap(url);
+		if(bitmap == null){
+			return null;
+		}
+		return new BitmapDrawable(bitmap);
+	}
+
+	/**
+	 * Gets a drawable wrapping the cached bitmap, which is
+	 * acquired from the pool before an eviction can put it
+	 * to the pool.
+	 */
+	@Override
+	public Drawable getAndAcquire(String url, BitmapPool pool) {
+		if(pool == null){
+			return get(url);
+		}
+		Bitmap bitmap = mCache.get(url, new Acquirer(pool));
+		if(bitmap == null){
+			return null;
+		}
+		if(bitmap.isRecycled()){
+			pool.release(bitmap);
+			mCache.remove(url);
+			return null;
+		}
+		return new BitmapDrawable(bitmap);
+	}
+
+	/**
+	 * Puts the bitmap of the drawable to the cache. Only
+	 * bitmap drawables are cached, others are ignored since
+	 * their memory usage can't be measured.
+	 */
+	@Override
+	public void put(String url, Drawable imageDrawable) {
+		if(imageDrawable instanceof BitmapDrawable){
+			putBitmap(url, ((BitmapDrawable) imageDrawable).getBitmap());
+		}
+	}
+
+	/**
+	 * Gets the cached bitmap with the given url. With a pool,
+	 * it must not be drawn unless it's acquired, see get.
+	 *
+	 * @param url the url of the image
+	 * @return the bitmap or null if it's not cached
+	 */
+	public Bitmap getBitmap(String url) {
+		Bitmap bitmap = mCache.get(url);
+		if(bitmap != null && bitmap.isRecycled()){
+			// someone recycled a cached bitmap,
+			// it's not drawable anymore
+			mCache.remove(url);
+			return null;
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Puts a bitmap to the cache.
+	 *
+	 * @param url the url of the image
+	 * @param bitmap the bitmap
+	 */
+	public void putBitmap(String url, Bitmap bitmap) {
+		if(url != null && bitmap != null && !bitmap.isRecycled()){
+			mCache.put(url, bitmap);
+		}
+	}
+
+	@Override
+	public void clear() {
+		mCache.clear();
+	}
+
+	/**
+	 * Evicts least recently used bitmaps until the cache
+	 * occupies at most the given fraction of its maximum size.
+	 * Call it on low memory instead of clearing everything.
+	 *
+	 * @param fraction the fraction of the maximum size to keep
+	 */
+	public void trim(float fraction) {
+		mCache.trimToSize((long) (mCache.maxSize() * fraction));
+	}
+
+	/**
+	 * @return the total bytes of the cached bitmaps
+	 */
+	public long getSize() {
+		return mCache.size();
+	}
+
+	/**
+	 * @return the maximum bytes of the cache
+	 */
+	public long getMaxSize() {
+		return mCache.maxSize();
+	}
+
+	/**
+	 * @return the number of cache hits
+	 */
+	public long getHitCount() {
+		return mCache.hitCount();
+	}
+
+	/**
+	 * @return the number of cache misses
+	 */
+	public long getMissCount() {
+		return mCache.missCount();
+	}
+
+	/**
+	 * @return the number of bitmaps evicted to free space
+	 */
+	public long getEvictionCount() {
+		return mCache.evictionCount();
+	}
+
+	@Override
+	public String toString() {
+		return mCache.toString();
+	}
+}
@@ -0,0 +1,1672 @@
+package org.janis.views;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+
+import org.janis.cache.DiskLruCache;
+import org.janis.concurrent.PriorityExecutor;
+import org.janis.images.BitmapPool;
+import org.janis.images.BitmapUtils;
+import org.janis.images.HttpFetcher;
+import org.janis.images.Transformation;
+import org.janis.images.Transformations;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * ImageLoader is the shared loader behind LoadingImageView.
+ * It keeps track of the urls being loaded, so if the same
+ * url is requested while it's already in flight, the new
+ * request is attached to the existing download instead of
+ * starting another one. Once the image is loaded, all the
+ * waiting requests receive the result. Variants of an url
+ * decoded for different sizes or transformations share the
+ * download too, only the decodes are done per variant.
+ *
+ * Images are loaded by two bounded thread pools: decode
+ * threads look up the disk cache and decode the images,
+ * network threads download the images that aren't cached.
+ * Queued work runs in priority order, and the most recently
+ * requested images load first among the same priority, so
+ * the views that have just become visible don't wait behind
+ * the ones that are already scrolled away.
+ *
+ * Images are decoded subsampled to the size they are
+ * requested for, and cached with the url and the size bucket
+ * of the request, so views of different sizes get variants
+ * close to their own size.
+ *
+ * Images can be transformed, e.g. resized or rounded, in the
+ * worker threads before they are delivered. Transformed images
+ * are cached in memory and on disk with the keys of their
+ * transformations, so they are not transformed again.
+ *
+ * Decoding and delivery can be paused while a list is
+ * flinging, only for the views of the list, see pause(View)
+ * and resume(View, boolean).
+ *
+ * Images on disk are revalidated with conditional requests
+ * once they expire, see HttpFetcher.
+ *
+ * Cancelling a request only detaches it from the download,
+ * the download itself is dropped from the queue, or aborted
+ * in the middle of the transfer, when no requests are waiting
+ * for it anymore (e.g. the view is rebound to another url).
+ *
+ * The stages of the loading can be observed with an
+ * EventListener, e.g. an ImageLoaderMetrics counting cache hits
+ * and timing downloads and decodes, see addEventListener.
+ */
+public class ImageLoader {
+
+	private static final String TAG = "ImageLoader";
+
+	/** Default number of the network threads. */
+	public static final int DEFAULT_NETWORK_THREADS = 3;
+
+	/** Default number of the decode threads. */
+	public static final int DEFAULT_DECODE_THREADS = 2;
+
+	/** Priority for images that are not visible yet, e.g. prefetches. */
+	public static final int PRIORITY_LOW = -1;
+
+	/** Default priority. */
+	public static final int PRIORITY_NORMAL = PriorityExecutor.PRIORITY_NORMAL;
+
+	/** Priority for images that should be loaded before the others. */
+	public static final int PRIORITY_HIGH = 1;
+
+	/** Stage looking up the caches, run by the decode threads. */
+	public static final int STAGE_CACHE = 0;
+
+	/** Stage downloading the images, run by the network threads. */
+	public static final int STAGE_NETWORK = 1;
+
+	/** Stage decoding the images, run by the decode threads. */
+	public static final int STAGE_DECODE = 2;
+
+	/** Suffix of the disk cache entries keeping the cache info of images. */
+	private static final String CACHE_INFO_SUFFIX = ".info";
+
+	/** Quality of the transformed images without alpha stored on disk. */
+	private static final int TRANSFORMED_QUALITY = 90;
+
+	private static ImageLoader sInstance;
+
+	private final HashMap<String, Job> mJobs = new HashMap<String, Job>();
+	private final HashMap<String, Fetch> mFetches = new HashMap<String, Fetch>();
+	private final PriorityExecutor mNetworkExecutor;
+	private final PriorityExecutor mDecodeExecutor;
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+	private volatile HttpFetcher mFetcher = new HttpFetcher();
+	private final Object mPauseLock = new Object();
+	private int mPauseCount;
+	private final List<Parked> mParked = new ArrayList<Parked>();
+	private final List<View> mPausedContainers = new ArrayList<View>();
+	private final List<EventListener> mListeners =
+		new CopyOnWriteArrayList<EventListener>();
+
+	/**
+	 * Constructs a new loader with the given pool sizes.
+	 *
+	 * @param networkThreads number of the threads downloading images
+	 * @param decodeThreads number of the threads decoding images
+	 */
+	public ImageLoader(int networkThreads, int decodeThreads) {
+		mNetworkExecutor = new PriorityExecutor(networkThreads,
+				new BackgroundThreadFactory("janis-network"));
+		mDecodeExecutor = new PriorityExecutor(decodeThreads,
+				new BackgroundThreadFactory("janis-decode"));
+	}
+
+	/**
+	 * Gets the shared loader instance. If no instance is
+	 * set, creates one with the default pool sizes.
+	 *
+	 * @return the loader
+	 */
+	public static synchronized ImageLoader getInstance() {
+		if(sInstance == null){
+			sInstance = new ImageLoader(
+					DEFAULT_NETWORK_THREADS, DEFAULT_DECODE_THREADS);
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Sets the shared loader instance used by LoadingImageViews,
+	 * should be called before any image is loaded.
+	 *
+	 * @param loader the loader
+	 */
+	public static synchronized void setInstance(ImageLoader loader) {
+		sInstance = loader;
+	}
+
+	/**
+	 * Sets the fetcher downloading the images, e.g. to
+	 * configure timeouts.
+	 *
+	 * @param fetcher the fetcher
+	 */
+	public void setHttpFetcher(HttpFetcher fetcher) {
+		mFetcher = fetcher;
+	}
+
+	/**
+	 * @return the fetcher downloading the images
+	 */
+	public HttpFetcher getHttpFetcher() {
+		return mFetcher;
+	}
+
+	/**
+	 * Adds a listener notified of the stages of the loading.
+	 *
+	 * @param listener the listener
+	 */
+	public void addEventListener(EventListener listener) {
+		mListeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added by addEventListener.
+	 *
+	 * @param listener the listener
+	 */
+	public void removeEventListener(EventListener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Sets the order of the images with the same priority. By
+	 * default it's last in first out, set false to load images
+	 * in the order they are requested.
+	 *
+	 * @param lifo true for last in, first out
+	 */
+	public void setLifo(boolean lifo) {
+		mNetworkExecutor.setLifo(lifo);
+		mDecodeExecutor.setLifo(lifo);
+	}
+
+	/**
+	 * Loads the image in full size with the default priority.
+	 *
+	 * @see #load(String, int, int, Callback, int, Object, Transformation...)
+	 */
+	public Request load(String url, Callback callback) {
+		return load(url, 0, 0, callback, PRIORITY_NORMAL, null);
+	}
+
+	/**
+	 * Loads the image for the given size without a tag.
+	 *
+	 * @see #load(String, int, int, Callback, int, Object, Transformation...)
+	 */
+	public Request load(String url, int width, int height,
+			Callback callback, int priority) {
+		return load(url, width, height, callback, priority, null);
+	}
+
+	/**
+	 * Loads the image with the given url. Callback methods
+	 * are called in the main thread. If the image is in the
+	 * memory cache, the callback is notified before this
+	 * method returns. If the url is already being loaded
+	 * for the same size bucket, the request waits for the
+	 * same download.
+	 *
+	 * @param url the url of the image
+	 * @param width the width the image is displayed at,
+	 * 0 if not constrained
+	 * @param height the height the image is displayed at,
+	 * 0 if not constrained
+	 * @param callback the callback to notify
+	 * @param priority the priority, higher loads first
+	 * @param tag the view the image is loaded for, may be null.
+	 * If it's a View, the request is dropped on resume when
+	 * the view isn't shown anymore.
+	 * @param transformations the transformations applied to the
+	 * decoded image in order, before it's cached
+	 * @return a request that can be cancelled
+	 */
+	public Request load(String url, int width, int height,
+			Callback callback, int priority, Object tag,
+			Transformation... transformations) {
+
+		final int bucketWidth = getSizeBucket(width);
+		final int bucketHeight = getSizeBucket(height);
+		final String key = url == null ? null
+				: getCacheKey(url, bucketWidth, bucketHeight, transformations);
+		Request request = new Request(url, callback, priority, tag);
+		Drawable cached = key == null ? null
+				: LoadingImageView.acquireFromCache(key);
+		if(key != null && !mListeners.isEmpty()){
+			for (EventListener listener : mListeners) {
+				if(cached != null){
+					listener.onMemoryCacheHit(url);
+				} else {
+					listener.onMemoryCacheMiss(url);
+				}
+			}
+		}
+		if(cached != null){
+			callback.onLoaded(url, cached);
+			release(cached);
+			return request;
+		}
+
+		synchronized (mJobs) {
+			Job job = mJobs.get(key);
+			if(job == null){
+				job = new Job(url, key, bucketWidth, bucketHeight, priority,
+						transformations);
+				job.requests.add(request);
+				request.job = job;
+				mJobs.put(key, job);
+				job.submit(mDecodeExecutor, new CacheTask(job));
+			} else {
+				// the view has just been bound, load
+				// the shared job before the older ones
+				job.requests.add(request);
+				request.job = job;
+				job.priority = Math.max(job.priority, priority);
+				job.reprioritize();
+				reprioritizeFetch(job);
+			}
+			updatePausedBy(request);
+		}
+		if(tag instanceof View && ((View) tag).getParent() == null
+				&& hasPausedContainers()){
+			// rows are bound before they are added to the list,
+			// checked again once the list is laid out
+			final Request pending = request;
+			mMainHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (mJobs) {
+						if(pending.job != null){
+							updatePausedBy(pending);
+						}
+					}
+				}
+			});
+		}
+		return request;
+	}
+
+	/**
+	 * Returns the memory cache key of an image decoded
+	 * for the given size.
+	 *
+	 * @param url the url of the image
+	 * @param width the requested width, 0 if not constrained
+	 * @param height the requested height, 0 if not constrained
+	 * @return the cache key
+	 */
+	public static String getCacheKey(String url, int width, int height) {
+		width = getSizeBucket(width);
+		height = getSizeBucket(height);
+		if(width == 0 && height == 0){
+			return url;
+		}
+		return url + "#" + width + "x" + height;
+	}
+
+	/**
+	 * Returns the memory cache key of an image decoded
+	 * for the given size and transformed.
+	 *
+	 * @param url the url of the image
+	 * @param width the requested width, 0 if not constrained
+	 * @param height the requested height, 0 if not constrained
+	 * @param transformations the transformations of the image
+	 * @return the cache key
+	 */
+	public static String getCacheKey(String url, int width, int height,
+			Transformation... transformations) {
+		return getCacheKey(url, width, height)
+			+ Transformations.getKey(transformations);
+	}
+
+	/**
+	 * Rounds the size up to the next power of two, so
+	 * close sizes share the same decoded variant. Since
+	 * images are subsampled by powers of two, a variant
+	 * decoded for the bucket is never smaller than needed.
+	 */
+	private static int getSizeBucket(int size) {
+		if(size <= 0){
+			return 0;
+		}
+		int bucket = 1;
+		while(bucket < size){
+			bucket <<= 1;
+		}
+		return bucket;
+	}
+
+	/**
+	 * Returns the number of urls being loaded.
+	 *
+	 * @return the number of in-flight downloads
+	 */
+	public int getInFlightCount() {
+		synchronized (mJobs) {
+			return mJobs.size();
+		}
+	}
+
+	/**
+	 * @return the number of queued downloads
+	 */
+	public int getNetworkQueueSize() {
+		return mNetworkExecutor.getQueueSize();
+	}
+
+	/**
+	 * @return the number of queued decodes
+	 */
+	public int getDecodeQueueSize() {
+		return mDecodeExecutor.getQueueSize();
+	}
+
+	/**
+	 * Stops the threads of the loader, queued requests
+	 * are dropped.
+	 */
+	public void shutdown() {
+		mNetworkExecutor.shutdownNow();
+		mDecodeExecutor.shutdownNow();
+	}
+
+	private void cancel(Request request) {
+		synchronized (mJobs) {
+			Job job = request.job;
+			if(job == null){
+				return;
+			}
+			request.job = null;
+			job.requests.remove(request);
+			if(job.requests.isEmpty()){
+				// nobody is waiting for the image anymore
+				job.cancel();
+				detachFromFetch(job);
+				if(mJobs.get(job.key) == job){
+					mJobs.remove(job.key);
+				}
+				for (EventListener listener : mListeners) {
+					listener.onCancelled(job.url);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Detaches the job from the in-flight map and returns
+	 * the requests waiting for it.
+	 */
+	private List<Request> finish(Job job) {
+		synchronized (mJobs) {
+			if(mJobs.get(job.key) == job){
+				mJobs.remove(job.key);
+			}
+			List<Request> requests = new ArrayList<Request>(job.requests);
+			for (Request request : requests) {
+				request.job = null;
+			}
+			job.requests.clear();
+			return requests;
+		}
+	}
+
+	/**
+	 * Posts the result of the job to the main thread
+	 * and notifies the waiting requests. Failures are reported
+	 * to the event listeners too. The bitmap of the
+	 * result should be acquired from the pool, so it's not
+	 * reused before the views acquire it; it's released
+	 * once the requests are notified.
+	 */
+	private void deliver(final Job job, final Drawable result,
+			final Exception e) {
+
+		if(e != null){
+			for (EventListener listener : mListeners) {
+				listener.onFailed(job.url, e);
+			}
+		}
+		Runnable delivery = new Runnable() {
+			@Override
+			public void run() {
+				// rows bound while their list was paused may
+				// have been added to the list since
+				markPausedRequests(job);
+				if(parkIfPaused(job, null, this)){
+					return;
+				}
+				List<Request> requests = finish(job);
+				for (int i = 0; i < requests.size(); i++) {
+					Callback callback = requests.get(i).mCallback;
+					if(e != null){
+						callback.onFailed(job.url, e);
+					} else {
+						// a drawable can't be shared between
+						// views, others get their own copy
+						callback.onLoaded(job.url,
+								i == 0 ? result : copyOf(result));
+					}
+				}
+				release(result);
+			}
+		};
+		if(!parkIfPaused(job, null, delivery)){
+			mMainHandler.post(delivery);
+		}
+	}
+
+	/**
+	 * Queues the decode of the job, or parks it if the
+	 * job is paused.
+	 */
+	private void submitDecode(Job job, DecodeTask task) {
+		if(!parkIfPaused(job, task, null)){
+			job.submit(mDecodeExecutor, task);
+		}
+	}
+
+	/**
+	 * Parks the decode or the delivery of the job if the
+	 * job is paused, see isPausedLocked.
+	 *
+	 * @return true if it's parked
+	 */
+	private boolean parkIfPaused(Job job, DecodeTask task, Runnable delivery) {
+		synchronized (mJobs) {
+			synchronized (mPauseLock) {
+				if(!isPausedLocked(job)){
+					return false;
+				}
+				mParked.add(new Parked(job, task, delivery));
+				return true;
+			}
+		}
+	}
+
+	private boolean isPaused(Job job) {
+		synchronized (mJobs) {
+			synchronized (mPauseLock) {
+				return isPausedLocked(job);
+			}
+		}
+	}
+
+	/**
+	 * A job is paused if the loader is paused, or all of its
+	 * requests are paused by their containers. Holding mJobs
+	 * and mPauseLock.
+	 */
+	private boolean isPausedLocked(Job job) {
+		if(mPauseCount > 0){
+			return true;
+		}
+		if(mPausedContainers.isEmpty() || job.requests.isEmpty()){
+			return false;
+		}
+		for (Request request : job.requests) {
+			if(request.pausedBy == null){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Pauses decoding the images and delivering them to the
+	 * views, e.g. while a list is flinging, so the main thread
+	 * isn't interrupted. Downloads and memory cache hits go on.
+	 * Calls should be balanced with resume, the loader is
+	 * resumed when all the pauses are resumed.
+	 *
+	 * @see #pause(View)
+	 */
+	public void pause() {
+		synchronized (mPauseLock) {
+			mPauseCount++;
+		}
+	}
+
+	/**
+	 * Pauses decoding and delivering the images requested for
+	 * the views inside the container, e.g. the rows of a flinging
+	 * list, while the images of other views go on. Requests are
+	 * matched by their View tags, and an image also requested
+	 * for a view outside the paused containers isn't paused.
+	 * Should be called in the main thread, and balanced with
+	 * resume(View, boolean).
+	 *
+	 * @param container the view whose descendants are paused
+	 */
+	public void pause(View container) {
+		synchronized (mJobs) {
+			synchronized (mPauseLock) {
+				if(mPausedContainers.contains(container)){
+					return;
+				}
+				mPausedContainers.add(container);
+			}
+			for (Job job : mJobs.values()) {
+				for (Request request : job.requests) {
+					updatePausedBy(request);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resumes the parked decodes and deliveries.
+	 *
+	 * @see #resume(boolean)
+	 */
+	public void resume() {
+		resume(false);
+	}
+
+	/**
+	 * Resumes the loader paused by pause. Should be called
+	 * in the main thread.
+	 *
+	 * @param dropInvisible if true, parked requests tagged with
+	 * views that are not shown anymore (e.g. the views of the
+	 * rows that are scrolled away) are cancelled
+	 */
+	public void resume(boolean dropInvisible) {
+		synchronized (mPauseLock) {
+			if(mPauseCount == 0 || --mPauseCount > 0){
+				return;
+			}
+		}
+		resumeParked(dropInvisible);
+	}
+
+	/**
+	 * Resumes the views inside a container paused by
+	 * pause(View). Should be called in the main thread.
+	 *
+	 * @param container the paused container
+	 * @param dropInvisible if true, parked requests of the
+	 * container tagged with views that are not shown anymore
+	 * are cancelled
+	 */
+	public void resume(View container, boolean dropInvisible) {
+		synchronized (mJobs) {
+			synchronized (mPauseLock) {
+				if(!mPausedContainers.remove(container)){
+					return;
+				}
+			}
+			for (Job job : mJobs.values()) {
+				for (Request request : job.requests) {
+					if(request.pausedBy == container){
+						// may be inside another paused container
+						request.pausedBy = null;
+						updatePausedBy(request);
+					}
+				}
+			}
+		}
+		resumeParked(dropInvisible);
+	}
+
+	/**
+	 * Resumes the parked decodes and deliveries whose
+	 * jobs are not paused anymore.
+	 */
+	private void resumeParked(boolean dropInvisible) {
+		List<Parked> resumed = new ArrayList<Parked>();
+		synchronized (mJobs) {
+			synchronized (mPauseLock) {
+				for (Iterator<Parked> i = mParked.iterator(); i.hasNext(); ) {
+					Parked item = i.next();
+					if(!isPausedLocked(item.job)){
+						resumed.add(item);
+						i.remove();
+					}
+				}
+			}
+		}
+
+		if(dropInvisible){
+			for (Parked item : resumed) {
+				dropInvisibleRequests(item.job);
+			}
+		}
+		for (Parked item : resumed) {
+			if(item.delivery != null){
+				// delivers to the remaining requests and
+				// releases the bitmap of the result
+				mMainHandler.post(item.delivery);
+			} else {
+				// dropped if all requests are cancelled
+				item.job.submit(mDecodeExecutor, item.task);
+			}
+		}
+	}
+
+	private boolean hasPausedContainers() {
+		synchronized (mPauseLock) {
+			return !mPausedContainers.isEmpty();
+		}
+	}
+
+	/**
+	 * @return true if the loader is paused by pause()
+	 */
+	public boolean isPaused() {
+		synchronized (mPauseLock) {
+			return mPauseCount > 0;
+		}
+	}
+
+	/**
+	 * Marks the request paused if its view is inside a paused
+	 * container. Called in the main thread holding mJobs.
+	 */
+	private void updatePausedBy(Request request) {
+		if(request.pausedBy != null || !(request.mTag instanceof View)){
+			return;
+		}
+		synchronized (mPauseLock) {
+			for (View container : mPausedContainers) {
+				if(isInside((View) request.mTag, container)){
+					request.pausedBy = container;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks the requests of the job whose views are inside
+	 * a paused container. Called in the main thread.
+	 */
+	private void markPausedRequests(Job job) {
+		synchronized (mJobs) {
+			for (Request request : job.requests) {
+				updatePausedBy(request);
+			}
+		}
+	}
+
+	private static boolean isInside(View view, View container) {
+		Object parent = view;
+		while(parent instanceof View){
+			if(parent == container){
+				return true;
+			}
+			parent = ((View) parent).getParent();
+		}
+		return false;
+	}
+
+	private void dropInvisibleRequests(Job job) {
+		List<Request> requests;
+		synchronized (mJobs) {
+			requests = new ArrayList<Request>(job.requests);
+		}
+		for (Request request : requests) {
+			if(request.mTag instanceof View
+					&& !((View) request.mTag).isShown()){
+				cancel(request);
+			}
+		}
+	}
+
+	private static void acquire(Drawable drawable) {
+		BitmapPool pool = LoadingImageView.getBitmapPool();
+		if(pool != null && drawable instanceof BitmapDrawable){
+			pool.acquire(((BitmapDrawable) drawable).getBitmap());
+		}
+	}
+
+	private static void release(Drawable drawable) {
+		BitmapPool pool = LoadingImageView.getBitmapPool();
+		if(pool != null && drawable instanceof BitmapDrawable){
+			pool.release(((BitmapDrawable) drawable).getBitmap());
+		}
+	}
+
+	private static Drawable copyOf(Drawable drawable) {
+		if(drawable == null){
+			return null;
+		}
+		Drawable.ConstantState state = drawable.getConstantState();
+		return state == null ? drawable : state.newDrawable();
+	}
+
+	/**
+	 * Callback interface to be notified once
+	 * an image is loaded or failed.
+	 */
+	public interface Callback {
+
+		/**
+		 * Called in the main thread once the image is loaded.
+		 *
+		 * @param url the url of the image
+		 * @param drawable the loaded drawable, each request
+		 * receives its own drawable instance
+		 */
+		void onLoaded(String url, Drawable drawable);
+
+		/**
+		 * Called in the main thread if loading is failed.
+		 *
+		 * @param url the url of the image
+		 * @param e the thrown exception
+		 */
+		void onFailed(String url, Exception e);
+	}
+
+	/**
+	 * Listener notified of the stages of the loading, e.g. to
+	 * collect metrics. Methods are called in the threads doing
+	 * the work, including the main thread, so they should be
+	 * thread safe and return quickly. Durations are in
+	 * nanoseconds.
+	 */
+	public interface EventListener {
+
+		/**
+		 * Called when a requested image is in the memory cache.
+		 *
+		 * @param url the url of the image
+		 */
+		void onMemoryCacheHit(String url);
+
+		/**
+		 * Called when a requested image is not in the memory cache.
+		 *
+		 * @param url the url of the image
+		 */
+		void onMemoryCacheMiss(String url);
+
+		/**
+		 * Called when the image is fresh in the disk cache.
+		 *
+		 * @param url the url of the image
+		 */
+		void onDiskCacheHit(String url);
+
+		/**
+		 * Called when the image is not in the disk cache, or
+		 * it's expired and revalidated.
+		 *
+		 * @param url the url of the image
+		 */
+		void onDiskCacheMiss(String url);
+
+		/**
+		 * Called when a queued task starts running.
+		 *
+		 * @param stage the stage of the task, one of the STAGE constants
+		 * @param queueWait the time the task waited in the queue
+		 * @param queueSize the number of tasks still queued for the stage
+		 */
+		void onTaskStarted(int stage, long queueWait, int queueSize);
+
+		/**
+		 * Called when an image is downloaded.
+		 *
+		 * @param url the url of the image
+		 * @param bytes the number of bytes downloaded
+		 * @param timeToFirstByte the time until the response headers
+		 * @param duration the time of the whole download
+		 * @param notModified true if the cached copy was revalidated
+		 */
+		void onFetched(String url, long bytes, long timeToFirstByte,
+				long duration, boolean notModified);
+
+		/**
+		 * Called when an image is decoded and transformed.
+		 *
+		 * @param url the url of the image
+		 * @param duration the time of the decode
+		 */
+		void onDecoded(String url, long duration);
+
+		/**
+		 * Called when nobody waits for an image anymore, so its
+		 * loading is dropped.
+		 *
+		 * @param url the url of the image
+		 */
+		void onCancelled(String url);
+
+		/**
+		 * Called when an image can't be loaded.
+		 *
+		 * @param url the url of the image
+		 * @param e the cause
+		 */
+		void onFailed(String url, Exception e);
+
+		/**
+		 * Called when decoding runs out of memory. The memory
+		 * cache is trimmed, the bitmap pool is cleared, and the
+		 * image is loaded once more. Also called with retried
+		 * false when caching a decoded image runs out of memory,
+		 * the image is delivered but not cached then.
+		 *
+		 * @param url the url of the image
+		 * @param retried true if the image is loaded again, false
+		 * if it already ran out of memory once and failed
+		 */
+		void onOutOfMemory(String url, boolean retried);
+	}
+
+	/**
+	 * An EventListener ignoring all the events, to extend for
+	 * the events of interest.
+	 */
+	public static class SimpleEventListener implements EventListener {
+		@Override
+		public void onMemoryCacheHit(String url) {
+		}
+
+		@Override
+		public void onMemoryCacheMiss(String url) {
+		}
+
+		@Override
+		public void onDiskCacheHit(String url) {
+		}
+
+		@Override
+		public void onDiskCacheMiss(String url) {
+		}
+
+		@Override
+		public void onTaskStarted(int stage, long queueWait, int queueSize) {
+		}
+
+		@Override
+		public void onFetched(String url, long bytes, long timeToFirstByte,
+				long duration, boolean notModified) {
+		}
+
+		@Override
+		public void onDecoded(String url, long duration) {
+		}
+
+		@Override
+		public void onCancelled(String url) {
+		}
+
+		@Override
+		public void onFailed(String url, Exception e) {
+		}
+
+		@Override
+		public void onOutOfMemory(String url, boolean retried) {
+		}
+	}
+
+	/**
+	 * A pending request for an image.
+	 */
+	public final class Request {
+		private final String mUrl;
+		private final Callback mCallback;
+		private final int mPriority;
+		private final Object mTag;
+		private Job job;
+		// the paused container of the view, guarded by mJobs
+		private View pausedBy;
+
+		private Request(String url, Callback callback, int priority,
+				Object tag) {
+			mUrl = url;
+			mCallback = callback;
+			mPriority = priority;
+			mTag = tag;
+		}
+
+		/**
+		 * @return the url of the requested image
+		 */
+		public String getUrl() {
+			return mUrl;
+		}
+
+		/**
+		 * @return the priority of the request
+		 */
+		public int getPriority() {
+			return mPriority;
+		}
+
+		/**
+		 * @return the tag of the request, may be null
+		 */
+		public Object getTag() {
+			return mTag;
+		}
+
+		/**
+		 * Cancels the request, the callback won't be notified.
+		 * The download continues if other requests are
+		 * waiting for the same url.
+		 */
+		public void cancel() {
+			ImageLoader.this.cancel(this);
+		}
+	}
+
+	/**
+	 * Loading state of an image variant shared by the
+	 * requests waiting for it. Guarded by mJobs.
+	 */
+	private static final class Job {
+		final String url;
+		final String key;
+		final int width;
+		final int height;
+		final Transformation[] transformations;
+		final List<Request> requests = new ArrayList<Request>(1);
+		int priority;
+		volatile boolean cancelled;
+		// the version of the image on disk, see getVersion
+		volatile String version;
+		volatile boolean retriedAfterOutOfMemory;
+		// the download the job waits for, guarded by mFetches
+		Fetch fetch;
+		private PriorityExecutor executor;
+		private PriorityExecutor.Task task;
+
+		Job(String url, String key, int width, int height, int priority,
+				Transformation[] transformations) {
+			this.url = url;
+			this.key = key;
+			this.width = width;
+			this.height = height;
+			this.priority = priority;
+			this.transformations = transformations;
+		}
+
+		boolean isTransformed() {
+			return transformations != null && transformations.length > 0;
+		}
+
+		/**
+		 * The disk cache key of the transformed image. It
+		 * includes the version of the original, so a changed
+		 * image isn't served from a stale transformed copy.
+		 */
+		String getTransformedDiskKey() {
+			return DiskLruCache.keyFor(key + "@" + version);
+		}
+
+		synchronized void submit(PriorityExecutor executor,
+				PriorityExecutor.Task task) {
+
+			if(cancelled){
+				return;
+			}
+			this.executor = executor;
+			this.task = task;
+			executor.execute(task);
+		}
+
+		synchronized void reprioritize() {
+			if(task != null){
+				executor.reprioritize(task, priority);
+			}
+		}
+
+		synchronized void cancel() {
+			cancelled = true;
+			if(task != null){
+				// drops the task if it's still queued
+				executor.remove(task);
+			}
+		}
+	}
+
+	/**
+	 * Download of an url shared by the jobs of its variants.
+	 * Guarded by mFetches.
+	 */
+	private static final class Fetch implements HttpFetcher.Cancellable {
+		final String url;
+		final List<Job> jobs = new ArrayList<Job>(1);
+		// the expired copy on disk, revalidated by the download
+		final DiskLruCache.Snapshot staleSnapshot;
+		final HttpFetcher.CacheInfo staleCacheInfo;
+		NetworkTask task;
+		volatile boolean cancelled;
+
+		Fetch(String url, DiskLruCache.Snapshot staleSnapshot,
+				HttpFetcher.CacheInfo staleCacheInfo) {
+			this.url = url;
+			this.staleSnapshot = staleSnapshot;
+			this.staleCacheInfo = staleCacheInfo;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	/**
+	 * A decode or a delivery parked while the loader is paused.
+	 */
+	private static final class Parked {
+		final Job job;
+		final DecodeTask task;
+		final Runnable delivery;
+
+		Parked(Job job, DecodeTask task, Runnable delivery) {
+			this.job = job;
+			this.task = task;
+			this.delivery = delivery;
+		}
+	}
+
+	/**
+	 * A task of a stage, reporting the time it waited
+	 * in the queue when it starts.
+	 */
+	private abstract class StageTask extends PriorityExecutor.Task {
+		private final int mStage;
+		private final long mQueuedAt = System.nanoTime();
+
+		StageTask(int stage, int priority) {
+			super(priority);
+			mStage = stage;
+		}
+
+		@Override
+		public final void run() {
+			if(!mListeners.isEmpty()){
+				long wait = System.nanoTime() - mQueuedAt;
+				int queueSize = (mStage == STAGE_NETWORK
+						? mNetworkExecutor : mDecodeExecutor).getQueueSize();
+				for (EventListener listener : mListeners) {
+					listener.onTaskStarted(mStage, wait, queueSize);
+				}
+			}
+			runStage();
+		}
+
+		abstract void runStage();
+	}
+
+	/**
+	 * Looks up the memory and disk caches, decodes the
+	 * image if it's on disk and fresh, otherwise queues
+	 * a download or a revalidation.
+	 */
+	private class CacheTask extends StageTask {
+		private final Job mJob;
+
+		CacheTask(Job job) {
+			super(STAGE_CACHE, job.priority);
+			mJob = job;
+		}
+
+		@Override
+		void runStage() {
+			if(mJob.cancelled){
+				return;
+			}
+			try {
+				if(mJob.url == null){
+					deliver(mJob, null, null);
+					return;
+				}
+				// another job may have loaded it meanwhile
+				Drawable image = LoadingImageView.acquireFromCache(mJob.key);
+				if(image == null){
+					DiskLruCache diskCache = getDiskCache();
+					DiskLruCache.Snapshot snapshot = null;
+					HttpFetcher.CacheInfo cacheInfo = null;
+					if(diskCache != null){
+						String diskKey = DiskLruCache.keyFor(mJob.url);
+						snapshot = diskCache.get(diskKey);
+						if(snapshot != null){
+							cacheInfo = getCacheInfo(diskCache, diskKey);
+						}
+					}
+					// the info is a separate entry that may be evicted
+					// before the image, then the image can't be
+					// revalidated and is downloaded again
+					boolean miss = snapshot == null || cacheInfo == null
+						|| !cacheInfo.isFresh();
+					if(diskCache != null){
+						for (EventListener listener : mListeners) {
+							if(miss){
+								listener.onDiskCacheMiss(mJob.url);
+							} else {
+								listener.onDiskCacheHit(mJob.url);
+							}
+						}
+					}
+					if(miss){
+						queueFetch(mJob, snapshot, cacheInfo);
+						return;
+					}
+					mJob.version = getVersion(cacheInfo);
+					boolean transformed = false;
+					if(mJob.isTransformed()){
+						// the transformed copy is served as is
+						DiskLruCache.Snapshot transformedSnapshot =
+							diskCache.get(mJob.getTransformedDiskKey());
+						if(transformedSnapshot != null){
+							snapshot = transformedSnapshot;
+							transformed = true;
+						}
+					}
+					if(isPaused(mJob)){
+						submitDecode(mJob, new DecodeTask(mJob,
+								snapshot.getInputStream(), transformed));
+						return;
+					}
+					image = decode(snapshot.getInputStream(), mJob, transformed);
+					acquire(image);
+					LoadingImageView.putToCache(mJob.key, image);
+				}
+				deliver(mJob, image, null);
+			} catch (OutOfMemoryError e) {
+				recoverFromOutOfMemory(mJob);
+			} catch (Exception e) {
+				deliver(mJob, null, e);
+			}
+		}
+	}
+
+	/**
+	 * Attaches the job to the download of its url, or queues
+	 * a new download if the url isn't being downloaded.
+	 */
+	private void queueFetch(Job job, DiskLruCache.Snapshot staleSnapshot,
+			HttpFetcher.CacheInfo staleCacheInfo) {
+		synchronized (mFetches) {
+			if(job.cancelled){
+				return;
+			}
+			Fetch fetch = mFetches.get(job.url);
+			if(fetch == null){
+				fetch = new Fetch(job.url, staleSnapshot, staleCacheInfo);
+				fetch.task = new NetworkTask(fetch, job.priority);
+				mFetches.put(job.url, fetch);
+				fetch.jobs.add(job);
+				job.fetch = fetch;
+				mNetworkExecutor.execute(fetch.task);
+			} else {
+				fetch.jobs.add(job);
+				job.fetch = fetch;
+				if(job.priority > fetch.task.getPriority()){
+					mNetworkExecutor.reprioritize(fetch.task, job.priority);
+				}
+			}
+		}
+	}
+
+	private void reprioritizeFetch(Job job) {
+		synchronized (mFetches) {
+			Fetch fetch = job.fetch;
+			if(fetch != null && job.priority > fetch.task.getPriority()){
+				mNetworkExecutor.reprioritize(fetch.task, job.priority);
+			}
+		}
+	}
+
+	/**
+	 * Detaches a cancelled job from its download. The download
+	 * is dropped when no jobs are waiting for it anymore.
+	 */
+	private void detachFromFetch(Job job) {
+		synchronized (mFetches) {
+			Fetch fetch = job.fetch;
+			if(fetch == null){
+				return;
+			}
+			job.fetch = null;
+			fetch.jobs.remove(job);
+			if(fetch.jobs.isEmpty()){
+				fetch.cancelled = true;
+				mNetworkExecutor.remove(fetch.task);
+				if(mFetches.get(fetch.url) == fetch){
+					mFetches.remove(fetch.url);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Detaches the download from the in-flight map and
+	 * returns the jobs waiting for it.
+	 */
+	private List<Job> finishFetch(Fetch fetch) {
+		synchronized (mFetches) {
+			if(mFetches.get(fetch.url) == fetch){
+				mFetches.remove(fetch.url);
+			}
+			List<Job> jobs = new ArrayList<Job>(fetch.jobs);
+			for (Job job : jobs) {
+				job.fetch = null;
+			}
+			fetch.jobs.clear();
+			return jobs;
+		}
+	}
+
+	/**
+	 * Downloads the image into the disk cache, or into
+	 * memory if there is no disk cache, and queues the decodes
+	 * of the jobs waiting for it. If there is a stale copy on
+	 * disk, it's revalidated and reused if the server responds
+	 * not modified, or if the server can't be reached.
+	 */
+	private class NetworkTask extends StageTask {
+		private final Fetch mFetch;
+
+		NetworkTask(Fetch fetch, int priority) {
+			super(STAGE_NETWORK, priority);
+			mFetch = fetch;
+		}
+
+		@Override
+		void runStage() {
+			if(mFetch.cancelled){
+				return;
+			}
+			DiskLruCache.Snapshot snapshot = null;
+			byte[] data = null;
+			String version = null;
+			try {
+				DiskLruCache diskCache = getDiskCache();
+				if(diskCache != null){
+					HttpFetcher.CacheInfo cacheInfo = fetchToDiskCache(
+							diskCache, mFetch);
+					if(cacheInfo != null){
+						snapshot = diskCache.get(DiskLruCache.keyFor(mFetch.url));
+						version = getVersion(cacheInfo);
+					}
+				}
+				if(snapshot == null){
+					data = fetchToMemory(mFetch);
+				}
+			} catch (HttpFetcher.CancelledException e) {
+				// nobody is waiting for the image anymore
+				return;
+			} catch (IOException e) {
+				if(mFetch.staleSnapshot == null){
+					fail(e);
+					return;
+				}
+				// offline or server error, stale is
+				// better than nothing
+				snapshot = mFetch.staleSnapshot;
+				version = getVersion(mFetch.staleCacheInfo);
+			} catch (Exception e) {
+				fail(e);
+				return;
+			}
+
+			// each variant is decoded from its own stream
+			for (Job job : finishFetch(mFetch)) {
+				job.version = version;
+				InputStream in = snapshot != null ? snapshot.getInputStream()
+					: new ByteArrayInputStream(data);
+				submitDecode(job, new DecodeTask(job, in, false));
+			}
+		}
+
+		private void fail(Exception e) {
+			for (Job job : finishFetch(mFetch)) {
+				deliver(job, null, e);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the downloaded image, transforms it and puts
+	 * it to the memory cache.
+	 */
+	private class DecodeTask extends StageTask {
+		private final Job mJob;
+		private final InputStream mInputStream;
+		private final boolean mTransformed;
+
+		DecodeTask(Job job, InputStream in, boolean transformed) {
+			super(STAGE_DECODE, job.priority);
+			mJob = job;
+			mInputStream = in;
+			mTransformed = transformed;
+		}
+
+		@Override
+		void runStage() {
+			if(mJob.cancelled){
+				return;
+			}
+			try {
+				Drawable image = decode(mInputStream, mJob, mTransformed);
+				acquire(image);
+				LoadingImageView.putToCache(mJob.key, image);
+				deliver(mJob, image, null);
+			} catch (OutOfMemoryError e) {
+				recoverFromOutOfMemory(mJob);
+			} catch (Exception e) {
+				deliver(mJob, null, e);
+			}
+		}
+	}
+
+	/**
+	 * Frees memory after putting the image to the memory cache
+	 * ran out of it, and reports it to the event listeners. The
+	 * image is delivered anyway, only not cached.
+	 *
+	 * @param url the url or the cache key of the image
+	 */
+	void freeMemory(String url) {
+		LoadingImageView.freeMemory();
+		for (EventListener listener : mListeners) {
+			listener.onOutOfMemory(url, false);
+		}
+	}
+
+	/**
+	 * Frees the memory cache and the bitmap pool, and loads
+	 * the image once more from the start. A job running out
+	 * of memory twice fails.
+	 */
+	private void recoverFromOutOfMemory(Job job) {
+		LoadingImageView.freeMemory();
+		boolean retry = !job.retriedAfterOutOfMemory;
+		job.retriedAfterOutOfMemory = true;
+		for (EventListener listener : mListeners) {
+			listener.onOutOfMemory(job.url, retry);
+		}
+		if(retry){
+			job.submit(mDecodeExecutor, new CacheTask(job));
+		} else {
+			deliver(job, null, new IOException("Out of memory: " + job.url));
+		}
+	}
+
+	private static DiskLruCache getDiskCache() {
+		DiskLruCache diskCache = LoadingImageView.getDiskCache();
+		if(diskCache == null || diskCache.isClosed()){
+			return null;
+		}
+		return diskCache;
+	}
+
+	/**
+	 * Streams the image into the disk cache. If the download
+	 * has stale cache info, the request is conditional and the
+	 * cached copy is kept if it's not modified. The cache info
+	 * of the response is stored next to the image.
+	 *
+	 * @return the cache info of the response, or null if the
+	 * entry is being written by another loader
+	 * @throws IOException
+	 */
+	private HttpFetcher.CacheInfo fetchToDiskCache(DiskLruCache diskCache,
+			Fetch fetch) throws IOException {
+
+		final String key = DiskLruCache.keyFor(fetch.url);
+		DiskLruCache.Editor editor = diskCache.edit(key);
+		if(editor == null){
+			return null;
+		}
+		try {
+			long start = System.nanoTime();
+			HttpFetcher.Response response = mFetcher.open(fetch.url,
+					fetch.staleCacheInfo, fetch);
+			try {
+				if(!response.isNotModified()){
+					OutputStream out = editor.newOutputStream();
+					try {
+						response.writeTo(out);
+					} finally {
+						out.close();
+					}
+					editor.commit();
+				}
+			} finally {
+				response.close();
+			}
+			reportFetched(fetch, response, start);
+			putCacheInfo(diskCache, key, response.getCacheInfo());
+			return response.getCacheInfo();
+		} finally {
+			// keeps the cached copy if it's not modified
+			editor.abortUnlessCommitted();
+		}
+	}
+
+	/**
+	 * Downloads the image into memory, when there is no disk
+	 * cache, or the image doesn't fit into it.
+	 */
+	private byte[] fetchToMemory(Fetch fetch) throws IOException {
+		long start = System.nanoTime();
+		HttpFetcher.Response response = mFetcher.open(fetch.url, null, fetch);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					Math.max(response.getContentLength(), 8192));
+			response.writeTo(out);
+			reportFetched(fetch, response, start);
+			return out.toByteArray();
+		} finally {
+			response.close();
+		}
+	}
+
+	private void reportFetched(Fetch fetch, HttpFetcher.Response response,
+			long start) {
+		if(mListeners.isEmpty()){
+			return;
+		}
+		long duration = System.nanoTime() - start;
+		for (EventListener listener : mListeners) {
+			listener.onFetched(fetch.url, response.getBytesRead(),
+					response.getTimeToFirstByte(), duration,
+					response.isNotModified());
+		}
+	}
+
+	/**
+	 * Reads the cache info stored next to the image.
+	 *
+	 * @return the info, or null if the image has no info, e.g.
+	 * the info entry is evicted; the image is stale then
+	 */
+	private static HttpFetcher.CacheInfo getCacheInfo(DiskLruCache diskCache,
+			String key) throws IOException {
+
+		DiskLruCache.Snapshot snapshot = diskCache.get(key + CACHE_INFO_SUFFIX);
+		if(snapshot == null){
+			return null;
+		}
+		InputStream in = snapshot.getInputStream();
+		try {
+			return HttpFetcher.CacheInfo.read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void putCacheInfo(DiskLruCache diskCache, String key,
+			HttpFetcher.CacheInfo cacheInfo) throws IOException {
+
+		DiskLruCache.Editor editor = diskCache.edit(key + CACHE_INFO_SUFFIX);
+		if(editor == null){
+			return;
+		}
+		try {
+			OutputStream out = editor.newOutputStream();
+			try {
+				out.write(cacheInfo.toByteArray());
+			} finally {
+				out.close();
+			}
+			editor.commit();
+		} finally {
+			editor.abortUnlessCommitted();
+		}
+	}
+
+	/**
+	 * Returns a version of the image on disk that changes when
+	 * the image changes, to key the transformed copies with.
+	 */
+	private static String getVersion(HttpFetcher.CacheInfo cacheInfo) {
+		if(cacheInfo == null){
+			return "0";
+		}
+		if(cacheInfo.getETag() != null){
+			return cacheInfo.getETag();
+		}
+		if(cacheInfo.getLastModified() > 0){
+			return String.valueOf(cacheInfo.getLastModified());
+		}
+		return String.valueOf(cacheInfo.getExpires());
+	}
+
+	/**
+	 * Decodes the image subsampled to the size of the job,
+	 * reusing a bitmap from the pool if there is one, and
+	 * applies the transformations of the job unless the
+	 * image is already transformed. Newly transformed images
+	 * are written to the disk cache.
+	 */
+	private Drawable decode(InputStream in, Job job,
+			boolean transformed) throws IOException {
+
+		long start = System.nanoTime();
+		BitmapPool pool = LoadingImageView.getBitmapPool();
+		Bitmap bitmap;
+		try {
+			bitmap = transformed
+				? BitmapUtils.decodeSampledBitmap(in, 0, 0, pool)
+				: BitmapUtils.decodeSampledBitmap(in, job.width, job.height, pool);
+			if(bitmap == null){
+				throw new IOException("Unable to decode image: " + job.url);
+			}
+		} finally {
+			in.close();
+		}
+		if(!transformed && job.isTransformed()){
+			bitmap = transform(bitmap, job, pool);
+			DiskLruCache diskCache = getDiskCache();
+			if(diskCache != null && job.version != null){
+				putTransformed(diskCache, job, bitmap);
+			}
+		}
+		if(!mListeners.isEmpty()){
+			long duration = System.nanoTime() - start;
+			for (EventListener listener : mListeners) {
+				listener.onDecoded(job.url, duration);
+			}
+		}
+		return new BitmapDrawable(bitmap);
+	}
+
+	private static Bitmap transform(Bitmap bitmap, Job job, BitmapPool pool)
+		throws IOException {
+
+		for (Transformation transformation : job.transformations) {
+			Bitmap result = transformation.transform(bitmap, pool);
+			if(result == null){
+				throw new IOException("Transformation "
+						+ transformation.getKey() + " failed: " + job.url);
+			}
+			if(result != bitmap && pool != null){
+				pool.put(bitmap);
+			}
+			bitmap = result;
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Writes the transformed image to the disk cache, failures
+	 * are ignored since the original is on disk anyway.
+	 */
+	private static void putTransformed(DiskLruCache diskCache, Job job,
+			Bitmap bitmap) {
+		try {
+			DiskLruCache.Editor editor = diskCache.edit(
+					job.getTransformedDiskKey());
+			if(editor == null){
+				return;
+			}
+			try {
+				OutputStream out = editor.newOutputStream();
+				try {
+					// lossless if the transformation made it transparent
+					bitmap.compress(bitmap.hasAlpha()
+							? CompressFormat.PNG : CompressFormat.JPEG,
+							TRANSFORMED_QUALITY, out);
+				} finally {
+					out.close();
+				}
+				editor.commit();
+			} finally {
+				editor.abortUnlessCommitted();
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to cache the transformed " + job.url, e);
+		}
+	}
+
+	/**
+	 * Creates named threads running with background priority,
+	 * so loading images doesn't compete with the main thread.
+	 */
+	private static final class BackgroundThreadFactory implements ThreadFactory {
+		private final ThreadFactory mFactory;
+
+		BackgroundThreadFactory(String name) {
+			mFactory = new PriorityExecutor.NamedThreadFactory(
+					name, Thread.NORM_PRIORITY);
+		}
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			return mFactory.newThread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(
+							Process.THREAD_PRIORITY_BACKGROUND);
+					runnable.run();
+				}
+			});
+		}
+	}
+}
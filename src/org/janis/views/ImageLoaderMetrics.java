@@ -0,0 +1,252 @@
+package org.janis.views;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.janis.metrics.Histogram;
+
+/**
+ * Collects the metrics of an ImageLoader: counters of the
+ * cache hits and misses, the downloaded bytes, cancellations,
+ * failures and out of memory recoveries, and histograms of the
+ * queue waits, time to first byte, download and decode durations
+ * in nanoseconds. Counting is lock free, so it can stay enabled
+ * in production; poll the getters, e.g. to send them to your own
+ * telemetry, and reset to start a new period.
+ *
+ * E.g.: ImageLoaderMetrics metrics = new ImageLoaderMetrics();
+ *     ImageLoader.getInstance().addEventListener(metrics);
+ */
+public class ImageLoaderMetrics implements ImageLoader.EventListener {
+
+	private final AtomicLong mMemoryHits = new AtomicLong();
+	private final AtomicLong mMemoryMisses = new AtomicLong();
+	private final AtomicLong mDiskHits = new AtomicLong();
+	private final AtomicLong mDiskMisses = new AtomicLong();
+	private final AtomicLong mFetches = new AtomicLong();
+	private final AtomicLong mNotModified = new AtomicLong();
+	private final AtomicLong mBytesFetched = new AtomicLong();
+	private final AtomicLong mCancellations = new AtomicLong();
+	private final AtomicLong mFailures = new AtomicLong();
+	private final AtomicLong mOutOfMemoryRecoveries = new AtomicLong();
+	private final AtomicLong mOutOfMemoryFailures = new AtomicLong();
+	private final AtomicLong[] mMaxQueueSizes = {
+		new AtomicLong(), new AtomicLong(), new AtomicLong()
+	};
+
+	private final Histogram[] mQueueWaits = {
+		new Histogram(), new Histogram(), new Histogram()
+	};
+	private final Histogram mTimeToFirstByte = new Histogram();
+	private final Histogram mDownloadTimes = new Histogram();
+	private final Histogram mDecodeTimes = new Histogram();
+
+	@Override
+	public void onMemoryCacheHit(String url) {
+		mMemoryHits.incrementAndGet();
+	}
+
+	@Override
+	public void onMemoryCacheMiss(String url) {
+		mMemoryMisses.incrementAndGet();
+	}
+
+	@Override
+	public void onDiskCacheHit(String url) {
+		mDiskHits.incrementAndGet();
+	}
+
+	@Override
+	public void onDiskCacheMiss(String url) {
+		mDiskMisses.incrementAndGet();
+	}
+
+	@Override
+	public void onTaskStarted(int stage, long queueWait, int queueSize) {
+		mQueueWaits[stage].record(queueWait);
+		AtomicLong max = mMaxQueueSizes[stage];
+		long current;
+		while(queueSize > (current = max.get())){
+			if(max.compareAndSet(current, queueSize)){
+				break;
+			}
+		}
+	}
+
+	@Override
+	public void onFetched(String url, long bytes, long timeToFirstByte,
+			long duration, boolean notModified) {
+		mFetches.incrementAndGet();
+		if(notModified){
+			mNotModified.incrementAndGet();
+		}
+		mBytesFetched.addAndGet(bytes);
+		mTimeToFirstByte.record(timeToFirstByte);
+		mDownloadTimes.record(duration);
+	}
+
+	@Override
+	public void onDecoded(String url, long duration) {
+		mDecodeTimes.record(duration);
+	}
+
+	@Override
+	public void onCancelled(String url) {
+		mCancellations.incrementAndGet();
+	}
+
+	@Override
+	public void onFailed(String url, Exception e) {
+		mFailures.incrementAndGet();
+	}
+
+	@Override
+	public void onOutOfMemory(String url, boolean retried) {
+		if(retried){
+			mOutOfMemoryRecoveries.incrementAndGet();
+		} else {
+			mOutOfMemoryFailures.incrementAndGet();
+		}
+	}
+
+	public long getMemoryCacheHitCount() {
+		return mMemoryHits.get();
+	}
+
+	public long getMemoryCacheMissCount() {
+		return mMemoryMisses.get();
+	}
+
+	/**
+	 * @return the ratio of the requests served from memory,
+	 * or 0 if there are none
+	 */
+	public double getMemoryCacheHitRate() {
+		return rate(mMemoryHits.get(), mMemoryMisses.get());
+	}
+
+	public long getDiskCacheHitCount() {
+		return mDiskHits.get();
+	}
+
+	public long getDiskCacheMissCount() {
+		return mDiskMisses.get();
+	}
+
+	/**
+	 * @return the ratio of the disk lookups finding a fresh
+	 * image, or 0 if there are none
+	 */
+	public double getDiskCacheHitRate() {
+		return rate(mDiskHits.get(), mDiskMisses.get());
+	}
+
+	private static double rate(long hits, long misses) {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return the number of downloads, including revalidations
+	 */
+	public long getFetchCount() {
+		return mFetches.get();
+	}
+
+	/**
+	 * @return the number of revalidations answered not modified
+	 */
+	public long getNotModifiedCount() {
+		return mNotModified.get();
+	}
+
+	public long getBytesFetched() {
+		return mBytesFetched.get();
+	}
+
+	public long getCancellationCount() {
+		return mCancellations.get();
+	}
+
+	public long getFailureCount() {
+		return mFailures.get();
+	}
+
+	/**
+	 * @return the number of images loaded again after running
+	 * out of memory
+	 */
+	public long getOutOfMemoryRecoveryCount() {
+		return mOutOfMemoryRecoveries.get();
+	}
+
+	/**
+	 * @return the number of images failed running out of memory twice
+	 */
+	public long getOutOfMemoryFailureCount() {
+		return mOutOfMemoryFailures.get();
+	}
+
+	/**
+	 * @param stage one of the ImageLoader.STAGE constants
+	 * @return the longest queue seen by the tasks of the stage
+	 */
+	public long getMaxQueueSize(int stage) {
+		return mMaxQueueSizes[stage].get();
+	}
+
+	/**
+	 * @param stage one of the ImageLoader.STAGE constants
+	 * @return the waits of the tasks of the stage in the queue
+	 */
+	public Histogram getQueueWaits(int stage) {
+		return mQueueWaits[stage];
+	}
+
+	public Histogram getTimeToFirstByte() {
+		return mTimeToFirstByte;
+	}
+
+	public Histogram getDownloadTimes() {
+		return mDownloadTimes;
+	}
+
+	public Histogram getDecodeTimes() {
+		return mDecodeTimes;
+	}
+
+	/**
+	 * Resets all the counters and histograms.
+	 */
+	public void reset() {
+		AtomicLong[] counters = {
+			mMemoryHits, mMemoryMisses, mDiskHits, mDiskMisses, mFetches,
+			mNotModified, mBytesFetched, mCancellations, mFailures,
+			mOutOfMemoryRecoveries, mOutOfMemoryFailures
+		};
+		for (AtomicLong counter : counters) {
+			counter.set(0);
+		}
+		for (int i = 0; i < mMaxQueueSizes.length; i++) {
+			mMaxQueueSizes[i].set(0);
+			mQueueWaits[i].reset();
+		}
+		mTimeToFirstByte.reset();
+		mDownloadTimes.reset();
+		mDecodeTimes.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "ImageLoaderMetrics[memory hits=" + getMemoryCacheHitCount()
+			+ " misses=" + getMemoryCacheMissCount()
+			+ ", disk hits=" + getDiskCacheHitCount()
+			+ " misses=" + getDiskCacheMissCount()
+			+ ", fetches=" + getFetchCount() + " bytes=" + getBytesFetched()
+			+ ", cancelled=" + getCancellationCount()
+			+ ", failed=" + getFailureCount()
+			+ ", oom recovered=" + getOutOfMemoryRecoveryCount()
+			+ ", ttfb {" + mTimeToFirstByte + "}"
+			+ ", download {" + mDownloadTimes + "}"
+			+ ", decode {" + mDecodeTimes + "}]";
+	}
+}
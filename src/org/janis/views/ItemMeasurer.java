@@ -0,0 +1,135 @@
+package org.janis.views;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.util.SparseArray;
+import android.view.View;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup;
+import android.widget.Adapter;
+
+/**
+ * Measures the item views of an adapter for the not scrolling
+ * views. Items are measured with one recycled view per view type,
+ * and their heights are cached. When the data changes, heights
+ * are kept for the same ids if the adapter has stable ids.
+ * Without stable ids any item may have changed, so all the
+ * heights are forgotten.
+ */
+final class ItemMeasurer {
+
+	static final int UNMEASURED = -1;
+
+	private final SparseArray<View> mScrapViews = new SparseArray<View>();
+	private int[] mHeights = new int[0];
+	private long[] mIds;
+	private int mWidthSpec;
+
+	/**
+	 * Forgets all the heights and the scrap views.
+	 */
+	void reset(Adapter adapter) {
+		mScrapViews.clear();
+		invalidateAll(adapter);
+	}
+
+	/**
+	 * Forgets all the heights.
+	 */
+	void invalidateAll(Adapter adapter) {
+		int count = adapter == null ? 0 : adapter.getCount();
+		mHeights = new int[count];
+		Arrays.fill(mHeights, UNMEASURED);
+		mIds = getIds(adapter);
+	}
+
+	/**
+	 * Forgets the height of the item at the position.
+	 */
+	void invalidate(int position) {
+		if(position >= 0 && position < mHeights.length){
+			mHeights[position] = UNMEASURED;
+		}
+	}
+
+	/**
+	 * Keeps the heights of the items whose stable ids are
+	 * still there, forgets the others.
+	 */
+	void onDataChanged(Adapter adapter) {
+		int count = adapter.getCount();
+		int[] heights = new int[count];
+		Arrays.fill(heights, UNMEASURED);
+		long[] ids = getIds(adapter);
+		if(ids != null && mIds != null){
+			Map<Long, Integer> heightsById = new HashMap<Long, Integer>();
+			for (int i = 0; i < mIds.length && i < mHeights.length; i++) {
+				heightsById.put(mIds[i], mHeights[i]);
+			}
+			for (int i = 0; i < count; i++) {
+				Integer height = heightsById.get(ids[i]);
+				if(height != null){
+					heights[i] = height;
+				}
+			}
+		}
+		mHeights = heights;
+		mIds = ids;
+	}
+
+	private static long[] getIds(Adapter adapter) {
+		if(adapter == null || !adapter.hasStableIds()){
+			return null;
+		}
+		long[] ids = new long[adapter.getCount()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = adapter.getItemId(i);
+		}
+		return ids;
+	}
+
+	/**
+	 * Sets the width spec the items are measured with. All
+	 * the heights are forgotten if it's changed.
+	 */
+	void setWidthSpec(int widthSpec) {
+		if(widthSpec != mWidthSpec){
+			mWidthSpec = widthSpec;
+			Arrays.fill(mHeights, UNMEASURED);
+		}
+	}
+
+	/**
+	 * @return the number of items known to the measurer
+	 */
+	int getCount() {
+		return mHeights.length;
+	}
+
+	/**
+	 * @return the cached height, or UNMEASURED
+	 */
+	int getHeight(int position) {
+		return mHeights[position];
+	}
+
+	/**
+	 * Measures the item, reusing the scrap view of its type,
+	 * and caches its height.
+	 */
+	int measure(Adapter adapter, int position, ViewGroup parent) {
+		int type = adapter.getItemViewType(position);
+		View scrap = type == Adapter.IGNORE_ITEM_VIEW_TYPE ? null
+				: mScrapViews.get(type);
+		View itemView = adapter.getView(position, scrap, parent);
+		if(type != Adapter.IGNORE_ITEM_VIEW_TYPE){
+			mScrapViews.put(type, itemView);
+		}
+		itemView.measure(mWidthSpec, MeasureSpec.makeMeasureSpec(0,
+				MeasureSpec.UNSPECIFIED));
+		mHeights[position] = itemView.getMeasuredHeight();
+		return mHeights[position];
+	}
+}
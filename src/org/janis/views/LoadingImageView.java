@@ -4,18 +4,19 @@
 
 package org.janis.views;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
+import org.janis.cache.DiskLruCache;
+import org.janis.images.BitmapPool;
+import org.janis.images.Transformation;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 
-// TODO: provide a DefaultDrawableCacheImpl
 /**
  * LoadingImageView helps set an image url directly to 
  * an image view. It asynchronously downloads, caches and 
@@ -23,9 +24,17 @@ import android.widget.ImageView;
  */
 public class LoadingImageView extends ImageView {
 	
+	private static final String TAG = "LoadingImageView";
+
 	private static DrawableCache mCache;
+	private static DiskLruCache mDiskCache;
+	private static BitmapPool mBitmapPool;
 	private OnDownloadListener mOnDownloadListener;
-	private AsyncTask<String, Boolean, Drawable> mCurrentBackgroundTask;
+	private ImageLoader.Request mCurrentRequest;
+	private int mRequestedWidth;
+	private int mRequestedHeight;
+	private Bitmap mDisplayedBitmap;
+	private Transformation[] mTransformations;
 	final private Object taskLock = new Object(); 
 	
 	/**
@@ -80,17 +89,95 @@ public class LoadingImageView extends ImageView {
 	
 	/**
 	 * Sets a new cache instance, if no cache is presented
-	 * caching wont perform.
+	 * caching wont perform. See DefaultDrawableCacheImpl
+	 * for a memory bounded implementation.
 	 *
 	 * @param cache the new cache
 	 */
 	public void setCache(DrawableCache cache){
 		mCache = cache;
 	}
+	
+	/**
+	 * Sets a disk cache that is consulted when the
+	 * memory cache misses, before the image is downloaded.
+	 * Downloaded images are streamed into the disk cache,
+	 * so they survive process restarts. If no disk cache
+	 * is presented, every memory miss hits the network.
+	 * 
+	 * E.g.: setDiskCache(DiskLruCache.open(
+	 *     new File(context.getCacheDir(), "images"), 10 * 1024 * 1024));
+	 *
+	 * @param diskCache the new disk cache
+	 */
+	public void setDiskCache(DiskLruCache diskCache){
+		mDiskCache = diskCache;
+	}
+	
+	/**
+	 * Sets a bitmap pool that images are decoded into. The
+	 * pool should be given to the DefaultDrawableCacheImpl 
+	 * too, so evicted bitmaps are returned to the pool.
+	 * Bitmaps displayed by LoadingImageViews are not reused
+	 * until they are replaced by another image.
+	 *
+	 * @param bitmapPool the new bitmap pool
+	 */
+	public void setBitmapPool(BitmapPool bitmapPool){
+		mBitmapPool = bitmapPool;
+	}
+	
+	/**
+	 * Marks the displayed bitmap in use, so the bitmap pool
+	 * doesn't reuse it while it's on the screen.
+	 */
+	@Override
+	public void setImageDrawable(Drawable drawable) {
+		Bitmap bitmap = drawable instanceof BitmapDrawable 
+			? ((BitmapDrawable) drawable).getBitmap() : null;
+		BitmapPool pool = mBitmapPool;
+		if(bitmap != mDisplayedBitmap && pool != null){
+			pool.acquire(bitmap);
+			pool.release(mDisplayedBitmap);
+		}
+		mDisplayedBitmap = bitmap;
+		super.setImageDrawable(drawable);
+	}
+
+	/**
+	 * Sets the size the images are decoded for. Images larger
+	 * than the size are subsampled while decoding. If no size
+	 * is set, the measured size of the view is used, or the 
+	 * size in the layout params if the view isn't laid out yet,
+	 * and finally the size of the screen.
+	 * Should be called before setImageUrl.
+	 *
+	 * @param width the width, 0 if not constrained
+	 * @param height the height, 0 if not constrained
+	 */
+	public void setRequestedSize(int width, int height){
+		mRequestedWidth = width;
+		mRequestedHeight = height;
+	}
+
+	/**
+	 * Sets the transformations applied to the images in the
+	 * loader threads, e.g. Transformations.circle(). Transformed
+	 * images are cached, so rather than transforming the image
+	 * in OnDownloadListener on every load, set them here.
+	 * Should be called before setImageUrl.
+	 *
+	 * @param transformations the transformations, applied in order
+	 */
+	public void setTransformations(Transformation... transformations){
+		mTransformations = transformations;
+	}
 
 	/**
 	 * Set's the view's drawable, this uses the internet to retrieve the image
 	 * don't forget to add the correct permissions to your manifest.
+	 * If another view is already loading the same url, this
+	 * view waits for the same download.
 	 *
 	 * @param imageUrl the url of the image you wish to load
 	 */
@@ -98,24 +185,55 @@ public class LoadingImageView extends ImageView {
 		
 		cancelExistingDownloadTask();
 		synchronized (taskLock) {
-			// Constructs a new download task and
-			// starts downloading
-			mCurrentBackgroundTask = new BackgroundTask();
-			mCurrentBackgroundTask.execute(imageUrl);
+			// Requests the image from the shared loader
+			mCurrentRequest = ImageLoader.getInstance()
+				.load(imageUrl, getTargetWidth(), getTargetHeight(),
+						mLoaderCallback, ImageLoader.PRIORITY_NORMAL, this,
+						mTransformations);
 		}
 	}
 	
+	private int getTargetWidth(){
+		if(mRequestedWidth > 0 || mRequestedHeight > 0){
+			return mRequestedWidth;
+		}
+		if(getWidth() > 0){
+			return getWidth() - getPaddingLeft() - getPaddingRight();
+		}
+		ViewGroup.LayoutParams params = getLayoutParams();
+		if(params != null && params.width > 0){
+			return params.width;
+		}
+		return getResources().getDisplayMetrics().widthPixels;
+	}
+	
+	private int getTargetHeight(){
+		if(mRequestedWidth > 0 || mRequestedHeight > 0){
+			return mRequestedHeight;
+		}
+		if(getHeight() > 0){
+			return getHeight() - getPaddingTop() - getPaddingBottom();
+		}
+		ViewGroup.LayoutParams params = getLayoutParams();
+		if(params != null && params.height > 0){
+			return params.height;
+		}
+		return getResources().getDisplayMetrics().heightPixels;
+	}
+	
 	/**
 	 * If there is a remote image being downloaded,
-	 * this method cancels the download task
+	 * this method cancels the download task. The download
+	 * goes on if other views are waiting for the same url.
 	 */
 	public void cancelExistingDownloadTask(){
 		synchronized (taskLock) {
-			// If there exists an existing task
+			// If there exists an existing request
 			// cancel it, so only the lastly setted url
-			// forks a download task
-			if(mCurrentBackgroundTask != null){
-				mCurrentBackgroundTask.cancel(true);
+			// is delivered to this view
+			if(mCurrentRequest != null){
+				mCurrentRequest.cancel();
+				mCurrentRequest = null;
 			}
 		}
 	}
@@ -123,23 +241,58 @@ public class LoadingImageView extends ImageView {
 	/**
 	 * Gets the drawable with the given url from cache.
 	 * If cache doesnt have the image, it returns null.
+	 * Images decoded for a size are cached with the key
+	 * returned by ImageLoader.getCacheKey.
+	 * If a bitmap pool is set, the bitmap isn't acquired, so
+	 * it may be reused for another image once it's evicted.
+	 * Acquire it from the pool and release it when it's not
+	 * displayed anymore, or don't keep it.
 	 *
-	 * @param url The url of the image
+	 * @param url The url or the cache key of the image
 	 * @return drawable from the cache
 	 */
 	public static Drawable getFromCache(String url){
-		if(mCache != null){
-			return mCache.get(url);
+		DrawableCache cache = mCache;
+		if(cache != null){
+			return cache.get(url);
 		}
 		return null;
 	}
+
+	/**
+	 * Gets the drawable from the cache and acquires its bitmap.
+	 * An AcquiringDrawableCache does both in the same step, so
+	 * an eviction can't put the bitmap to the pool in between.
+	 * It should be released once it's delivered.
+	 *
+	 * @param url The url or the cache key of the image
+	 * @return drawable from the cache
+	 */
+	static Drawable acquireFromCache(String url){
+		DrawableCache cache = mCache;
+		BitmapPool pool = mBitmapPool;
+		if(cache instanceof AcquiringDrawableCache){
+			return ((AcquiringDrawableCache) cache).getAndAcquire(url, pool);
+		}
+		if(cache == null){
+			return null;
+		}
+		Drawable drawable = cache.get(url);
+		if(pool != null && drawable instanceof BitmapDrawable){
+			Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+			if(bitmap != null){
+				pool.acquire(bitmap);
+			}
+		}
+		return drawable;
+	}
 	
 	/**
 	 * Puts the drawable to the cache. If cache doesnt exist,
-	 * it doesnt perform. If we recieve an OutOfMemoryException
-	 * we clear the cache.
+	 * it doesnt perform. If the put runs out of memory, the
+	 * drawable isn't cached and the image loader frees memory.
 	 *
-	 * @param url The url of the image
+	 * @param url The url or the cache key of the image
 	 * @param drawable The drawable fetched from the url, cant be null
 	 */
 	public static void putToCache(String url, Drawable drawable){
@@ -148,40 +301,50 @@ public class LoadingImageView extends ImageView {
 				mCache.put(url, drawable);
 			} catch(OutOfMemoryError e){ 
 				// ignores the current put
-				// TODO: may implement retry here              
-				e.printStackTrace();
-				mCache.clear();
+				Log.w(TAG, "Out of memory caching " + url, e);
+				ImageLoader.getInstance().freeMemory(url);
 			}
 		}
 	}
 
 	/**
-	 * Creates a new drawable from the given url. Checks the
-	 * cache before hitting to url. If cache doesnt have the
-	 * image already, it's fetched from the URL. Once IO
-	 * is completed downloaded image is put to cache.
-	 *
-	 * @param url the url of the image
-	 * @return a drawable
-	 * @throws IOException Signals that an I/O exception has occurred.
-	 * @throws MalformedURLException the malformed url exception
+	 * Frees the memory held by the memory cache and the
+	 * bitmap pool, e.g. when decoding runs out of memory.
+	 * A DefaultDrawableCacheImpl is trimmed to half of its
+	 * size, keeping the recently used bitmaps, other caches
+	 * are cleared. Bitmaps are only dropped, not recycled, so the ones
+	 * still displayed stay drawable. Acquired bitmaps are not
+	 * pooled by the cache, so they stay out of the pool.
 	 */
-	private static Drawable getDrawableFromUrl(final String url) 
-		throws IOException, MalformedURLException {
-
-		if(url == null){
-			return null;
+	static void freeMemory(){
+		DrawableCache cache = mCache;
+		if(cache instanceof DefaultDrawableCacheImpl){
+			((DefaultDrawableCacheImpl) cache).trim(0.5f);
+		} else if(cache != null){
+			cache.clear();
 		}
-		
-		Drawable image = getFromCache(url);
-		if(image == null){
-			image = Drawable.createFromStream(((InputStream)
-					new URL(url).getContent()), "name");
-			putToCache(url, image);
+		if(mBitmapPool != null){
+			mBitmapPool.clear();
 		}
-		return image;
+	}
+
+	/**
+	 * Gets the disk cache set by setDiskCache.
+	 *
+	 * @return the disk cache or null
+	 */
+	static DiskLruCache getDiskCache(){
+		return mDiskCache;
 	}
 	
+	/**
+	 * Gets the bitmap pool set by setBitmapPool.
+	 *
+	 * @return the bitmap pool or null
+	 */
+	static BitmapPool getBitmapPool(){
+		return mBitmapPool;
+	}
 	
 	/**
 	 * DrawableCache interface forces you to implement a 
@@ -211,6 +374,25 @@ public class LoadingImageView extends ImageView {
 		void clear();
 	}
 	
+	/**
+	 * A DrawableCache that returns its bitmaps to a bitmap pool
+	 * can implement it, so its bitmaps are acquired before they
+	 * can be evicted.
+	 */
+	public interface AcquiringDrawableCache extends DrawableCache {
+		
+		/**
+		 * Gets a drawable by a url and acquires its bitmap from
+		 * the pool before the entry can be evicted by another
+		 * thread, so the bitmap isn't reused while it's delivered.
+		 *
+		 * @param url The image's url.
+		 * @param pool The pool to acquire the bitmap from, may be null.
+		 * @return the cached drawable if exists.
+		 */
+		Drawable getAndAcquire(String url, BitmapPool pool);
+	}
+	
 	/**
 	 * If you would like to notified when image download 
 	 * is either finished or failed, you can set a DownloadHandler
@@ -239,67 +421,53 @@ public class LoadingImageView extends ImageView {
 	}
 	
 	/**
-	 * Background task that download the image
-	 * and sets the downloaded image to this view.
+	 * Callback of the shared loader, sets the downloaded 
+	 * image to this view and notifies the download listener.
 	 */
-	private class BackgroundTask 
-		extends AsyncTask<String, Boolean, Drawable>{
+	private final ImageLoader.Callback mLoaderCallback = 
+		new ImageLoader.Callback() {
 		
-		private Exception e;
-
-		/* The background task to download 
-		 * the remote image as a Drawable.
+		/* When download is finished, run the handler
+		 * callback and set the image drawable. 
 		 */
 		@Override
-		protected Drawable doInBackground(String... params) {
+		public void onLoaded(String url, Drawable result) {
+			synchronized (taskLock) {
+				mCurrentRequest = null;
+			}
+			
+			if (mOnDownloadListener != null){
+				mOnDownloadListener.onDrawableDownloaded(
+						LoadingImageView.this, result);
+			}
+			
+			// Any possible exception like
+			// OutOfMemmoryException fits here.
 			try {
-				return getDrawableFromUrl(params[0]);
+				setImageDrawable(result);
 			} catch (Exception e) {
-				e.printStackTrace();
-				this.e = e;
-			} 
-			return null;
+				notifyError(e);
+			}
 		}
 		
-		/* When download task is finished, run the handler
-		 * callback and set the image drawable. 
-		 * If an exception is thrown while downloading
+		/* If an exception is thrown while downloading
 		 * notify the handler.
 		 */
 		@Override
-		protected void onPostExecute(Drawable result) {
-			super.onPostExecute(result);
-			
+		public void onFailed(String url, Exception e) {
+			synchronized (taskLock) {
+				mCurrentRequest = null;
+			}
 			// TODO: what to do if a download handler
 			// is not set. Make exceptions more visible.
-			if(e != null){
-				notifyErrorIfExists();
-			} else {
-				// If there is an error thrown from
-				// download task, we should not try
-				// to set the image
-				
-				if (mOnDownloadListener != null){
-					mOnDownloadListener.onDrawableDownloaded(
-							LoadingImageView.this, result);
-				}
-				
-				// Any possible exception like
-				// OutOfMemmoryException fits here.
-				try {
-					setImageDrawable(result);
-				} catch (Exception e) {
-					this.e = e;
-				}
-				notifyErrorIfExists();
-			}
+			notifyError(e);
 		}
 		
-		private void notifyErrorIfExists(){
-			if(e != null && mOnDownloadListener != null){
+		private void notifyError(Exception e){
+			if(mOnDownloadListener != null){
 				mOnDownloadListener.onException(
 						LoadingImageView.this, e);
 			}
 		}
-	}
+	};
 }
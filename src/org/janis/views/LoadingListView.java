@@ -4,26 +4,87 @@
 
 package org.janis.views;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janis.concurrent.PriorityExecutor;
+
 import android.content.Context;
-import android.os.AsyncTask;
-import android.os.AsyncTask.Status;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.util.SparseArray;
 import android.widget.AbsListView;
 import android.widget.ListView;
 
 /**
  * The Class LoadingListView.
+ *
+ * Pages are loaded before the list reaches the bottom, when
+ * the last visible item is within the prefetch distance from
+ * the end. Up to setMaxPagesInFlight pages are loaded
+ * concurrently, and they are delivered to the OnPageListener
+ * in the main thread in the order of their page numbers.
+ *
+ * Loading is driven by a small state machine, see getState.
+ * Once the listener calls notifyEndOfData, no more pages are
+ * requested. A failed page is retried with an exponential
+ * backoff rather than on every scroll event.
  */
 public class LoadingListView extends ListView {
-	
+
+	private static final String TAG = "LoadingListView";
+
+	/** Default number of items from the end that triggers a load. */
+	public static final int DEFAULT_PREFETCH_DISTANCE = 5;
+
+	/** More pages can be requested. */
+	public static final int STATE_IDLE = 0;
+	/** The maximum number of pages are in flight. */
+	public static final int STATE_LOADING = 1;
+	/** The end of the data is reached, no more pages are requested. */
+	public static final int STATE_EXHAUSTED = 2;
+	/** A page failed, it's retried after a backoff. */
+	public static final int STATE_ERROR = 3;
+
+	/** Default delay before the first retry of a failed page. */
+	public static final long DEFAULT_RETRY_DELAY = 1000;
+	/** Upper bound of the retry delay. */
+	public static final long MAX_RETRY_DELAY = 60 * 1000;
+	/** Default number of automatic retries of a failed page. */
+	public static final int DEFAULT_MAX_RETRIES = 5;
+
+	private static final int PAGE_THREADS = 2;
+	private static PriorityExecutor sPageExecutor;
+
+	private OnPageListener<?> mOnPageListener;
 	private OnMoreListener mOnMoreListener;
 	private OnScrollListener mOnScrollListener;
-	private BackgroundTask mCurrentBackgroundTask;
-	final Object taskLock = new Object();
-	
+	private boolean mPauseImagesOnFling = true;
+	private boolean mPausedImages;
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private int mPrefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+	private float mPrefetchScreens;
+	private int mMaxPagesInFlight = 1;
+	private long mRetryDelay = DEFAULT_RETRY_DELAY;
+	private int mMaxRetries = DEFAULT_MAX_RETRIES;
+
+	private final AtomicInteger mState = new AtomicInteger(STATE_IDLE);
+
+	// accessed only in the main thread
+	private final SparseArray<PageResult> mLoadedPages =
+		new SparseArray<PageResult>();
+	private int mNextPage;
+	private int mNextDeliveredPage;
+	private int mPagesInFlight;
+	private int mFailedPage = -1;
+	private int mGeneration;
+	private int mFailures;
+
 	/**
 	 * Constructs a new LoadingListView
-	 * and inits the default OnScrollListener 
+	 * and inits the default OnScrollListener
 	 * that auto fires OnMoreHandler.run()
 	 *
 	 * @param context
@@ -32,11 +93,11 @@ public class LoadingListView extends ListView {
 		super(context);
 		init();
 	}
-	
+
 	/**
 	 * Construct a new LoadingListView
-	 * with xml tag attributes. Also inits 
-	 * the default OnScrollListener that auto 
+	 * with xml tag attributes. Also inits
+	 * the default OnScrollListener that auto
 	 * fires OnMoreHandler.run()
 	 *
 	 * @param context
@@ -46,15 +107,15 @@ public class LoadingListView extends ListView {
 		super(context, attrs);
 		init();
 	}
-	
+
 	/**
 	 * Construct a new LoadingListView
-	 * with xml tag attributes and style. 
-	 * Also inits the default OnScrollListener 
+	 * with xml tag attributes and style.
+	 * Also inits the default OnScrollListener
 	 * that auto fires OnMoreHandler.run()
 	 *
-	 * @param context 
-	 * @param attrs 
+	 * @param context
+	 * @param attrs
 	 * @param defStyle
 	 */
 	public LoadingListView(Context context, AttributeSet attrs,
@@ -62,22 +123,30 @@ public class LoadingListView extends ListView {
 		super(context, attrs, defStyle);
 		init();
 	}
-	
+
 	/**
 	 * Inits the OnScollListener to detect when
-	 * listView is scrolled down to the bottom.
-	 * When list view reaches to bottom, an AsyncTask
-	 * is started to be executed and performs
-	 * actions set by setOnMoreHandler(...)
+	 * listView is scrolled near to the bottom.
+	 * When the last visible item is in the prefetch
+	 * distance, next pages are loaded in the
+	 * background by the OnPageListener.
 	 */
 	private void init(){
-		
+
 		super.setOnScrollListener(new OnScrollListener() {
-			
+
 			@Override
 			public void onScrollStateChanged(
 					AbsListView view, int scrollState) {
-				
+
+				// Images are not decoded while flinging,
+				// rows scrolled away meanwhile are dropped
+				if(scrollState == SCROLL_STATE_FLING){
+					pauseImages();
+				} else if(scrollState == SCROLL_STATE_IDLE){
+					resumeImages();
+				}
+
 				// If list view has its own OnScollListener,
 				// perform its own onScrollStateChanged
 				if(mOnScrollListener != null){
@@ -85,7 +154,7 @@ public class LoadingListView extends ListView {
 						.onScrollStateChanged(view, scrollState);
 				}
 			}
-			
+
 			@Override
 			public void onScroll(
 					AbsListView view, int firstVisibleItem,
@@ -95,26 +164,324 @@ public class LoadingListView extends ListView {
 				// perform its own onScroll
 				if(mOnScrollListener != null){
 					mOnScrollListener
-						.onScroll(view, firstVisibleItem, 
+						.onScroll(view, firstVisibleItem,
 								visibleItemCount, totalItemCount);
 				}
-				
-				// If list view is reached to the bottom
-				if (getLastVisiblePosition() == (totalItemCount - 1)){
-					// start background task here
-					// if there is no pending/running task
-					synchronized (taskLock) {
-						if(mCurrentBackgroundTask == null
-								|| mCurrentBackgroundTask.getStatus() == Status.FINISHED){
-							mCurrentBackgroundTask = new BackgroundTask();
-							mCurrentBackgroundTask.execute();
-						}
-					}
-				} // end of get last visible
+
+				// A PagedAdapter keeps the pages around the
+				// visible rows in memory
+				if(mOnPageListener instanceof PagedAdapter){
+					((PagedAdapter<?>) mOnPageListener).setVisibleRange(
+							firstVisibleItem - getHeaderViewsCount(),
+							visibleItemCount);
+				}
+
+				// Only an idle list requests pages, this is
+				// checked first since onScroll runs every frame
+				if(mState.get() != STATE_IDLE){
+					return;
+				}
+				// If list view is close to the bottom
+				int remaining = totalItemCount
+					- (firstVisibleItem + visibleItemCount);
+				if(remaining <= getPrefetchThreshold(visibleItemCount)){
+					loadMore();
+				}
 			}
 		});
-	}	
-	
+	}
+
+	private int getPrefetchThreshold(int visibleItemCount){
+		return Math.max(mPrefetchDistance,
+				(int) Math.ceil(mPrefetchScreens * visibleItemCount));
+	}
+
+	/**
+	 * Starts loading the next pages, until the maximum
+	 * number of pages are in flight. A failed page is
+	 * loaded again before the next pages. Runs in the
+	 * main thread.
+	 */
+	private void loadMore(){
+		OnPageListener<?> listener = mOnPageListener;
+		if(listener == null){
+			return;
+		}
+		while(mState.get() == STATE_IDLE){
+			if(mPagesInFlight >= mMaxPagesInFlight){
+				mState.compareAndSet(STATE_IDLE, STATE_LOADING);
+				return;
+			}
+			int page;
+			if(mFailedPage >= 0){
+				page = mFailedPage;
+				mFailedPage = -1;
+			} else {
+				page = mNextPage++;
+			}
+			mPagesInFlight++;
+			listener.onPageRequested(this, page);
+			getPageExecutor().execute(
+					new PageTask(listener, page, mGeneration));
+		}
+	}
+
+	static synchronized PriorityExecutor getPageExecutor(){
+		if(sPageExecutor == null){
+			sPageExecutor = new PriorityExecutor("LoadingListView", PAGE_THREADS);
+		}
+		return sPageExecutor;
+	}
+
+	/**
+	 * Hands the result of a page loaded in the background
+	 * to the main thread.
+	 */
+	private void onPageFinished(final PageResult result){
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(result.generation != mGeneration){
+					// the pages are reset meanwhile
+					return;
+				}
+				mLoadedPages.put(result.page, result);
+				deliverPages();
+			}
+		});
+	}
+
+	/**
+	 * Delivers the loaded pages in order, stops at a
+	 * missing or failed page.
+	 */
+	@SuppressWarnings("unchecked")
+	private void deliverPages(){
+		PageResult result;
+		while((result = mLoadedPages.get(mNextDeliveredPage)) != null){
+			mLoadedPages.remove(mNextDeliveredPage);
+			mPagesInFlight--;
+			OnPageListener<Object> listener =
+				(OnPageListener<Object>) result.listener;
+			if(result.error != null){
+				onPageFailed(listener, result);
+				return;
+			}
+			mNextDeliveredPage++;
+			mFailures = 0;
+			mState.compareAndSet(STATE_LOADING, STATE_IDLE);
+			listener.onPageLoaded(this, result.page, result.data);
+		}
+	}
+
+	private void onPageFailed(OnPageListener<Object> listener,
+			PageResult result){
+		// later pages wait until this one is loaded
+		mFailedPage = result.page;
+		// notifyEndOfData may run in another thread meanwhile
+		int state;
+		do {
+			state = mState.get();
+			if(state == STATE_EXHAUSTED){
+				// a page past the end may fail, it's not needed
+				return;
+			}
+		} while(!mState.compareAndSet(state, STATE_ERROR));
+		mFailures++;
+		listener.onPageFailed(this, result.page, result.error);
+		if(mMaxRetries < 0 || mFailures <= mMaxRetries){
+			mHandler.removeCallbacks(mRetryRunnable);
+			mHandler.postDelayed(mRetryRunnable, getBackoff(mFailures));
+		}
+	}
+
+	/**
+	 * Returns the delay before the given retry, doubled
+	 * after each consecutive failure.
+	 */
+	private long getBackoff(int failures){
+		long delay = mRetryDelay << Math.min(failures - 1, 16);
+		return Math.min(delay, MAX_RETRY_DELAY);
+	}
+
+	private final Runnable mRetryRunnable = new Runnable() {
+		@Override
+		public void run() {
+			retry();
+		}
+	};
+
+	/**
+	 * Retries the failed page now, e.g. when the user taps
+	 * a retry row. Does nothing if no page has failed.
+	 * Should be called in the main thread.
+	 */
+	public void retry(){
+		mHandler.removeCallbacks(mRetryRunnable);
+		if(mState.compareAndSet(STATE_ERROR, STATE_IDLE)){
+			loadMore();
+		}
+	}
+
+	/**
+	 * Signals that there are no more pages, so the listener
+	 * is not invoked anymore until resetPages is called. It
+	 * can be called from any thread, e.g. from loadPage.
+	 */
+	public void notifyEndOfData(){
+		mState.set(STATE_EXHAUSTED);
+		mHandler.removeCallbacks(mRetryRunnable);
+	}
+
+	/**
+	 * Gets the state of the page loading, one of STATE_IDLE,
+	 * STATE_LOADING, STATE_EXHAUSTED and STATE_ERROR.
+	 *
+	 * @return the state
+	 */
+	public int getState() {
+		return mState.get();
+	}
+
+	/**
+	 * Forgets the loaded pages, e.g. when the data is refreshed.
+	 * The pages in flight are ignored when they are finished,
+	 * and the next load starts from the first page. Should be
+	 * called in the main thread.
+	 */
+	public void resetPages(){
+		mHandler.removeCallbacks(mRetryRunnable);
+		mGeneration++;
+		mLoadedPages.clear();
+		mNextPage = 0;
+		mNextDeliveredPage = 0;
+		mPagesInFlight = 0;
+		mFailedPage = -1;
+		mFailures = 0;
+		mState.set(STATE_IDLE);
+	}
+
+	/**
+	 * Gets the next page that will be loaded.
+	 *
+	 * @return the page number
+	 */
+	public int getNextPage() {
+		return mNextPage;
+	}
+
+	/**
+	 * Sets the delay before the first retry of a failed
+	 * page. It's doubled after each consecutive failure.
+	 *
+	 * @param millis the delay in milliseconds
+	 */
+	public void setRetryDelay(long millis) {
+		if(millis <= 0){
+			throw new IllegalArgumentException("millis <= 0");
+		}
+		mRetryDelay = millis;
+	}
+
+	/**
+	 * Sets how many times a failed page is retried
+	 * automatically, -1 for no limit. Afterwards the list
+	 * stays in STATE_ERROR until retry is called. Defaults
+	 * to DEFAULT_MAX_RETRIES.
+	 *
+	 * @param retries the maximum number of retries
+	 */
+	public void setMaxRetries(int retries) {
+		mMaxRetries = retries;
+	}
+
+	/**
+	 * Sets the number of items from the end of the list
+	 * that triggers loading the next page. 0 loads when
+	 * the last item becomes visible.
+	 *
+	 * @param items the number of items
+	 */
+	public void setPrefetchDistance(int items) {
+		if(items < 0){
+			throw new IllegalArgumentException("items < 0");
+		}
+		mPrefetchDistance = items;
+	}
+
+	/**
+	 * Sets the prefetch distance in screens, e.g. 1 starts
+	 * loading when the remaining items fit into a screen.
+	 * The larger of this and setPrefetchDistance is used.
+	 *
+	 * @param screens the number of screens
+	 */
+	public void setPrefetchScreens(float screens) {
+		if(screens < 0){
+			throw new IllegalArgumentException("screens < 0");
+		}
+		mPrefetchScreens = screens;
+	}
+
+	/**
+	 * Sets how many pages can be loaded concurrently. With 2,
+	 * the next page is loading while the previous one is
+	 * being rendered. Pages are delivered in order anyway.
+	 * Defaults to 1.
+	 *
+	 * @param pages the maximum pages in flight
+	 */
+	public void setMaxPagesInFlight(int pages) {
+		if(pages <= 0){
+			throw new IllegalArgumentException("pages <= 0");
+		}
+		mMaxPagesInFlight = pages;
+	}
+
+	/**
+	 * Pauses the images of the rows of this list, images
+	 * of the other views go on.
+	 */
+	private void pauseImages(){
+		if(mPauseImagesOnFling && !mPausedImages){
+			mPausedImages = true;
+			ImageLoader.getInstance().pause(this);
+		}
+	}
+
+	/**
+	 * Resumes the images of the rows if this list paused them.
+	 */
+	private void resumeImages(){
+		if(mPausedImages){
+			mPausedImages = false;
+			ImageLoader.getInstance().resume(this, true);
+		}
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		// a list detached while flinging never
+		// goes idle, don't keep its images paused
+		resumeImages();
+		super.onDetachedFromWindow();
+	}
+
+	/**
+	 * Sets whether image decoding and delivery are paused
+	 * while the list is flinging. Images are downloaded
+	 * meanwhile, and shown when the list stops. Defaults
+	 * to true.
+	 *
+	 * @param pauseImagesOnFling true to pause while flinging
+	 */
+	public void setPauseImagesOnFling(boolean pauseImagesOnFling) {
+		mPauseImagesOnFling = pauseImagesOnFling;
+		if(!pauseImagesOnFling){
+			resumeImages();
+		}
+	}
+
 	/**
 	 * Gets the on more handler.
 	 *
@@ -124,6 +491,15 @@ public class LoadingListView extends ListView {
 		return mOnMoreListener;
 	}
 
+	/**
+	 * Gets the on page listener.
+	 *
+	 * @return the on page listener
+	 */
+	public OnPageListener<?> getOnPageListener() {
+		return mOnPageListener;
+	}
+
 	/**
 	 * Gets the onScrollListener.
 	 *
@@ -134,14 +510,27 @@ public class LoadingListView extends ListView {
 	}
 
 	/**
-	 * Sets the onMoreHandler.
+	 * Sets the onMoreHandler. It's run as a page listener
+	 * ignoring the page numbers, one page at a time.
 	 *
 	 * @param onMoreHandler
 	 */
 	public void setOnMoreHandler(OnMoreListener onMoreListener) {
 		mOnMoreListener = onMoreListener;
+		mMaxPagesInFlight = 1;
+		setOnPageListener(onMoreListener == null ? null
+				: new OnMorePageListener(onMoreListener));
+	}
+
+	/**
+	 * Sets the listener that loads the pages.
+	 *
+	 * @param onPageListener
+	 */
+	public void setOnPageListener(OnPageListener<?> onPageListener) {
+		mOnPageListener = onPageListener;
 	}
-	
+
 	/**
 	 * Sets the onScrollListener
 	 *
@@ -150,69 +539,174 @@ public class LoadingListView extends ListView {
 	public void setScrollListener(OnScrollListener listener){
 		mOnScrollListener = listener;
 	}
-	
+
 	/**
 	 * OnMoreHandler interface should be implemented
 	 * to set actions when list view scrolled to the
 	 * bottom.
 	 */
 	public interface OnMoreListener {
-		
+
 		/**
 		 * Executed in the main thread before run
-		 * is executed. 
+		 * is executed.
 		 *
 		 * @param listView
 		 */
 		void onPreExecute(LoadingListView listView);
-		
+
 		/**
 		 * Executed in the main thread after run
-		 * is executed. Set new data to the list 
+		 * is executed. Set new data to the list
 		 * adapter here.
 		 *
 		 * @param listView
 		 */
 		void onPostExecute(LoadingListView listView);
-		
+
 		/**
 		 * The method that runs in a background
 		 * thread that is responsible to fetch
 		 * more data
 		 *
-		 * @param listView 
+		 * @param listView
 		 */
 		void run(LoadingListView listView);
 	}
-	
+
 	/**
-	 * BackgroundTask is responsible to run
-	 * OnMoreHandler methods as an AsyncTask.
+	 * OnPageListener loads the pages of the list by their
+	 * numbers, starting from 0. Pages may be loaded
+	 * concurrently, but they are delivered in order.
+	 *
+	 * @param <T> the type of a page
 	 */
-	private class BackgroundTask extends AsyncTask<Void, Boolean, Void>{
+	public interface OnPageListener<T> {
+
+		/**
+		 * Executed in the main thread when a page
+		 * is requested, e.g. to show a progress row.
+		 *
+		 * @param listView
+		 * @param page the page number
+		 */
+		void onPageRequested(LoadingListView listView, int page);
+
+		/**
+		 * Runs in a background thread and fetches the page.
+		 *
+		 * @param listView
+		 * @param page the page number
+		 * @return the page
+		 * @throws Exception if the page can't be loaded
+		 */
+		T loadPage(LoadingListView listView, int page) throws Exception;
+
+		/**
+		 * Executed in the main thread, in the order of the
+		 * pages. Add the page to the list adapter here.
+		 *
+		 * @param listView
+		 * @param page the page number
+		 * @param result the page returned by loadPage
+		 */
+		void onPageLoaded(LoadingListView listView, int page, T result);
+
+		/**
+		 * Executed in the main thread when the page can't be
+		 * loaded. Later pages are delivered after this page
+		 * is loaded again.
+		 *
+		 * @param listView
+		 * @param page the page number
+		 * @param e the exception thrown by loadPage
+		 */
+		void onPageFailed(LoadingListView listView, int page, Exception e);
+	}
+
+	/**
+	 * Runs an OnMoreListener as a page listener.
+	 */
+	private static class OnMorePageListener implements OnPageListener<Void> {
+		private final OnMoreListener mListener;
+
+		OnMorePageListener(OnMoreListener listener) {
+			mListener = listener;
+		}
 
 		@Override
-		protected Void doInBackground(Void... params) {
-			if(mOnMoreListener != null){
-				mOnMoreListener.run(LoadingListView.this);
-			}
+		public void onPageRequested(LoadingListView listView, int page) {
+			mListener.onPreExecute(listView);
+		}
+
+		@Override
+		public Void loadPage(LoadingListView listView, int page) {
+			mListener.run(listView);
 			return null;
 		}
-		
+
 		@Override
-		protected void onPostExecute(Void result) {
-			if(mOnMoreListener != null){
-				mOnMoreListener.onPostExecute(LoadingListView.this);
-			}
-			super.onPostExecute(result);
+		public void onPageLoaded(LoadingListView listView, int page,
+				Void result) {
+			mListener.onPostExecute(listView);
+		}
+
+		@Override
+		public void onPageFailed(LoadingListView listView, int page,
+				Exception e) {
+			// OnMoreListener has no failure callback
+			Log.w(TAG, "Unable to load more", e);
+			mListener.onPostExecute(listView);
 		}
-		
+	}
+
+	/**
+	 * The result of a page loaded in the background.
+	 */
+	private static class PageResult {
+		final OnPageListener<?> listener;
+		final int page;
+		final int generation;
+		final Object data;
+		final Exception error;
+
+		PageResult(OnPageListener<?> listener, int page, int generation,
+				Object data, Exception error) {
+			this.listener = listener;
+			this.page = page;
+			this.generation = generation;
+			this.data = data;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * PageTask runs OnPageListener.loadPage in the page
+	 * threads. Earlier pages run first.
+	 */
+	private class PageTask extends PriorityExecutor.Task {
+		private final OnPageListener<?> mListener;
+		private final int mPage;
+		private final int mGeneration;
+
+		PageTask(OnPageListener<?> listener, int page, int generation) {
+			super(-page);
+			mListener = listener;
+			mPage = page;
+			mGeneration = generation;
+		}
+
 		@Override
-		protected void onPreExecute() {
-			super.onPreExecute();
-			if(mOnMoreListener != null){
-				mOnMoreListener.onPreExecute(LoadingListView.this);
+		public void run() {
+			Object data = null;
+			Exception error = null;
+			try {
+				data = mListener.loadPage(LoadingListView.this, mPage);
+			} catch (Exception e) {
+				error = e;
 			}
+			onPageFinished(new PageResult(mListener, mPage,
+					mGeneration, data, error));
 		}
 	}
 
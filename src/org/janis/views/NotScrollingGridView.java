@@ -5,83 +5,266 @@
 package org.janis.views;
 
 import android.content.Context;
+import android.database.DataSetObserver;
 import android.util.AttributeSet;
-import android.view.View;
 import android.view.ViewGroup;
 import android.widget.GridView;
 import android.widget.ListAdapter;
 
+/**
+ * A grid view that grows in height to show all of its items,
+ * so it can be put into a ScrollView.
+ *
+ * Every cell is measured against the real column width, and
+ * a row is as tall as its tallest cell. Cells are measured with
+ * one recycled view per view type and their heights are cached.
+ * If the adapter has stable ids, only the changed cells are
+ * measured again when it changes, see invalidateHeight. Without
+ * stable ids all the cells are measured again.
+ */
 public class NotScrollingGridView extends GridView {
-	
+
+	// set by the GridView constructor through the setters,
+	// so they must not have initializers
 	private int mNumCols;
 	private int mVerticalSpacing;
-	
+	private int mHorizontalSpacing;
+	private int mColumnWidth;
+	private int mStretchMode;
+
+	private final ItemMeasurer mMeasurer = new ItemMeasurer();
+	private int[] mRowHeights = new int[0];
+
+	private final DataSetObserver mObserver = new DataSetObserver() {
+		@Override
+		public void onChanged() {
+			ListAdapter adapter = getAdapter();
+			if(adapter != null){
+				mMeasurer.onDataChanged(adapter);
+				setHeightBasedOnItems();
+			}
+		}
+
+		@Override
+		public void onInvalidated() {
+			mMeasurer.invalidateAll(getAdapter());
+			setHeightBasedOnItems();
+		}
+	};
+
+	private final AdapterObservation mObservation =
+		new AdapterObservation(mObserver);
+
+	private final Runnable mMeasureRunnable = new Runnable() {
+		@Override
+		public void run() {
+			setHeightBasedOnItems();
+		}
+	};
+
 	public NotScrollingGridView(Context context, AttributeSet attrs) {
 		super(context, attrs);
 		init(attrs);
 	}
-	
+
 	public NotScrollingGridView(Context context, AttributeSet attrs,
 			int defStyle) {
 		super(context, attrs, defStyle);
 		init(attrs);
 	}
-	
+
 	private void init(AttributeSet attrs){
-		// TODO: Should janis ignore default Android
-		// namespace or work with it.
-		// It's not very common not to use default android ns,
-		// but it's possible
-		mNumCols = attrs
-			.getAttributeIntValue(null, "numColumns", 0);
-		mVerticalSpacing = attrs
-			.getAttributeIntValue(null, "verticalSpacing", 0);
-		
-		setNumColumns(mNumCols);
-		setVerticalSpacing(mVerticalSpacing);
-	}
-	
+		// Attributes in the android namespace are read by
+		// GridView. The ones without a namespace are still
+		// supported for the layouts written for older versions.
+		if(attrs.getAttributeValue(null, "numColumns") != null){
+			setNumColumns(attrs.getAttributeIntValue(null, "numColumns", 0));
+		}
+		if(attrs.getAttributeValue(null, "verticalSpacing") != null){
+			setVerticalSpacing(
+					attrs.getAttributeIntValue(null, "verticalSpacing", 0));
+		}
+	}
+
 	@Override
 	public void setAdapter(ListAdapter adapter) {
 		super.setAdapter(adapter);
+		mObservation.setAdapter(getAdapter());
+		mMeasurer.reset(getAdapter());
 		setHeightBasedOnItems();
 	}
-	
+
+	@Override
+	public void setNumColumns(int numColumns) {
+		super.setNumColumns(numColumns);
+		mNumCols = numColumns;
+		remeasure();
+	}
+
+	@Override
+	public void setVerticalSpacing(int verticalSpacing) {
+		super.setVerticalSpacing(verticalSpacing);
+		mVerticalSpacing = verticalSpacing;
+		remeasure();
+	}
+
+	@Override
+	public void setHorizontalSpacing(int horizontalSpacing) {
+		super.setHorizontalSpacing(horizontalSpacing);
+		mHorizontalSpacing = horizontalSpacing;
+		remeasure();
+	}
+
+	@Override
+	public void setColumnWidth(int columnWidth) {
+		super.setColumnWidth(columnWidth);
+		mColumnWidth = columnWidth;
+		remeasure();
+	}
+
+	@Override
+	public void setStretchMode(int stretchMode) {
+		super.setStretchMode(stretchMode);
+		mStretchMode = stretchMode;
+		remeasure();
+	}
+
+	private void remeasure(){
+		// the setters are called by the GridView constructor
+		// before the fields of this class are initialized
+		if(mMeasurer != null){
+			removeCallbacks(mMeasureRunnable);
+			post(mMeasureRunnable);
+		}
+	}
+
 	/**
-	 * Sets the height based on items.
-	 * So, grid view doesn't scroll. But this avoids
-	 * item view caching and could cause out of memory
-	 * space problems.
+	 * Measures the cell at the position again, e.g. when its
+	 * content is changed but the adapter has stable ids.
+	 * Call it before notifyDataSetChanged.
+	 *
+	 * @param position the position of the cell
+	 */
+	public void invalidateHeight(int position) {
+		mMeasurer.invalidate(position);
+	}
+
+	/**
+	 * Sets the height based on items, so grid view doesn't
+	 * scroll. Only the cells that are not measured yet are
+	 * measured. The height is set once the width of the view
+	 * is known.
 	 */
 	public void setHeightBasedOnItems() {
+		removeCallbacks(mMeasureRunnable);
 		ListAdapter adapter = getAdapter();
 		// If no adapter, it's impossible to calculate
 		// the height
-		
-		if (adapter == null || mNumCols <= 0) return;
+		if (adapter == null) return;
 
+		int width = getWidth() - getPaddingLeft() - getPaddingRight();
+		if(width <= 0){
+			// measured once the width is known
+			return;
+		}
+		int columns = getColumnCount(width);
+		mMeasurer.setWidthSpec(MeasureSpec.makeMeasureSpec(
+				getColumnWidth(width, columns), MeasureSpec.EXACTLY));
+
+		int count = Math.min(mMeasurer.getCount(), adapter.getCount());
+		int rows = (count + columns - 1) / columns;
+		if(mRowHeights.length != rows){
+			mRowHeights = new int[rows];
+		}
 		int height = 0;
-		int width = MeasureSpec.makeMeasureSpec(getWidth(), MeasureSpec.AT_MOST);
-		int numVerticalItems = (int) Math.ceil(adapter.getCount()/mNumCols) + 1;
-		
-		for (int i = 0; i < numVerticalItems; i++) {
-			// Create a grid item to measure height
-			View itemView = adapter.getView(i, null, this);
-			itemView.measure(width, MeasureSpec.UNSPECIFIED);
-			height += itemView.getMeasuredHeight();
+		for (int row = 0; row < rows; row++) {
+			// a row is as tall as its tallest cell
+			int rowHeight = 0;
+			int end = Math.min((row + 1) * columns, count);
+			for (int i = row * columns; i < end; i++) {
+				int cellHeight = mMeasurer.getHeight(i);
+				if(cellHeight == ItemMeasurer.UNMEASURED){
+					cellHeight = mMeasurer.measure(adapter, i, this);
+				}
+				rowHeight = Math.max(rowHeight, cellHeight);
+			}
+			mRowHeights[row] = rowHeight;
+			height += rowHeight;
 		}
-		
-		int newHeight = (2*numVerticalItems) * mVerticalSpacing + height;
-		
+
+		int newHeight = height + Math.max(rows - 1, 0) * mVerticalSpacing
+			+ getPaddingTop() + getPaddingBottom();
+
 		ViewGroup.LayoutParams params = getLayoutParams();
 		if(params == null){
-			params = new ViewGroup.LayoutParams(width, newHeight);
+			params = new ViewGroup.LayoutParams(
+					ViewGroup.LayoutParams.MATCH_PARENT, newHeight);
+		} else if(params.height == newHeight){
+			return;
 		} else {
 			params.height = newHeight;
 		}
-		
+
 		setLayoutParams(params);
 		requestLayout();
 	}
 
+	/**
+	 * Gets the measured height of a row.
+	 *
+	 * @param row the index of the row
+	 * @return the height of the row in pixels
+	 */
+	public int getRowHeight(int row) {
+		return mRowHeights[row];
+	}
+
+	/**
+	 * Computes the number of columns like GridView does.
+	 */
+	private int getColumnCount(int width){
+		if(mNumCols > 0){
+			return mNumCols;
+		}
+		if(mColumnWidth > 0){
+			return Math.max(1, (width + mHorizontalSpacing)
+					/ (mColumnWidth + mHorizontalSpacing));
+		}
+		// GridView's default for auto fit without a column width
+		return 2;
+	}
+
+	/**
+	 * Computes the width of a column like GridView does.
+	 */
+	private int getColumnWidth(int width, int columns){
+		if(mStretchMode != STRETCH_COLUMN_WIDTH && mColumnWidth > 0){
+			return mColumnWidth;
+		}
+		return Math.max(0,
+				(width - (columns - 1) * mHorizontalSpacing) / columns);
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		if(w != oldw){
+			// cells wrap differently, measured after the layout
+			post(mMeasureRunnable);
+		}
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		mObservation.onAttachedToWindow();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		removeCallbacks(mMeasureRunnable);
+		mObservation.onDetachedFromWindow();
+		super.onDetachedFromWindow();
+	}
+
 }
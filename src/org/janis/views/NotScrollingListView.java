@@ -4,71 +4,230 @@
 package org.janis.views;
 
 import android.content.Context;
+import android.database.DataSetObserver;
 import android.util.AttributeSet;
-import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ListAdapter;
 import android.widget.ListView;
 
+/**
+ * A list view that grows in height to show all of its items,
+ * so it can be put into a ScrollView.
+ *
+ * Rows are measured with one recycled view per view type, and
+ * the height of each row is cached. Re-measuring only the changed
+ * rows needs an adapter with stable ids: when it changes, cached
+ * heights are kept for the same ids, and rows whose content changed
+ * are marked with invalidateHeight. Without stable ids, any row may
+ * hold another item after a change, so all the rows are measured
+ * again.
+ * Very long lists can be measured in time slices across frames,
+ * see setMeasureTimeSlice.
+ */
 public class NotScrollingListView extends ListView {
 
-	
+	private final ItemMeasurer mMeasurer = new ItemMeasurer();
+	private long mTimeSliceNanos;
+
+	private final DataSetObserver mObserver = new DataSetObserver() {
+		@Override
+		public void onChanged() {
+			onDataChanged();
+		}
+
+		@Override
+		public void onInvalidated() {
+			invalidateHeights();
+		}
+	};
+
+	private final AdapterObservation mObservation =
+		new AdapterObservation(mObserver);
+
+	private final Runnable mMeasureRunnable = new Runnable() {
+		@Override
+		public void run() {
+			measureHeights();
+		}
+	};
+
 	public NotScrollingListView(Context context) {
 		super(context);
 	}
-	
+
 	public NotScrollingListView(Context context, AttributeSet attrs) {
 		super(context, attrs);
 	}
-	
+
 	public NotScrollingListView(Context context, AttributeSet attrs,
 			int defStyle) {
 		super(context, attrs, defStyle);
 	}
-	
+
 	/**
 	 * Sets a new ListAdapter to the listView. After,
 	 * adapter is set, it calls setHeightBasedOnItems
 	 * and changes the height of the listView depending
-	 * on the number of the items. So, listView wont scroll 
-	 * and can be used in a separate ScrollView. 
+	 * on the number of the items. So, listView wont scroll
+	 * and can be used in a separate ScrollView.
 	 */
 	@Override
 	public void setAdapter(ListAdapter adapter) {
 		super.setAdapter(adapter);
-		setHeightBasedOnItems();
+		mObservation.setAdapter(getAdapter());
+		mMeasurer.reset(getAdapter());
+		measureHeights();
+	}
+
+	/**
+	 * Sets the maximum time spent measuring rows in a frame.
+	 * If the rows can't be measured in time, the rest are
+	 * measured in the next frames and the height is estimated
+	 * meanwhile. 0 measures all rows at once, the default.
+	 *
+	 * @param millis the time slice in milliseconds
+	 */
+	public void setMeasureTimeSlice(long millis) {
+		if(millis < 0){
+			throw new IllegalArgumentException("millis < 0");
+		}
+		mTimeSliceNanos = millis * 1000000L;
 	}
-	
+
 	/**
-	 * Sets the height based on items.
+	 * Sets the height based on items. All the rows are
+	 * measured again.
 	 */
 	public void setHeightBasedOnItems() {
+		invalidateHeights();
+	}
+
+	/**
+	 * Measures the row at the position again, e.g. when its
+	 * content is changed but the adapter has stable ids.
+	 * Call it before notifyDataSetChanged. Without stable ids
+	 * it's not needed, all the rows are measured again.
+	 *
+	 * @param position the position of the row
+	 */
+	public void invalidateHeight(int position) {
+		mMeasurer.invalidate(position);
+	}
+
+	/**
+	 * Forgets the cached heights and measures all the rows.
+	 */
+	public void invalidateHeights() {
+		mMeasurer.invalidateAll(getAdapter());
+		measureHeights();
+	}
+
+	/**
+	 * Keeps the heights of the rows that are not changed,
+	 * and measures the rest.
+	 */
+	private void onDataChanged() {
+		ListAdapter adapter = getAdapter();
+		if(adapter == null){
+			return;
+		}
+		mMeasurer.onDataChanged(adapter);
+		measureHeights();
+	}
+
+	/**
+	 * Measures the rows that are not measured yet, in a time
+	 * slice if there is one, and updates the height.
+	 */
+	private void measureHeights() {
+		removeCallbacks(mMeasureRunnable);
 		ListAdapter adapter = getAdapter();
 		// If no adapter, it's impossible to calculate
 		// the height
 		if (adapter == null) return;
 
+		int width = getWidth() - getPaddingLeft() - getPaddingRight();
+		if(width <= 0){
+			// measured once the width is known
+			return;
+		}
+		mMeasurer.setWidthSpec(
+				MeasureSpec.makeMeasureSpec(width, MeasureSpec.AT_MOST));
+		long deadline = System.nanoTime() + mTimeSliceNanos;
+		boolean complete = true;
+		int count = Math.min(mMeasurer.getCount(), adapter.getCount());
+		for (int i = 0; i < count; i++) {
+			if(mMeasurer.getHeight(i) != ItemMeasurer.UNMEASURED){
+				continue;
+			}
+			if(mTimeSliceNanos > 0 && System.nanoTime() > deadline){
+				complete = false;
+				break;
+			}
+			mMeasurer.measure(adapter, i, this);
+		}
+		applyHeight(count);
+		if(!complete){
+			post(mMeasureRunnable);
+		}
+	}
+
+	/**
+	 * Sets the height to the sum of the rows. Rows that are
+	 * not measured yet are estimated by the average height.
+	 */
+	private void applyHeight(int count) {
 		int height = 0;
-		int width = MeasureSpec.makeMeasureSpec(getWidth(), MeasureSpec.AT_MOST);
-		for (int i = 0; i < adapter.getCount(); i++) {
-			// Create a row for measurements
-			View itemView = adapter.getView(i, null, this);
-			itemView.measure(width, MeasureSpec.UNSPECIFIED);
-			height += itemView.getMeasuredHeight();
+		int measured = 0;
+		for (int i = 0; i < count; i++) {
+			int rowHeight = mMeasurer.getHeight(i);
+			if(rowHeight != ItemMeasurer.UNMEASURED){
+				height += rowHeight;
+				measured++;
+			}
+		}
+		if(measured > 0 && measured < count){
+			height += (long) height * (count - measured) / measured;
 		}
-		
+
 		// The final height is row heights + divider heights
-		int newHeight = height + (getDividerHeight() * (getCount() - 1));
+		int newHeight = height + getPaddingTop() + getPaddingBottom()
+			+ (getDividerHeight() * Math.max(count - 1, 0));
 
 		ViewGroup.LayoutParams params = getLayoutParams();
 		if(params == null){
-			params = new ViewGroup.LayoutParams(width, newHeight);
+			params = new ViewGroup.LayoutParams(
+					ViewGroup.LayoutParams.MATCH_PARENT, newHeight);
+		} else if(params.height == newHeight){
+			return;
 		} else {
 			params.height = newHeight;
 		}
-		
+
 		setLayoutParams(params);
 		requestLayout();
 	}
 
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		if(w != oldw){
+			// rows wrap differently, measured after the layout
+			post(mMeasureRunnable);
+		}
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		mObservation.onAttachedToWindow();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		removeCallbacks(mMeasureRunnable);
+		mObservation.onDetachedFromWindow();
+		super.onDetachedFromWindow();
+	}
+
 }
@@ -0,0 +1,25 @@
+package org.janis.views;
+
+import android.widget.BaseAdapter;
+
+/**
+ * An adapter of the pages of a PagedScrollView or a
+ * HorizontalPagedScrollView. Page views are recycled by their
+ * view type like the rows of a list view, so getView should
+ * bind the page into convertView when it isn't null.
+ *
+ * Any Adapter can be used as pages, this class adds a hook to
+ * prefetch the content of the page the user is scrolling to.
+ */
+public abstract class PageAdapter extends BaseAdapter {
+
+	/**
+	 * Called when the page is about to be shown, before its
+	 * view is created, e.g. to start loading its images or data.
+	 * Called on the main thread, it shouldn't block.
+	 *
+	 * @param position the position of the page
+	 */
+	public void onPrefetchPage(int position) {
+	}
+}
@@ -0,0 +1,283 @@
+package org.janis.views;
+
+import java.util.LinkedList;
+
+import android.content.Context;
+import android.database.DataSetObserver;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Adapter;
+
+/**
+ * The only child of a paged scroll view in adapter mode. It is
+ * as long as all of the pages, but only the pages around the
+ * scroll position are attached: the others are given back to
+ * the adapter as convert views, one scrap list per view type.
+ */
+final class PageStrip extends ViewGroup {
+
+	private final boolean mVertical;
+	private final SparseArray<Page> mPages = new SparseArray<Page>();
+	private final SparseArray<LinkedList<View>> mScrapViews =
+		new SparseArray<LinkedList<View>>();
+	private Adapter mAdapter;
+	private int mPageWidth;
+	private int mPageHeight;
+	private int mOffscreenLimit = 1;
+	private int mLastScroll;
+	private int mLastPrefetched = -1;
+
+	private final DataSetObserver mObserver = new DataSetObserver() {
+		@Override
+		public void onChanged() {
+			recycleAll();
+			requestLayout();
+		}
+
+		@Override
+		public void onInvalidated() {
+			recycleAll();
+			mScrapViews.clear();
+			requestLayout();
+		}
+	};
+
+	private final AdapterObservation mObservation =
+		new AdapterObservation(mObserver);
+
+	PageStrip(Context context, boolean vertical) {
+		super(context);
+		mVertical = vertical;
+	}
+
+	void setAdapter(Adapter adapter) {
+		recycleAll();
+		mScrapViews.clear();
+		mAdapter = adapter;
+		mLastPrefetched = -1;
+		mObservation.setAdapter(adapter);
+		requestLayout();
+	}
+
+	Adapter getAdapter() {
+		return mAdapter;
+	}
+
+	void setOffscreenPageLimit(int limit) {
+		mOffscreenLimit = limit;
+		populate(mLastScroll);
+	}
+
+	int getOffscreenPageLimit() {
+		return mOffscreenLimit;
+	}
+
+	/**
+	 * Sets the size of a page, the size of the scroll view
+	 * without its padding.
+	 */
+	void setPageSize(int width, int height) {
+		if(width != mPageWidth || height != mPageHeight){
+			mPageWidth = width;
+			mPageHeight = height;
+			requestLayout();
+		}
+	}
+
+	int getPageCount() {
+		return mAdapter == null ? 0 : mAdapter.getCount();
+	}
+
+	/**
+	 * @return the page at the position if it's attached, or null
+	 */
+	View getPage(int position) {
+		Page page = mPages.get(position);
+		return page == null ? null : page.mView;
+	}
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		// the pages are refreshed on attach
+		mObservation.onAttachedToWindow();
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		mObservation.onDetachedFromWindow();
+		super.onDetachedFromWindow();
+	}
+
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		int count = getPageCount();
+		if(mVertical){
+			setMeasuredDimension(mPageWidth, mPageHeight * count);
+		} else {
+			setMeasuredDimension(mPageWidth * count, mPageHeight);
+		}
+		for (int i = 0; i < mPages.size(); i++) {
+			measurePage(mPages.valueAt(i).mView);
+		}
+	}
+
+	@Override
+	protected void onLayout(boolean changed, int l, int t, int r, int b) {
+		// pages out of the adapter are dropped after a data change
+		int count = getPageCount();
+		for (int i = mPages.size() - 1; i >= 0; i--) {
+			if(mPages.keyAt(i) >= count){
+				recyclePage(i);
+			}
+		}
+		for (int i = 0; i < mPages.size(); i++) {
+			layoutPage(mPages.keyAt(i), mPages.valueAt(i).mView);
+		}
+		populate(mLastScroll);
+	}
+
+	private void measurePage(View page) {
+		page.measure(MeasureSpec.makeMeasureSpec(mPageWidth, MeasureSpec.EXACTLY),
+				MeasureSpec.makeMeasureSpec(mPageHeight, MeasureSpec.EXACTLY));
+	}
+
+	private void layoutPage(int position, View page) {
+		if(mVertical){
+			int top = position * mPageHeight;
+			page.layout(0, top, mPageWidth, top + mPageHeight);
+		} else {
+			int left = position * mPageWidth;
+			page.layout(left, 0, left + mPageWidth, mPageHeight);
+		}
+	}
+
+	/**
+	 * Attaches the pages within the offscreen limit of the
+	 * visible ones, recycles the rest, and prefetches the next
+	 * page in the scroll direction.
+	 *
+	 * @param scroll the scroll position along the strip
+	 */
+	void populate(int scroll) {
+		int direction = scroll - mLastScroll;
+		mLastScroll = scroll;
+		int count = getPageCount();
+		int pageSize = mVertical ? mPageHeight : mPageWidth;
+		if(count == 0 || pageSize <= 0){
+			return;
+		}
+		// one or two pages are visible while scrolling
+		int firstVisible = Math.max(0, Math.min(scroll / pageSize, count - 1));
+		int lastVisible = Math.min((scroll + pageSize - 1) / pageSize, count - 1);
+		int first = Math.max(0, firstVisible - mOffscreenLimit);
+		int last = Math.min(count - 1, Math.max(lastVisible, firstVisible)
+				+ mOffscreenLimit);
+
+		for (int i = mPages.size() - 1; i >= 0; i--) {
+			int position = mPages.keyAt(i);
+			if(position < first || position > last){
+				recyclePage(i);
+			}
+		}
+		for (int position = first; position <= last; position++) {
+			if(mPages.get(position) == null){
+				addPage(position);
+			}
+		}
+
+		int prefetch = direction < 0 ? first - 1 : last + 1;
+		if(direction != 0 && prefetch >= 0 && prefetch < count
+				&& prefetch != mLastPrefetched
+				&& mAdapter instanceof PageAdapter){
+			mLastPrefetched = prefetch;
+			((PageAdapter) mAdapter).onPrefetchPage(prefetch);
+		}
+	}
+
+	private void addPage(int position) {
+		int type = mAdapter.getItemViewType(position);
+		View convertView = null;
+		if(type != Adapter.IGNORE_ITEM_VIEW_TYPE){
+			LinkedList<View> scrap = mScrapViews.get(type);
+			if(scrap != null){
+				convertView = scrap.poll();
+			}
+		}
+		View page = mAdapter.getView(position, convertView, this);
+		LayoutParams params = page.getLayoutParams();
+		if(params == null){
+			params = new LayoutParams(LayoutParams.MATCH_PARENT,
+					LayoutParams.MATCH_PARENT);
+		}
+		// laid out here, so the strip isn't laid out again
+		addViewInLayout(page, -1, params, true);
+		measurePage(page);
+		layoutPage(position, page);
+		mPages.put(position, new Page(page, type));
+		invalidate();
+	}
+
+	private void recyclePage(int index) {
+		Page page = mPages.valueAt(index);
+		mPages.removeAt(index);
+		removeViewInLayout(page.mView);
+		if(page.mType != Adapter.IGNORE_ITEM_VIEW_TYPE){
+			LinkedList<View> scrap = mScrapViews.get(page.mType);
+			if(scrap == null){
+				scrap = new LinkedList<View>();
+				mScrapViews.put(page.mType, scrap);
+			}
+			scrap.add(page.mView);
+		}
+		invalidate();
+	}
+
+	private void recycleAll() {
+		for (int i = mPages.size() - 1; i >= 0; i--) {
+			recyclePage(i);
+		}
+	}
+
+	/**
+	 * Computes the page to snap to when a drag ends.
+	 *
+	 * @param scroll the scroll position
+	 * @param pageSize the size of a page
+	 * @param pageCount the number of pages
+	 * @param velocity the velocity towards the end, in pixels per second
+	 * @param minVelocity the minimum velocity of a fling
+	 * @return the page to snap to
+	 */
+	static int getSnapPage(int scroll, int pageSize, int pageCount,
+			float velocity, int minVelocity) {
+		if(pageSize <= 0 || pageCount <= 0){
+			return 0;
+		}
+		float position = (float) scroll / pageSize;
+		int page;
+		if(velocity > minVelocity){
+			// a fling moves to the next page in its direction
+			page = (int) Math.floor(position) + 1;
+		} else if(velocity < -minVelocity){
+			page = (int) Math.ceil(position) - 1;
+		} else {
+			page = Math.round(position);
+		}
+		return Math.max(0, Math.min(page, pageCount - 1));
+	}
+
+	/**
+	 * An attached page and the view type it was created for.
+	 */
+	private static final class Page {
+		final View mView;
+		final int mType;
+
+		Page(View view, int type) {
+			mView = view;
+			mType = type;
+		}
+	}
+}
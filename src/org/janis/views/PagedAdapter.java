@@ -0,0 +1,509 @@
+package org.janis.views;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.janis.cache.DiskLruCache;
+import org.janis.concurrent.PriorityExecutor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+/**
+ * A list adapter backed by fixed size pages that are loaded
+ * by a LoadingListView. Only a window of pages around the
+ * rows being displayed is kept in memory. Pages far from
+ * the window are evicted, optionally spilled to a disk cache,
+ * and reloaded in the background when the user scrolls back.
+ * Positions don't change when pages are evicted, rows of a
+ * page that is being reloaded get a null item. A page that
+ * fails to reload is retried while it stays in the window.
+ *
+ * The window follows the visible rows, which LoadingListView
+ * reports through setVisibleRange when the adapter is its
+ * OnPageListener.
+ *
+ * E.g.:
+ *     listView.setAdapter(adapter);
+ *     listView.setOnPageListener(adapter);
+ *
+ * @param <T> the type of the items
+ */
+public abstract class PagedAdapter<T> extends BaseAdapter
+		implements LoadingListView.OnPageListener<List<T>> {
+
+	/** Default number of pages kept on each side of the visible pages. */
+	public static final int DEFAULT_WINDOW_PAGES = 3;
+
+	private final int mPageSize;
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	// accessed only in the main thread
+	private final SparseArray<List<T>> mPages = new SparseArray<List<T>>();
+	private final SparseBooleanArray mReloading = new SparseBooleanArray();
+	private final SparseBooleanArray mSpilled = new SparseBooleanArray();
+	private final SparseIntArray mReloadFailures = new SparseIntArray();
+	private int mWindowPages = DEFAULT_WINDOW_PAGES;
+	private int mPageCount;
+	private int mLastPageSize;
+	private int mFirstVisiblePage;
+	private int mLastVisiblePage;
+
+	// written only in the main thread, read by spills in flight
+	private volatile int mGeneration;
+
+	private volatile DiskLruCache mSpillCache;
+	private volatile PageSerializer<T> mSerializer;
+	private String mSpillPrefix;
+
+	/**
+	 * Constructs a new adapter.
+	 *
+	 * @param pageSize the number of items in a page, a shorter
+	 * page marks the end of the data
+	 */
+	public PagedAdapter(int pageSize) {
+		if(pageSize <= 0){
+			throw new IllegalArgumentException("pageSize <= 0");
+		}
+		mPageSize = pageSize;
+	}
+
+	/**
+	 * Runs in a background thread and fetches the items of
+	 * the page. It's called again for an evicted page that
+	 * isn't spilled to disk.
+	 *
+	 * @param page the page number, starting from 0
+	 * @return the items, at most the page size
+	 * @throws Exception if the page can't be loaded
+	 */
+	protected abstract List<T> fetchPage(int page) throws Exception;
+
+	/**
+	 * Gets the view of a row.
+	 *
+	 * @param position the position of the row
+	 * @param item the item, or null if its page is being reloaded
+	 * @param convertView the old view to reuse, may be null
+	 * @param parent the parent view
+	 * @return the view of the row
+	 */
+	protected abstract View getView(int position, T item,
+			View convertView, ViewGroup parent);
+
+	/**
+	 * Called in the main thread when a page can't be loaded,
+	 * reloaded, spilled or read back from the disk cache.
+	 * Does nothing by default.
+	 *
+	 * @param page the page number
+	 * @param e the error
+	 */
+	protected void onPageError(int page, Exception e) {
+	}
+
+	/**
+	 * Sets how many pages are kept in memory on each side
+	 * of the pages that are displayed.
+	 *
+	 * @param pages the number of pages
+	 */
+	public void setWindowPages(int pages) {
+		if(pages < 0){
+			throw new IllegalArgumentException("pages < 0");
+		}
+		mWindowPages = pages;
+		trimWindow();
+	}
+
+	/**
+	 * Moves the window of pages kept in memory to the rows
+	 * being displayed. LoadingListView calls it while
+	 * scrolling, call it yourself with other list views.
+	 *
+	 * @param firstPosition the position of the first visible row
+	 * @param count the number of visible rows
+	 */
+	public void setVisibleRange(int firstPosition, int count) {
+		int first = Math.max(firstPosition, 0) / mPageSize;
+		int last = Math.max(firstPosition + count - 1, 0) / mPageSize;
+		if(first == mFirstVisiblePage && last == mLastVisiblePage){
+			return;
+		}
+		mFirstVisiblePage = first;
+		mLastVisiblePage = Math.max(first, last);
+		trimWindow();
+	}
+
+	/**
+	 * Spills evicted pages to the disk cache, so they are
+	 * read back from disk instead of being fetched again.
+	 *
+	 * @param diskCache the disk cache, null to disable spilling
+	 * @param name a name unique to the data, used in the keys
+	 * @param serializer writes and reads the pages
+	 */
+	public void setSpillCache(DiskLruCache diskCache, String name,
+			PageSerializer<T> serializer) {
+		if(diskCache != null && (name == null || serializer == null)){
+			throw new IllegalArgumentException(
+					"name and serializer are required");
+		}
+		mSpillPrefix = diskCache == null ? null
+				: DiskLruCache.keyFor(name) + "_p";
+		mSerializer = serializer;
+		mSpillCache = diskCache;
+		mSpilled.clear();
+	}
+
+	@Override
+	public int getCount() {
+		if(mPageCount == 0){
+			return 0;
+		}
+		return (mPageCount - 1) * mPageSize + mLastPageSize;
+	}
+
+	/**
+	 * Gets the item at the position. If its page was evicted,
+	 * null is returned, and the page is reloaded in the
+	 * background if it's in the window.
+	 */
+	@Override
+	public T getItem(int position) {
+		int page = position / mPageSize;
+		List<T> items = mPages.get(page);
+		if(items == null){
+			if(isInWindow(page)){
+				reload(page);
+			}
+			return null;
+		}
+		int index = position % mPageSize;
+		return index < items.size() ? items.get(index) : null;
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return position;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		return getView(position, getItem(position), convertView, parent);
+	}
+
+	/**
+	 * @return the number of pages in memory
+	 */
+	public int getResidentPageCount() {
+		return mPages.size();
+	}
+
+	/**
+	 * Removes all the pages. Call LoadingListView.resetPages
+	 * too, so the pages are loaded from the first one again.
+	 */
+	public void clear() {
+		removeSpilled();
+		mGeneration++;
+		mPages.clear();
+		mReloading.clear();
+		mReloadFailures.clear();
+		mPageCount = 0;
+		mLastPageSize = 0;
+		mFirstVisiblePage = 0;
+		mLastVisiblePage = 0;
+		notifyDataSetChanged();
+	}
+
+	@Override
+	public void onPageRequested(LoadingListView listView, int page) {
+	}
+
+	@Override
+	public List<T> loadPage(LoadingListView listView, int page)
+			throws Exception {
+		return fetchPage(page);
+	}
+
+	/**
+	 * Appends the page, and notifies the end of the data
+	 * if the page is shorter than the page size.
+	 */
+	@Override
+	public void onPageLoaded(LoadingListView listView, int page,
+			List<T> result) {
+		int size = result == null ? 0 : result.size();
+		if(size > 0){
+			mPages.put(page, result);
+			mPageCount = page + 1;
+			mLastPageSize = Math.min(size, mPageSize);
+			trimWindow();
+			notifyDataSetChanged();
+		}
+		if(size < mPageSize){
+			listView.notifyEndOfData();
+		}
+	}
+
+	@Override
+	public void onPageFailed(LoadingListView listView, int page,
+			Exception e) {
+		onPageError(page, e);
+	}
+
+	private boolean isInWindow(int page) {
+		return page >= mFirstVisiblePage - mWindowPages
+			&& page <= mLastVisiblePage + mWindowPages;
+	}
+
+	/**
+	 * Evicts the pages out of the window around the visible pages.
+	 */
+	private void trimWindow() {
+		for (int i = mPages.size() - 1; i >= 0; i--) {
+			int page = mPages.keyAt(i);
+			if(!isInWindow(page)){
+				List<T> items = mPages.valueAt(i);
+				mPages.removeAt(i);
+				spill(page, items);
+			}
+		}
+	}
+
+	/**
+	 * The spill keys contain the generation, so a spill still
+	 * in flight after clear can't overwrite the new data.
+	 */
+	private String getSpillKey(int page, int generation) {
+		return mSpillPrefix + page + "_" + generation;
+	}
+
+	private void spill(final int page, final List<T> items) {
+		final DiskLruCache diskCache = mSpillCache;
+		if(diskCache == null || mSpilled.get(page)){
+			return;
+		}
+		mSpilled.put(page, true);
+		final int generation = mGeneration;
+		final String key = getSpillKey(page, generation);
+		final PageSerializer<T> serializer = mSerializer;
+		LoadingListView.getPageExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				if(generation != mGeneration){
+					// cleared meanwhile
+					return;
+				}
+				try {
+					DiskLruCache.Editor editor = diskCache.edit(key);
+					if(editor == null){
+						return;
+					}
+					try {
+						OutputStream out = editor.newOutputStream();
+						try {
+							serializer.write(items, out);
+						} finally {
+							out.close();
+						}
+						editor.commit();
+					} finally {
+						editor.abortUnlessCommitted();
+					}
+				} catch (IOException e) {
+					// the page is fetched again when needed
+					reportError(page, generation, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Removes the pages spilled by the current generation
+	 * from the disk cache.
+	 */
+	private void removeSpilled() {
+		final DiskLruCache diskCache = mSpillCache;
+		if(diskCache == null || mSpilled.size() == 0){
+			mSpilled.clear();
+			return;
+		}
+		final String[] keys = new String[mSpilled.size()];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = getSpillKey(mSpilled.keyAt(i), mGeneration);
+		}
+		mSpilled.clear();
+		LoadingListView.getPageExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				for (String key : keys) {
+					try {
+						diskCache.remove(key);
+					} catch (IOException e) {
+						// evicted by the disk cache eventually
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reloads an evicted page from the disk cache, or
+	 * fetches it again.
+	 */
+	private void reload(final int page) {
+		if(page >= mPageCount || mReloading.get(page)){
+			return;
+		}
+		mReloading.put(page, true);
+		final int generation = mGeneration;
+		final DiskLruCache diskCache = mSpilled.get(page) ? mSpillCache : null;
+		final String key = getSpillKey(page, generation);
+		final PageSerializer<T> serializer = mSerializer;
+		LoadingListView.getPageExecutor().execute(
+				new PriorityExecutor.Task(Integer.MAX_VALUE) {
+			@Override
+			public void run() {
+				List<T> items = null;
+				if(diskCache != null){
+					items = readSpilled(page, generation,
+							diskCache, key, serializer);
+				}
+				if(items == null){
+					try {
+						items = fetchPage(page);
+					} catch (Exception e) {
+						reportError(page, generation, e);
+					}
+				}
+				onReloaded(page, generation, items);
+			}
+		});
+	}
+
+	private List<T> readSpilled(int page, int generation,
+			DiskLruCache diskCache, String key,
+			PageSerializer<T> serializer) {
+		try {
+			DiskLruCache.Snapshot snapshot = diskCache.get(key);
+			if(snapshot == null){
+				return null;
+			}
+			InputStream in = snapshot.getInputStream();
+			try {
+				return serializer.read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// the page is fetched again
+			reportError(page, generation, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Delivers an error of a background thread to onPageError.
+	 */
+	private void reportError(final int page, final int generation,
+			final Exception e) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(generation == mGeneration){
+					onPageError(page, e);
+				}
+			}
+		});
+	}
+
+	private void onReloaded(final int page, final int generation,
+			final List<T> items) {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if(generation != mGeneration){
+					return;
+				}
+				if(!isInWindow(page)){
+					// scrolled away meanwhile
+					mReloading.delete(page);
+					mReloadFailures.delete(page);
+					return;
+				}
+				if(items == null){
+					// stays in mReloading until the retry, so
+					// binding the rows doesn't retry at once
+					retryReload(page, generation);
+					return;
+				}
+				mReloading.delete(page);
+				mReloadFailures.delete(page);
+				mPages.put(page, items);
+				notifyDataSetChanged();
+			}
+		});
+	}
+
+	/**
+	 * Reloads a failed page again after a delay, doubled
+	 * after each consecutive failure.
+	 */
+	private void retryReload(final int page, final int generation) {
+		int failures = mReloadFailures.get(page) + 1;
+		mReloadFailures.put(page, failures);
+		long delay = LoadingListView.DEFAULT_RETRY_DELAY
+			<< Math.min(failures - 1, 16);
+		mHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				if(generation != mGeneration){
+					return;
+				}
+				mReloading.delete(page);
+				if(isInWindow(page) && mPages.get(page) == null){
+					reload(page);
+				} else {
+					mReloadFailures.delete(page);
+				}
+			}
+		}, Math.min(delay, LoadingListView.MAX_RETRY_DELAY));
+	}
+
+	/**
+	 * Writes and reads pages spilled to the disk cache.
+	 *
+	 * @param <T> the type of the items
+	 */
+	public interface PageSerializer<T> {
+
+		/**
+		 * Writes the items of a page.
+		 *
+		 * @param items the items
+		 * @param out the stream to write to
+		 * @throws IOException
+		 */
+		void write(List<T> items, OutputStream out) throws IOException;
+
+		/**
+		 * Reads the items written by write.
+		 *
+		 * @param in the stream to read from
+		 * @return the items
+		 * @throws IOException
+		 */
+		List<T> read(InputStream in) throws IOException;
+	}
+}
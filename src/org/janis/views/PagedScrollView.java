@@ -2,24 +2,227 @@ package org.janis.views;
 
 import android.content.Context;
 import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.widget.Adapter;
 import android.widget.ScrollView;
 
+/**
+ * A vertically scrolling view that snaps to pages as tall as
+ * the view. A fling moves to the next page in its direction,
+ * a slow drag snaps to the nearest page.
+ *
+ * Pages can be given by an adapter, see setAdapter: only the
+ * current page and the pages within the offscreen limit are
+ * attached, the others are recycled by view type. Without an
+ * adapter the single child is scrolled page by page.
+ */
 public class PagedScrollView extends ScrollView {
 
+	private PageStrip mStrip;
+	private VelocityTracker mVelocityTracker;
+	private int mMinFlingVelocity;
+	private int mCurrentPage;
+
+	private final Runnable mRestorePageRunnable = new Runnable() {
+		@Override
+		public void run() {
+			scrollTo(0, mCurrentPage * getPageSize());
+		}
+	};
+
 	public PagedScrollView(Context context) {
 		super(context);
-		// TODO Auto-generated constructor stub
+		init(context);
 	}
 	
 	public PagedScrollView(Context context, AttributeSet attrs) {
 		super(context, attrs);
-		// TODO Auto-generated constructor stub
+		init(context);
 	}
 	
 	public PagedScrollView(Context context, AttributeSet attrs, int defStyle) {
 		super(context, attrs, defStyle);
-		// TODO Auto-generated constructor stub
+		init(context);
+	}
+
+	private void init(Context context) {
+		mMinFlingVelocity = ViewConfiguration.get(context)
+			.getScaledMinimumFlingVelocity();
+	}
+
+	/**
+	 * Sets the adapter of the pages. The children of the view
+	 * are replaced by the pages of the adapter.
+	 *
+	 * @param adapter the adapter, a PageAdapter to prefetch pages
+	 */
+	public void setAdapter(Adapter adapter) {
+		if(mStrip == null){
+			mStrip = new PageStrip(getContext(), true);
+			removeAllViews();
+			addView(mStrip);
+		}
+		mStrip.setAdapter(adapter);
+		mCurrentPage = 0;
+		scrollTo(0, 0);
+	}
+
+	/**
+	 * @return the adapter of the pages, or null
+	 */
+	public Adapter getAdapter() {
+		return mStrip == null ? null : mStrip.getAdapter();
+	}
+
+	/**
+	 * Sets the number of pages kept attached on each side of
+	 * the visible pages. The default is 1.
+	 *
+	 * @param limit the number of pages
+	 */
+	public void setOffscreenPageLimit(int limit) {
+		if(limit < 0){
+			throw new IllegalArgumentException("limit < 0");
+		}
+		if(mStrip == null){
+			throw new IllegalStateException("no adapter");
+		}
+		mStrip.setOffscreenPageLimit(limit);
+	}
+
+	/**
+	 * @return the page the view is snapped to
+	 */
+	public int getCurrentPage() {
+		return mCurrentPage;
+	}
+
+	/**
+	 * Scrolls to the page.
+	 *
+	 * @param page the page
+	 * @param smooth true to animate the scroll
+	 */
+	public void setCurrentPage(int page, boolean smooth) {
+		mCurrentPage = Math.max(0, Math.min(page, getPageCount() - 1));
+		if(smooth){
+			smoothScrollTo(0, mCurrentPage * getPageSize());
+		} else {
+			scrollTo(0, mCurrentPage * getPageSize());
+		}
+	}
+
+	/**
+	 * @return the number of pages
+	 */
+	public int getPageCount() {
+		if(mStrip != null){
+			return mStrip.getPageCount();
+		}
+		int pageSize = getPageSize();
+		if(getChildCount() == 0 || pageSize <= 0){
+			return 0;
+		}
+		return (getChildAt(0).getHeight() + pageSize - 1) / pageSize;
+	}
+
+	private int getPageSize() {
+		return getHeight() - getPaddingTop() - getPaddingBottom();
 	}
 
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+		if(mStrip != null){
+			mStrip.setPageSize(MeasureSpec.getSize(widthMeasureSpec)
+					- getPaddingLeft() - getPaddingRight(),
+					MeasureSpec.getSize(heightMeasureSpec)
+					- getPaddingTop() - getPaddingBottom());
+		}
+		super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+	}
 
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		if(h != oldh){
+			// stays on the same page, once the pages are resized
+			removeCallbacks(mRestorePageRunnable);
+			post(mRestorePageRunnable);
+		}
+	}
+
+	@Override
+	protected void onScrollChanged(int l, int t, int oldl, int oldt) {
+		super.onScrollChanged(l, t, oldl, oldt);
+		if(mStrip != null){
+			mStrip.populate(t);
+		}
+	}
+
+	@Override
+	public boolean dispatchTouchEvent(MotionEvent ev) {
+		if(mVelocityTracker == null){
+			mVelocityTracker = VelocityTracker.obtain();
+		}
+		mVelocityTracker.addMovement(ev);
+		boolean handled = super.dispatchTouchEvent(ev);
+		int action = ev.getActionMasked();
+		if(action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL){
+			mVelocityTracker.recycle();
+			mVelocityTracker = null;
+		}
+		return handled;
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent ev) {
+		int action = ev.getActionMasked();
+		if(action != MotionEvent.ACTION_UP && action != MotionEvent.ACTION_CANCEL){
+			return super.onTouchEvent(ev);
+		}
+		float velocity = 0;
+		if(action == MotionEvent.ACTION_UP && mVelocityTracker != null){
+			mVelocityTracker.computeCurrentVelocity(1000);
+			velocity = -mVelocityTracker.getYVelocity();
+		}
+		// ends the drag without the fling of the scroll view
+		MotionEvent cancel = MotionEvent.obtain(ev);
+		cancel.setAction(MotionEvent.ACTION_CANCEL);
+		super.onTouchEvent(cancel);
+		cancel.recycle();
+		snapToPage(velocity);
+		return true;
+	}
+
+	/**
+	 * Snaps to a page instead of flinging freely.
+	 */
+	@Override
+	public void fling(int velocityY) {
+		snapToPage(velocityY);
+	}
+
+	private void snapToPage(float velocity) {
+		int pageSize = getPageSize();
+		mCurrentPage = PageStrip.getSnapPage(getScrollY(), pageSize,
+				getPageCount(), velocity, mMinFlingVelocity);
+		smoothScrollTo(0, mCurrentPage * pageSize);
+	}
+
+	/**
+	 * @param page the page
+	 * @return the view of the page if it's attached, or null
+	 */
+	public View getPageView(int page) {
+		return mStrip == null ? null : mStrip.getPage(page);
+	}
+
+	@Override
+	protected void onDetachedFromWindow() {
+		removeCallbacks(mRestorePageRunnable);
+		super.onDetachedFromWindow();
+	}
 }